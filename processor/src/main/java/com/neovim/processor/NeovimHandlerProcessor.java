@@ -0,0 +1,304 @@
+package com.neovim.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Generates a {@code com.neovim.NeovimHandlerTable} for every class with
+ * {@code @NeovimHandler} methods so {@code Dispatcher} can register it without reflection.
+ *
+ * The table for {@code com.example.Outer.Inner} is {@code com.example.Outer$Inner_NeovimHandlers}.
+ * Classes the generated code can't reference (private, local, anonymous or generic classes and
+ * generic handler methods) are skipped with a note and fall back to reflection at runtime.
+ *
+ * Parameter types of methods inherited from a generic super class are resolved as members of the
+ * handler class, {@code handle(T value)} of {@code Sub extends Base<String>} takes a String.
+ */
+@SupportedAnnotationTypes(NeovimHandlerProcessor.NEOVIM_HANDLER)
+public class NeovimHandlerProcessor extends AbstractProcessor {
+    static final String NEOVIM_HANDLER = "com.neovim.NeovimHandler";
+    static final String SUFFIX = "_NeovimHandlers";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(NEOVIM_HANDLER);
+        if (annotation == null) {
+            return false;
+        }
+        Set<TypeElement> handlerTypes = new LinkedHashSet<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() == ElementKind.METHOD
+                    && element.getEnclosingElement() instanceof TypeElement) {
+                handlerTypes.add((TypeElement) element.getEnclosingElement());
+            }
+        }
+        for (TypeElement handlerType : handlerTypes) {
+            Optional<String> reason = unsupportedReason(handlerType);
+            if (reason.isPresent()) {
+                note(handlerType, reason.get());
+                continue;
+            }
+            List<ExecutableElement> methods = handlerMethods(handlerType);
+            Optional<ExecutableElement> generic = methods.stream()
+                    .filter(method -> !method.getTypeParameters().isEmpty())
+                    .findFirst();
+            if (generic.isPresent()) {
+                note(generic.get(), "generic handler methods are dispatched with reflection");
+                continue;
+            }
+            Optional<ExecutableElement> unresolved = methods.stream()
+                    .filter(method -> parameterTypes(handlerType, method).stream()
+                            .anyMatch(NeovimHandlerProcessor::hasTypeVariable))
+                    .findFirst();
+            if (unresolved.isPresent()) {
+                note(unresolved.get(), "handler methods with parameter types not resolved by "
+                        + handlerType.getSimpleName() + " are dispatched with reflection");
+                continue;
+            }
+            try {
+                writeTable(handlerType, methods);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.ERROR,
+                        "Can't write handler table: " + e.getMessage(),
+                        handlerType);
+            }
+        }
+        return false;
+    }
+
+    private Optional<String> unsupportedReason(TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS) {
+            return Optional.of("only classes get handler tables");
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            return Optional.of("generic handler classes are dispatched with reflection");
+        }
+        for (Element element = type;
+                element instanceof TypeElement;
+                element = element.getEnclosingElement()) {
+            TypeElement enclosing = (TypeElement) element;
+            if (enclosing.getNestingKind() == NestingKind.LOCAL
+                    || enclosing.getNestingKind() == NestingKind.ANONYMOUS) {
+                return Optional.of("local classes are dispatched with reflection");
+            }
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+                return Optional.of("private classes are dispatched with reflection");
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Same methods Class.getMethods() would find with the annotation: public, including the ones
+     * inherited from super classes.
+     */
+    private List<ExecutableElement> handlerMethods(TypeElement type) {
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(
+                processingEnv.getElementUtils().getAllMembers(type))) {
+            if (method.getModifiers().contains(Modifier.PUBLIC) && handlerName(method) != null) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Parameter types of method as a member of type, with the type arguments type gives its
+     * super classes substituted.
+     */
+    private List<? extends TypeMirror> parameterTypes(TypeElement type, ExecutableElement method) {
+        ExecutableType member = (ExecutableType) processingEnv.getTypeUtils()
+                .asMemberOf((DeclaredType) type.asType(), method);
+        return member.getParameterTypes();
+    }
+
+    private static boolean hasTypeVariable(TypeMirror type) {
+        switch (type.getKind()) {
+            case TYPEVAR:
+                return true;
+            case ARRAY:
+                return hasTypeVariable(((ArrayType) type).getComponentType());
+            case DECLARED:
+                return ((DeclaredType) type).getTypeArguments().stream()
+                        .anyMatch(NeovimHandlerProcessor::hasTypeVariable);
+            case WILDCARD:
+                WildcardType wildcard = (WildcardType) type;
+                return (wildcard.getExtendsBound() != null
+                                && hasTypeVariable(wildcard.getExtendsBound()))
+                        || (wildcard.getSuperBound() != null
+                                && hasTypeVariable(wildcard.getSuperBound()));
+            default:
+                return false;
+        }
+    }
+
+    private static String handlerName(ExecutableElement method) {
+        AnnotationValue value = annotationValue(method, "value");
+        return value == null ? null : (String) value.getValue();
+    }
+
+    /**
+     * Name of the NeovimHandler.Execution constant, INLINE when it is not set.
+     */
+    private static String execution(ExecutableElement method) {
+        AnnotationValue value = annotationValue(method, "execution");
+        return value == null
+                ? "INLINE"
+                : ((VariableElement) value.getValue()).getSimpleName().toString();
+    }
+
+    private static AnnotationValue annotationValue(ExecutableElement method, String name) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if (!annotationType.getQualifiedName().contentEquals(NEOVIM_HANDLER)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals(name)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void writeTable(TypeElement type, List<ExecutableElement> methods)
+            throws IOException {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = packageElement.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String tableName = (packageName.isEmpty()
+                ? binaryName
+                : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+        String handlerType = type.getQualifiedName().toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import com.fasterxml.jackson.core.type.TypeReference;\n")
+                .append("import com.neovim.NeovimHandler;\n")
+                .append("import com.neovim.NeovimHandlerTable;\n\n")
+                .append("/**\n")
+                .append(" * Generated by ").append(getClass().getName()).append(". Do not edit.\n")
+                .append(" */\n")
+                .append("public final class ").append(tableName)
+                .append(" implements NeovimHandlerTable<").append(handlerType).append("> {\n")
+                .append("    @Override\n")
+                .append("    public Class<").append(handlerType).append("> getHandlerType() {\n")
+                .append("        return ").append(handlerType).append(".class;\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    @SuppressWarnings(\"unchecked\")\n")
+                .append("    public void register(final ").append(handlerType)
+                .append(" handler, Registry registry) {\n");
+        for (ExecutableElement method : methods) {
+            appendRegistration(source, handlerType, method, parameterTypes(type, method));
+        }
+        source.append("    }\n")
+                .append("}\n");
+
+        String qualifiedTableName = packageName.isEmpty()
+                ? tableName
+                : packageName + "." + tableName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedTableName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(source.toString());
+        }
+    }
+
+    private void appendRegistration(
+            StringBuilder source,
+            String handlerType,
+            ExecutableElement method,
+            List<? extends TypeMirror> parameters) {
+        StringBuilder call = new StringBuilder();
+        call.append(method.getModifiers().contains(Modifier.STATIC) ? handlerType : "handler")
+                .append('.')
+                .append(method.getSimpleName())
+                .append('(');
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                call.append(", ");
+            }
+            call.append('(').append(boxedName(parameters.get(i))).append(") args[")
+                    .append(i).append(']');
+        }
+        call.append(')');
+
+        source.append("        registry.add(\n")
+                .append("                \"").append(escape(handlerName(method))).append("\",\n")
+                .append("                ").append(method.isVarArgs()).append(",\n")
+                .append("                NeovimHandler.Execution.").append(execution(method))
+                .append(",\n");
+        if (method.getReturnType().getKind() == TypeKind.VOID) {
+            source.append("                args -> {\n")
+                    .append("                    ").append(call).append(";\n")
+                    .append("                    return null;\n")
+                    .append("                }");
+        } else {
+            source.append("                args -> ").append(call);
+        }
+        for (TypeMirror parameter : parameters) {
+            source.append(",\n                new TypeReference<")
+                    .append(boxedName(parameter))
+                    .append(">() {}");
+        }
+        source.append(");\n");
+    }
+
+    private String boxedName(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils()
+                    .boxedClass(processingEnv.getTypeUtils().getPrimitiveType(type.getKind()))
+                    .getQualifiedName()
+                    .toString();
+        }
+        return type.toString();
+    }
+
+    private static String escape(String string) {
+        return string.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private void note(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+}
@@ -0,0 +1,245 @@
+package com.neovim.processor;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.Dispatcher;
+import com.neovim.NeovimHandler;
+import com.neovim.NeovimHandlerTable;
+import com.neovim.msgpack.MessagePackRPC;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class NeovimHandlerProcessorTest {
+    private static final ObjectMapper MAPPER = MessagePackRPC.defaultObjectMapper();
+
+    private static final String HANDLER = "package com.example;\n"
+            + "import com.neovim.NeovimHandler;\n"
+            + "import java.util.List;\n"
+            + "public class Handler {\n"
+            + "    public static class Nested {\n"
+            + "        @NeovimHandler(\"nested\") public String nested() { return \"nested\"; }\n"
+            + "    }\n"
+            + "    public final List<Object> calls = new java.util.ArrayList<>();\n"
+            + "    @NeovimHandler(\"concat\")\n"
+            + "    public String concat(String s, int i) { return s + \" \" + i; }\n"
+            + "    @NeovimHandler(\"count\")\n"
+            + "    public int count(List<String> s, long... rest) { return s.size() + rest.length; }\n"
+            + "    @NeovimHandler(\"notify\")\n"
+            + "    public void notify(String s) { calls.add(s); }\n"
+            + "    @NeovimHandler(value = \"static\", execution = NeovimHandler.Execution.PARALLEL)\n"
+            + "    public static String echo(String s) { return s; }\n"
+            + "    private static class Hidden {\n"
+            + "        @NeovimHandler(\"hidden\") public void hidden() {}\n"
+            + "    }\n"
+            + "    public static class Base<T> {\n"
+            + "        @NeovimHandler(\"base\")\n"
+            + "        public String base(T value, List<? extends T> rest) {\n"
+            + "            return value + \" \" + rest;\n"
+            + "        }\n"
+            + "    }\n"
+            + "    public static class Sub extends Base<String> {\n"
+            + "        @NeovimHandler(\"sub\") public String sub() { return \"sub\"; }\n"
+            + "    }\n"
+            + "    public static class RawSub extends Base {\n"
+            + "        @NeovimHandler(\"sub\") public String sub() { return \"sub\"; }\n"
+            + "    }\n"
+            + "}\n";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File classes;
+    private File generated;
+
+    @Before
+    public void setUp() throws IOException {
+        classes = folder.newFolder("classes");
+        generated = folder.newFolder("generated");
+    }
+
+    @Test
+    public void process_generatesTableThatCallsHandlerMethods() throws Exception {
+        compile();
+        try (URLClassLoader loader = loader()) {
+            Class<?> handlerClass = loader.loadClass("com.example.Handler");
+            Object handler = handlerClass.newInstance();
+            NeovimHandlerTable<Object> table = table(loader, "com.example.Handler");
+            Map<String, Registration> registrations = new LinkedHashMap<>();
+            table.register(handler, (name, varArgs, execution, method, parameterTypes) ->
+                    registrations.put(
+                            name, new Registration(varArgs, execution, method, parameterTypes)));
+
+            assertThat(table.getHandlerType(), is((Object) handlerClass));
+            assertThat(new ArrayList<>(registrations.keySet()),
+                    contains("concat", "count", "notify", "static"));
+
+            Registration concat = registrations.get("concat");
+            assertThat(concat.method.invoke(new Object[] { "Hello", 1 }), is((Object) "Hello 1"));
+            assertThat(concat.varArgs, is(false));
+            assertThat(concat.parameterTypes.length, is(2));
+            assertThat(concat.parameterTypes[1].getType(), is((Object) Integer.class));
+            assertThat(concat.execution, is(NeovimHandler.Execution.INLINE));
+
+            Registration count = registrations.get("count");
+            assertThat(count.varArgs, is(true));
+            Object[] countArgs = { Arrays.asList("a"), new long[] { 1, 2 } };
+            assertThat(count.method.invoke(countArgs), is((Object) 3));
+
+            assertThat(registrations.get("notify").method.invoke(new Object[] { "x" }),
+                    is((Object) null));
+            assertThat(handlerClass.getField("calls").get(handler),
+                    is((Object) Arrays.asList("x")));
+
+            Registration echo = registrations.get("static");
+            assertThat(echo.method.invoke(new Object[] { "s" }), is((Object) "s"));
+            assertThat(echo.execution, is(NeovimHandler.Execution.PARALLEL));
+        }
+    }
+
+    @Test
+    public void process_dispatcherUsesGeneratedTable() throws Exception {
+        compile();
+        try (URLClassLoader loader = loader()) {
+            Object handler = loader.loadClass("com.example.Handler").newInstance();
+            Dispatcher dispatcher = new Dispatcher(MessagePackRPC.defaultObjectMapper());
+            dispatcher.register(handler);
+
+            assertThat(dispatcher.dispatchMethod("concat", pack("Hello", 1)),
+                    is((Object) "Hello 1"));
+            assertThat(dispatcher.dispatchMethod("count", pack(Arrays.asList("a", "b"), 1, 2)),
+                    is((Object) 4));
+        }
+    }
+
+    @Test
+    public void process_inheritedFromGenericSuperClass_parameterTypesResolved() throws Exception {
+        compile();
+        try (URLClassLoader loader = loader()) {
+            Class<?> handlerClass = loader.loadClass("com.example.Handler$Sub");
+            Object handler = handlerClass.newInstance();
+            Map<String, TypeReference<?>[]> parameterTypes = new LinkedHashMap<>();
+            table(loader, "com.example.Handler$Sub").register(handler,
+                    (name, varArgs, execution, method, types) -> parameterTypes.put(name, types));
+
+            assertThat(parameterTypes.get("base")[0].getType(), is((Object) String.class));
+
+            Dispatcher dispatcher = new Dispatcher(MAPPER);
+            dispatcher.register(handler);
+            assertThat(dispatcher.dispatchMethod("base", pack("a", Arrays.asList("b"))),
+                    is((Object) "a [b]"));
+        }
+    }
+
+    @Test
+    public void process_rawSubClass_tableUsesErasure() throws Exception {
+        compile();
+        try (URLClassLoader loader = loader()) {
+            Object handler = loader.loadClass("com.example.Handler$RawSub").newInstance();
+            Map<String, TypeReference<?>[]> parameterTypes = new LinkedHashMap<>();
+            table(loader, "com.example.Handler$RawSub").register(handler,
+                    (name, varArgs, execution, method, types) -> parameterTypes.put(name, types));
+            assertThat(parameterTypes.get("base")[0].getType(), is((Object) Object.class));
+
+            Dispatcher dispatcher = new Dispatcher(MAPPER);
+            dispatcher.register(handler);
+            assertThat(dispatcher.dispatchMethod("base", pack("a", Arrays.asList("b"))),
+                    is((Object) "a [b]"));
+        }
+    }
+
+    @Test
+    public void process_nestedClass_tableUsesBinaryName() throws Exception {
+        compile();
+        assertThat(new File(generated, "com/example/Handler$Nested_NeovimHandlers.java").exists(),
+                is(true));
+    }
+
+    @Test
+    public void process_privateClass_noTable() throws Exception {
+        compile();
+        assertThat(new File(generated, "com/example/Handler$Hidden_NeovimHandlers.java").exists(),
+                is(false));
+    }
+
+    private void compile() throws IOException {
+        File sources = folder.newFolder("sources");
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                "-d", classes.getPath(),
+                // The client and its dependencies are on the test classpath
+                "-classpath", System.getProperty("java.class.path"),
+                "-s", generated.getPath(),
+                "-processor", NeovimHandlerProcessor.class.getName(),
+                "-processorpath", System.getProperty("java.class.path")));
+        arguments.add(write(sources, "com/example/Handler.java", HANDLER));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int result = compiler.run(null, null, errors, arguments.toArray(new String[0]));
+        assertThat(new String(errors.toByteArray(), StandardCharsets.UTF_8), result, is(0));
+    }
+
+    private static String write(File root, String path, String contents) throws IOException {
+        File file = new File(root, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    private URLClassLoader loader() throws IOException {
+        return new URLClassLoader(
+                new URL[] { classes.toURI().toURL() }, getClass().getClassLoader());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NeovimHandlerTable<Object> table(ClassLoader loader, String handlerClass)
+            throws Exception {
+        return (NeovimHandlerTable<Object>)
+                loader.loadClass(handlerClass + NeovimHandlerTable.SUFFIX).newInstance();
+    }
+
+    private static JsonNode pack(Object... objects) {
+        return MAPPER.convertValue(objects, JsonNode.class);
+    }
+
+    private static class Registration {
+        final boolean varArgs;
+        final NeovimHandler.Execution execution;
+        final NeovimHandlerTable.HandlerMethod method;
+        final TypeReference<?>[] parameterTypes;
+
+        Registration(
+                boolean varArgs,
+                NeovimHandler.Execution execution,
+                NeovimHandlerTable.HandlerMethod method,
+                TypeReference<?>[] parameterTypes) {
+            this.varArgs = varArgs;
+            this.execution = execution;
+            this.method = method;
+            this.parameterTypes = parameterTypes;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.JsonNodeUtil;
+import com.neovim.msgpack.MessagePackRPC;
+import com.neovim.msgpack.NeovimException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Records calls and sends them as a single nvim_call_atomic request. Neovim runs the calls one
+ * after the other without handling anything else in between and the result of each call
+ * completes its own future.
+ *
+ * <pre>{@code
+ * Batch batch = neovim.batch();
+ * CompletableFuture<Long> lines = batch.buffer(buffer).getLineCount();
+ * CompletableFuture<Position> cursor = batch.window(window).getCursorPosition();
+ * batch.send();
+ * }</pre>
+ *
+ * If a call fails neovim skips the rest of the batch. The failed call completes with the
+ * {@link NeovimException} and every later call with a NeovimException saying it didn't run.
+ *
+ * Not thread safe, record the calls from one thread.
+ */
+public class Batch {
+    private final MessagePackRPC messagePackRPC;
+    // [name, args] pairs in the shape nvim_call_atomic takes them
+    private final List<List<Object>> calls = new ArrayList<>();
+    private final List<Call<?>> results = new ArrayList<>();
+    private boolean sent = false;
+
+    Batch(MessagePackRPC messagePackRPC) {
+        this.messagePackRPC = checkNotNull(messagePackRPC);
+    }
+
+    public <T> CompletableFuture<T> call(TypeReference<T> type, String name, Object... args) {
+        return add(type.getType(), name, args);
+    }
+
+    public <T> CompletableFuture<T> call(Class<T> type, String name, Object... args) {
+        return add(type, name, args);
+    }
+
+    private <T> CompletableFuture<T> add(Type type, String name, Object... args) {
+        checkState(!sent, "Batch already sent");
+        calls.add(Arrays.asList(checkNotNull(name), Arrays.asList(args)));
+        Call<T> call = new Call<>(type, messagePackRPC.newFuture());
+        results.add(call);
+        return call.future;
+    }
+
+    /**
+     * @return number of recorded calls
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    /**
+     * Send every recorded call in one request. Nothing can be added afterwards.
+     *
+     * @return completes when every call has completed, exceptionally if one of them failed
+     */
+    public CompletableFuture<Void> send() {
+        checkState(!sent, "Batch already sent");
+        sent = true;
+        if (calls.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> done = messagePackRPC.newFuture();
+        messagePackRPC.sendRequest(this::readResults, "nvim_call_atomic", calls)
+                .whenComplete((batchResults, error) -> {
+                    if (error != null) {
+                        results.forEach(call -> call.future.completeExceptionally(error));
+                        done.completeExceptionally(error);
+                    } else {
+                        NeovimException failure = batchResults.complete(results);
+                        if (failure != null) {
+                            done.completeExceptionally(failure);
+                        } else {
+                            done.complete(null);
+                        }
+                    }
+                });
+        return done;
+    }
+
+    /**
+     * Read [results, error] in one pass, each result bound to the type of its call.
+     */
+    private BatchResults readResults(ObjectMapper objectMapper, JsonParser parser)
+            throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+        expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+        Object[] values = new Object[results.size()];
+        int count = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (count == values.length) {
+                throw new JsonMappingException("More results than calls", parser.getCurrentLocation());
+            }
+            values[count] = objectMapper.readValue(
+                    parser, objectMapper.constructType(results.get(count).type));
+            count++;
+        }
+        parser.nextToken();
+        JsonNode error = objectMapper.readTree(parser);
+        expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+
+        if (error == null || error.isNull()) {
+            return new BatchResults(values, count, -1, null);
+        }
+        // [index, error type, message]
+        return new BatchResults(
+                values,
+                count,
+                error.get(0).asInt(),
+                new NeovimException(error.get(1).asLong(), JsonNodeUtil.getText(error.get(2))));
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected)
+            throws JsonMappingException {
+        if (actual != expected) {
+            throw new JsonMappingException(
+                    String.format("Expected %s but was %s", expected, actual),
+                    parser.getCurrentLocation());
+        }
+    }
+
+    public BufferCalls buffer(Buffer buffer) {
+        return new BufferCalls(checkNotNull(buffer));
+    }
+
+    public WindowCalls window(Window window) {
+        return new WindowCalls(checkNotNull(window));
+    }
+
+    public TabPageCalls tabPage(TabPage tabPage) {
+        return new TabPageCalls(checkNotNull(tabPage));
+    }
+
+    public CompletableFuture<Void> command(String command) {
+        return call(Void.class, "vim_command", command);
+    }
+
+    public CompletableFuture<String> commandOutput(String str) {
+        return call(String.class, "vim_command_output", str);
+    }
+
+    public <T> CompletableFuture<T> eval(TypeReference<T> type, String str) {
+        return call(type, "vim_eval", str);
+    }
+
+    public CompletableFuture<byte[]> getCurrentLine() {
+        return call(byte[].class, "vim_get_current_line");
+    }
+
+    public <T> CompletableFuture<T> getVar(TypeReference<T> type, String name) {
+        return call(type, "vim_get_var", name);
+    }
+
+    public <T> CompletableFuture<T> getVimVar(TypeReference<T> type, String name) {
+        return call(type, "vim_get_vvar", name);
+    }
+
+    public <T> CompletableFuture<T> getOption(TypeReference<T> type, String name) {
+        return call(type, "vim_get_option", name);
+    }
+
+    public CompletableFuture<List<Buffer>> getBuffers() {
+        return call(new TypeReference<List<Buffer>>() {}, "vim_get_buffers");
+    }
+
+    public CompletableFuture<Buffer> getCurrentBuffer() {
+        return call(Buffer.class, "vim_get_current_buffer");
+    }
+
+    public CompletableFuture<List<Window>> getWindows() {
+        return call(new TypeReference<List<Window>>() {}, "vim_get_windows");
+    }
+
+    public CompletableFuture<Window> getCurrentWindow() {
+        return call(Window.class, "vim_get_current_window");
+    }
+
+    public CompletableFuture<List<TabPage>> getTabPages() {
+        return call(new TypeReference<List<TabPage>>() {}, "vim_get_tabpages");
+    }
+
+    public CompletableFuture<TabPage> getCurrentTabPage() {
+        return call(TabPage.class, "vim_get_current_tabpage");
+    }
+
+    /**
+     * Batched versions of the {@link Buffer} methods.
+     */
+    public class BufferCalls {
+        private final Buffer buffer;
+
+        private BufferCalls(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public CompletableFuture<Long> getLineCount() {
+            return call(Long.class, "buffer_line_count", buffer);
+        }
+
+        public CompletableFuture<byte[]> getLine(int index) {
+            return call(byte[].class, "buffer_get_line", buffer, index);
+        }
+
+        public CompletableFuture<Void> setLine(int index, byte[] line) {
+            return call(Void.class, "buffer_set_line", buffer, index, line);
+        }
+
+        public CompletableFuture<Void> deleteLine(int index) {
+            return call(Void.class, "buffer_del_line", buffer, index);
+        }
+
+        public CompletableFuture<List<byte[]>> getLineSlice(
+                long start, long end, boolean includeStart, boolean includeEnd) {
+            return call(
+                    new TypeReference<List<byte[]>>() {},
+                    "buffer_get_line_slice",
+                    buffer,
+                    start,
+                    end,
+                    includeStart,
+                    includeEnd);
+        }
+
+        public CompletableFuture<Void> setLineSlice(
+                long start,
+                long end,
+                boolean includeStart,
+                boolean includeEnd,
+                List<byte[]> replacements) {
+            return call(
+                    Void.class,
+                    "buffer_set_line_slice",
+                    buffer,
+                    start,
+                    end,
+                    includeStart,
+                    includeEnd,
+                    replacements);
+        }
+
+        public <T> CompletableFuture<T> getVar(TypeReference<T> type, String name) {
+            return call(type, "buffer_get_var", buffer, name);
+        }
+
+        public <T> CompletableFuture<T> getOption(TypeReference<T> type, String name) {
+            return call(type, "buffer_get_option", buffer, name);
+        }
+
+        public CompletableFuture<Long> getBufferNumber() {
+            return call(Long.class, "buffer_get_number", buffer);
+        }
+
+        public CompletableFuture<byte[]> getName() {
+            return call(byte[].class, "buffer_get_name", buffer);
+        }
+
+        public CompletableFuture<Boolean> isValid() {
+            return call(Boolean.class, "buffer_is_valid", buffer);
+        }
+
+        public CompletableFuture<Position> getMark(String name) {
+            return call(Position.class, "buffer_get_mark", buffer, name);
+        }
+    }
+
+    /**
+     * Batched versions of the {@link Window} methods.
+     */
+    public class WindowCalls {
+        private final Window window;
+
+        private WindowCalls(Window window) {
+            this.window = window;
+        }
+
+        public CompletableFuture<Buffer> getBuffer() {
+            return call(Buffer.class, "window_get_buffer", window);
+        }
+
+        public CompletableFuture<Position> getCursorPosition() {
+            return call(Position.class, "window_get_cursor", window);
+        }
+
+        public CompletableFuture<Void> setCursorPosition(Position pos) {
+            return call(Void.class, "window_set_cursor", window, pos);
+        }
+
+        public CompletableFuture<Long> getHeight() {
+            return call(Long.class, "window_get_height", window);
+        }
+
+        public CompletableFuture<Long> getWidth() {
+            return call(Long.class, "window_get_width", window);
+        }
+
+        public <T> CompletableFuture<T> getVar(TypeReference<T> type, String name) {
+            return call(type, "window_get_var", window, name);
+        }
+
+        public <T> CompletableFuture<T> getOption(TypeReference<T> type, String name) {
+            return call(type, "window_get_option", window, name);
+        }
+
+        public CompletableFuture<Position> getPosition() {
+            return call(Position.class, "window_get_position", window);
+        }
+
+        public CompletableFuture<TabPage> getTabPage() {
+            return call(TabPage.class, "window_get_tabpage", window);
+        }
+
+        public CompletableFuture<Boolean> isValid() {
+            return call(Boolean.class, "window_is_valid", window);
+        }
+    }
+
+    /**
+     * Batched versions of the {@link TabPage} methods.
+     */
+    public class TabPageCalls {
+        private final TabPage tabPage;
+
+        private TabPageCalls(TabPage tabPage) {
+            this.tabPage = tabPage;
+        }
+
+        public CompletableFuture<List<Window>> getWindows() {
+            return call(new TypeReference<List<Window>>() {}, "tabpage_get_windows", tabPage);
+        }
+
+        public <T> CompletableFuture<T> getVar(TypeReference<T> type, String name) {
+            return call(type, "tabpage_get_var", tabPage, name);
+        }
+
+        public CompletableFuture<Window> getWindow() {
+            return call(Window.class, "tabpage_get_window", tabPage);
+        }
+
+        public CompletableFuture<Boolean> isValid() {
+            return call(Boolean.class, "tabpage_is_valid", tabPage);
+        }
+    }
+
+    private static class Call<T> {
+        private final Type type;
+        private final CompletableFuture<T> future;
+
+        Call(Type type, CompletableFuture<T> future) {
+            this.type = checkNotNull(type);
+            this.future = checkNotNull(future);
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object value) {
+            future.complete((T) value);
+        }
+    }
+
+    private static class BatchResults {
+        private final Object[] values;
+        private final int count;
+        private final int errorIndex;
+        private final NeovimException error;
+
+        BatchResults(Object[] values, int count, int errorIndex, NeovimException error) {
+            this.values = values;
+            this.count = count;
+            this.errorIndex = errorIndex;
+            this.error = error;
+        }
+
+        /**
+         * @return the first failure, null if every call completed with its result
+         */
+        NeovimException complete(List<Call<?>> calls) {
+            NeovimException failure = error;
+            for (int i = 0; i < calls.size(); i++) {
+                Call<?> call = calls.get(i);
+                if (error != null && i == errorIndex) {
+                    call.future.completeExceptionally(error);
+                } else if (error != null && i > errorIndex) {
+                    call.future.completeExceptionally(new NeovimException(
+                            -1, "Not run, call " + errorIndex + " of the batch failed"));
+                } else if (i >= count) {
+                    NeovimException missing = new NeovimException(
+                            -1, "No result for call " + i + " of the batch");
+                    call.future.completeExceptionally(missing);
+                    if (failure == null) {
+                        failure = missing;
+                    }
+                } else {
+                    call.complete(values[i]);
+                }
+            }
+            return failure;
+        }
+    }
+}
@@ -3,16 +3,25 @@ package com.neovim;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
 import com.neovim.msgpack.MessagePackRPC;
+import org.msgpack.jackson.dataformat.MessagePackExtensionType;
 
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class Buffer {
+    static final int REPLACE_ATTEMPTS = 3;
+
     private final MessagePackRPC messagePackRPC;
     private final long id;
+    // Encoded on first use, instances are interned by NeovimModule so it is reused
+    private MessagePackExtensionType extensionType = null;
 
     Buffer(MessagePackRPC messagePackRPC, long id) {
         this.messagePackRPC = checkNotNull(messagePackRPC);
@@ -23,6 +32,16 @@ public class Buffer {
         return id;
     }
 
+    MessagePackExtensionType getExtensionType() {
+        // Racy but idempotent, every thread computes the same value
+        MessagePackExtensionType extensionType = this.extensionType;
+        if (extensionType == null) {
+            extensionType = NeovimModule.extensionType(NeovimModule.BUFFER_TYPE, id);
+            this.extensionType = extensionType;
+        }
+        return extensionType;
+    }
+
     public CompletableFuture<Long> getLineCount() {
         return messagePackRPC.sendRequest(Long.class, "buffer_line_count", this);
     }
@@ -61,6 +80,79 @@ public class Buffer {
                 "buffer_set_line_slice", this, start, end, includeStart, includeEnd, replacements);
     }
 
+    /**
+     * Make the buffer hold lines, changing only the lines that differ. The current lines and
+     * b:changedtick are fetched in one atomic call and diffed off the receiver thread, then the
+     * changed hunks are sent in one atomic batch, so undo, marks and highlights of the untouched
+     * lines are left alone. The batch only applies if the buffer is still at the fetched
+     * changedtick, otherwise the lines are fetched and diffed again, up to
+     * {@value #REPLACE_ATTEMPTS} times.
+     *
+     * @return fails with a {@link ConcurrentModificationException} if the buffer kept
+     *     changing
+     * @see BufferMirror#replaceContents(List) to diff against a mirror instead of fetching
+     */
+    public CompletableFuture<Void> replaceContents(List<byte[]> lines) {
+        checkNotNull(lines);
+        CompletableFuture<Void> done = messagePackRPC.newFuture();
+        replaceContents(lines, REPLACE_ATTEMPTS, done);
+        return done;
+    }
+
+    private void replaceContents(List<byte[]> lines, int attempts, CompletableFuture<Void> done) {
+        Batch batch = new Batch(messagePackRPC);
+        CompletableFuture<Long> changedTick =
+                batch.call(Long.class, "nvim_buf_get_changedtick", this);
+        CompletableFuture<List<byte[]>> current = batch.call(
+                new TypeReference<List<byte[]>>() {}, "nvim_buf_get_lines", this, 0, -1, false);
+        batch.send()
+                .thenComposeAsync(ignored -> LineDiff.apply(
+                        messagePackRPC, this, changedTick.join(), current.join(), lines))
+                .whenComplete((ignored, error) -> {
+                    if (error == null) {
+                        done.complete(null);
+                    } else if (attempts > 1 && Throwables.getRootCause(error)
+                            instanceof ConcurrentModificationException) {
+                        replaceContents(lines, attempts - 1, done);
+                    } else {
+                        done.completeExceptionally(error);
+                    }
+                });
+    }
+
+    /**
+     * Stream every line of the buffer, read in pages while the stream is consumed so memory use
+     * doesn't grow with the size of the buffer. Close the stream to stop early.
+     *
+     * @see BufferLineSpliterator
+     */
+    public Stream<byte[]> streamLines() {
+        return streamLines(0, -1);
+    }
+
+    /**
+     * Stream the lines in [start, end), read in pages while the stream is consumed.
+     *
+     * @param start first line, zero based
+     * @param end last line, exclusive, or negative for the end of the buffer
+     */
+    public Stream<byte[]> streamLines(long start, long end) {
+        BufferLineSpliterator lines = new BufferLineSpliterator(this, start, end);
+        return StreamSupport.stream(lines, false).onClose(lines::close);
+    }
+
+    /**
+     * Write lines into the buffer in pipelined chunks, replacing the lines in [start, end).
+     *
+     * @param start first line to replace, zero based
+     * @param end last line to replace, exclusive, or -1 for the end of the buffer
+     * @param singleUndoBlock undo the whole write at once instead of chunk by chunk
+     * @see BufferWriter
+     */
+    public BufferWriter writer(long start, long end, boolean singleUndoBlock) {
+        return new BufferWriter(messagePackRPC, this, start, end, singleUndoBlock);
+    }
+
     public <T> CompletableFuture<T> getVar(TypeReference<T> type, String name) {
         return messagePackRPC.sendRequest(type, "buffer_get_var", this, name);
     }
@@ -0,0 +1,203 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.neovim.msgpack.MessagePackRPC;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches buffer contents by b:changedtick. A cached result is checked with a single
+ * nvim_buf_get_changedtick request and returned if the buffer hasn't changed since, otherwise
+ * the changedtick and the data are fetched together in one atomic batch so they match.
+ *
+ * Entries are evicted least recently used first once their estimated size passes the byte limit.
+ * The returned arrays are shared with the cache and must not be modified.
+ *
+ * Only the lines are cached, changing the name or an option doesn't change b:changedtick.
+ *
+ * Created with {@link Neovim#newBufferCache(long)}.
+ */
+public class BufferCache {
+    // Rough cost of an entry besides its data
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final MessagePackRPC messagePackRPC;
+    private final Cache<Key, Entry> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    BufferCache(MessagePackRPC messagePackRPC, long maxBytes) {
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        this.messagePackRPC = checkNotNull(messagePackRPC);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, Entry entry) -> entry.weight)
+                .recordStats()
+                .build();
+    }
+
+    public CompletableFuture<Long> getLineCount(Buffer buffer) {
+        return get(buffer, new TypeReference<Long>() {}, "buffer_line_count", buffer);
+    }
+
+    public CompletableFuture<byte[]> getLine(Buffer buffer, int index) {
+        return get(buffer, new TypeReference<byte[]>() {}, "buffer_get_line", buffer, index);
+    }
+
+    public CompletableFuture<List<byte[]>> getLineSlice(
+            Buffer buffer, long start, long end, boolean includeStart, boolean includeEnd) {
+        return get(
+                buffer,
+                new TypeReference<List<byte[]>>() {},
+                "buffer_get_line_slice",
+                buffer,
+                start,
+                end,
+                includeStart,
+                includeEnd);
+    }
+
+    private <T> CompletableFuture<T> get(
+            Buffer buffer, TypeReference<T> type, String method, Object... args) {
+        Key key = new Key(method, Arrays.asList(args));
+        Entry cached = cache.getIfPresent(key);
+        if (cached == null) {
+            return load(buffer, key, type);
+        }
+        return messagePackRPC.sendRequest(Long.class, "nvim_buf_get_changedtick", buffer)
+                .thenCompose(tick -> {
+                    if (tick == cached.changedTick) {
+                        hits.incrementAndGet();
+                        @SuppressWarnings("unchecked")
+                        T value = (T) cached.value;
+                        return CompletableFuture.completedFuture(value);
+                    }
+                    return load(buffer, key, type);
+                });
+    }
+
+    private <T> CompletableFuture<T> load(Buffer buffer, Key key, TypeReference<T> type) {
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        Batch batch = new Batch(messagePackRPC);
+        CompletableFuture<Long> tick = batch.call(Long.class, "nvim_buf_get_changedtick", buffer);
+        CompletableFuture<T> value = batch.call(type, key.method, key.args.toArray());
+        batch.send().whenComplete((ignored, error) -> {
+            loadNanos.addAndGet(System.nanoTime() - start);
+            if (error != null) {
+                loadFailures.incrementAndGet();
+            } else {
+                cache.put(key, new Entry(tick.join(), value.join()));
+            }
+        });
+        return value;
+    }
+
+    /**
+     * Drop every entry of buffer.
+     */
+    public void invalidate(Buffer buffer) {
+        cache.asMap().keySet().removeIf(key -> key.args.get(0).equals(buffer));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return number of cached results
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * A hit is a result returned after only checking the changedtick, a miss one that had to be
+     * fetched, whether nothing was cached or the buffer had changed.
+     */
+    public CacheStats stats() {
+        long failures = loadFailures.get();
+        long loads = misses.get();
+        return new CacheStats(
+                hits.get(),
+                loads,
+                Math.max(0, loads - failures),
+                failures,
+                loadNanos.get(),
+                cache.stats().evictionCount());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", cache.size())
+                .add("stats", stats())
+                .toString();
+    }
+
+    private static int weigh(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length + 16;
+        }
+        if (value instanceof List) {
+            int weight = 16;
+            for (Object element : (List<?>) value) {
+                weight += 8 + weigh(element);
+            }
+            return weight;
+        }
+        return 16;
+    }
+
+    private static class Key {
+        private final String method;
+        // The buffer comes first
+        private final List<Object> args;
+
+        Key(String method, List<Object> args) {
+            this.method = method;
+            this.args = args;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key that = (Key) o;
+
+            return Objects.equal(this.method, that.method) &&
+                    Objects.equal(this.args, that.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(method, args);
+        }
+    }
+
+    private static class Entry {
+        private final long changedTick;
+        private final Object value;
+        private final int weight;
+
+        Entry(long changedTick, Object value) {
+            this.changedTick = changedTick;
+            this.value = value;
+            this.weight = ENTRY_OVERHEAD + weigh(value);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Routes the notifications of nvim_buf_attach to the {@link BufferMirror} of the buffer.
+ * Installed once per connection as notification readers, so events are applied on the reading
+ * thread in the order neovim sent them, interleaved correctly with responses, and the lines are
+ * bound as the bytes neovim sent whatever the encoding of the buffer.
+ *
+ * Events of buffers without a mirror are passed on as a tree, so handlers registered for the
+ * same methods still get them.
+ */
+class BufferEvents {
+    static final String LINES_EVENT = "nvim_buf_lines_event";
+    static final String CHANGED_TICK_EVENT = "nvim_buf_changedtick_event";
+    static final String DETACH_EVENT = "nvim_buf_detach_event";
+    private static final TypeReference<List<byte[]>> LINES = new TypeReference<List<byte[]>>() {};
+
+    private final ConcurrentMap<Buffer, BufferMirror> mirrors = new ConcurrentHashMap<>();
+    private final BiConsumer<String, JsonNode> notificationHandler;
+
+    /**
+     * @param notificationHandler gets the events of buffers without a mirror
+     */
+    BufferEvents(BiConsumer<String, JsonNode> notificationHandler) {
+        this.notificationHandler = checkNotNull(notificationHandler);
+    }
+
+    /**
+     * @return false if buffer already has a mirror
+     */
+    boolean add(BufferMirror mirror) {
+        return mirrors.putIfAbsent(mirror.getBuffer(), checkNotNull(mirror)) == null;
+    }
+
+    void remove(BufferMirror mirror) {
+        mirrors.remove(mirror.getBuffer(), mirror);
+    }
+
+    /**
+     * Read the arguments of nvim_buf_lines_event,
+     * [buffer, changedtick, firstline, lastline, linedata, more].
+     */
+    void readLinesEvent(ObjectMapper objectMapper, JsonParser parser) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+        parser.nextToken();
+        Object handle = parser.getEmbeddedObject();
+        Buffer buffer = objectMapper.readValue(parser, Buffer.class);
+        if (!mirrors.containsKey(buffer)) {
+            passOn(LINES_EVENT, handle, objectMapper, parser);
+            return;
+        }
+        // nil when the buffer is unloaded
+        Long changedTick = parser.nextToken() == JsonToken.VALUE_NULL
+                ? null
+                : parser.getLongValue();
+        long firstLine = nextLong(parser);
+        long lastLine = nextLong(parser);
+        parser.nextToken();
+        List<byte[]> lines = objectMapper.readValue(parser, LINES);
+        boolean more = parser.nextToken() == JsonToken.VALUE_TRUE;
+        expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+        linesEvent(buffer, changedTick, firstLine, lastLine, lines, more);
+    }
+
+    /**
+     * Read the arguments of nvim_buf_changedtick_event, [buffer, changedtick].
+     */
+    void readChangedTickEvent(ObjectMapper objectMapper, JsonParser parser) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+        parser.nextToken();
+        Object handle = parser.getEmbeddedObject();
+        Buffer buffer = objectMapper.readValue(parser, Buffer.class);
+        if (!mirrors.containsKey(buffer)) {
+            passOn(CHANGED_TICK_EVENT, handle, objectMapper, parser);
+            return;
+        }
+        long changedTick = nextLong(parser);
+        expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+        changedTickEvent(buffer, changedTick);
+    }
+
+    /**
+     * Read the arguments of nvim_buf_detach_event, [buffer].
+     */
+    void readDetachEvent(ObjectMapper objectMapper, JsonParser parser) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+        parser.nextToken();
+        Object handle = parser.getEmbeddedObject();
+        Buffer buffer = objectMapper.readValue(parser, Buffer.class);
+        if (!mirrors.containsKey(buffer)) {
+            passOn(DETACH_EVENT, handle, objectMapper, parser);
+            return;
+        }
+        expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+        detachEvent(buffer);
+    }
+
+    void linesEvent(
+            Buffer buffer,
+            Long changedTick,
+            long firstLine,
+            long lastLine,
+            List<byte[]> lines,
+            boolean more) {
+        BufferMirror mirror = mirrors.get(buffer);
+        if (mirror != null) {
+            mirror.onLines(changedTick, (int) firstLine, (int) lastLine, lines);
+        }
+    }
+
+    void changedTickEvent(Buffer buffer, long changedTick) {
+        BufferMirror mirror = mirrors.get(buffer);
+        if (mirror != null) {
+            mirror.onChangedTick(changedTick);
+        }
+    }
+
+    void detachEvent(Buffer buffer) {
+        BufferMirror mirror = mirrors.get(buffer);
+        if (mirror != null) {
+            mirror.onDetach();
+        }
+    }
+
+    /**
+     * Read the rest of the arguments into the tree the notification handler would have got.
+     *
+     * @param handle the buffer as it was read, the first argument
+     */
+    private void passOn(String method, Object handle, ObjectMapper objectMapper,
+            JsonParser parser) throws IOException {
+        ArrayNode args = objectMapper.createArrayNode();
+        args.addPOJO(handle);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            args.add(objectMapper.<JsonNode>readTree(parser));
+        }
+        notificationHandler.accept(method, args);
+    }
+
+    private static long nextLong(JsonParser parser) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.VALUE_NUMBER_INT);
+        return parser.getLongValue();
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected)
+            throws JsonMappingException {
+        if (actual != expected) {
+            throw new JsonMappingException(
+                    String.format("Expected %s but was %s", expected, actual),
+                    parser.getCurrentLocation());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.neovim;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads the lines of a {@link Buffer} a page at a time with buffer_get_line_slice, requesting
+ * the next page as soon as the current one is handed out so the two overlap. Pages aim for
+ * {@value #TARGET_PAGE_BYTES} bytes based on the length of the lines read so far, so at most two
+ * pages are held no matter how large the buffer is.
+ *
+ * The pages are separate requests, changes made to the buffer while it is read can show up
+ * half way. If the buffer shrinks the spliterator ends early.
+ *
+ * Created with {@link Buffer#streamLines()}.
+ */
+class BufferLineSpliterator implements Spliterator<byte[]>, AutoCloseable {
+    static final int TARGET_PAGE_BYTES = 1 << 20;
+    static final int MIN_PAGE_LINES = 16;
+    static final int MAX_PAGE_LINES = 64 * 1024;
+    static final int FIRST_PAGE_LINES = 1024;
+
+    private final Buffer buffer;
+    private final long start;
+    // Exclusive, negative until the line count is known
+    private long end;
+
+    // First line that hasn't been requested
+    private long position;
+    private int pageLines = FIRST_PAGE_LINES;
+    private long handedOut = 0;
+    private List<byte[]> page = Collections.emptyList();
+    private int pageIndex = 0;
+    private CompletableFuture<List<byte[]>> next = null;
+    private int nextRequested = 0;
+
+    /**
+     * @param start first line, zero based
+     * @param end last line, exclusive, or negative for the end of the buffer
+     */
+    BufferLineSpliterator(Buffer buffer, long start, long end) {
+        checkArgument(start >= 0, "start must not be negative");
+        checkArgument(end < 0 || start <= end, "start must not be after end");
+        this.buffer = checkNotNull(buffer);
+        this.start = start;
+        this.end = end;
+        this.position = start;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super byte[]> action) {
+        checkNotNull(action);
+        if (pageIndex == page.size() && !nextPage()) {
+            return false;
+        }
+        byte[] line = page.get(pageIndex);
+        // Let the consumer drop lines it is done with
+        page.set(pageIndex++, null);
+        handedOut++;
+        action.accept(line);
+        return true;
+    }
+
+    private boolean nextPage() {
+        if (end < 0) {
+            end = buffer.getLineCount().join();
+            if (start >= end) {
+                end = start;
+                return false;
+            }
+        }
+        if (next == null) {
+            // Only the first page, later ones have been prefetched
+            next = fetch();
+            if (next == null) {
+                return false;
+            }
+        }
+        List<byte[]> fetched = next.join();
+        if (fetched.size() < nextRequested) {
+            // The buffer got shorter, this is the last page
+            position = end;
+        }
+        next = null;
+        adaptPageSize(fetched);
+        page = fetched;
+        pageIndex = 0;
+        next = fetch();
+        return !page.isEmpty();
+    }
+
+    private CompletableFuture<List<byte[]>> fetch() {
+        if (position >= end) {
+            return null;
+        }
+        long pageEnd = Math.min(end, position + pageLines);
+        nextRequested = (int) (pageEnd - position);
+        CompletableFuture<List<byte[]>> lines = buffer.getLineSlice(position, pageEnd, true, false);
+        position = pageEnd;
+        return lines;
+    }
+
+    private void adaptPageSize(List<byte[]> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        long bytes = 0;
+        for (byte[] line : lines) {
+            // Count the framing too, so empty lines don't make pages huge
+            bytes += line.length + 1;
+        }
+        long averageLine = Math.max(1, bytes / lines.size());
+        pageLines = (int) Math.max(
+                MIN_PAGE_LINES, Math.min(MAX_PAGE_LINES, TARGET_PAGE_BYTES / averageLine));
+    }
+
+    /**
+     * Pages are read in order from one connection, the spliterator doesn't split.
+     */
+    @Override
+    public Spliterator<byte[]> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end < 0 ? Long.MAX_VALUE : Math.max(0, end - start - handedOut);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    int getPageLines() {
+        return pageLines;
+    }
+
+    /**
+     * Give up on the page being prefetched.
+     */
+    @Override
+    public void close() {
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+        if (end < 0) {
+            end = start;
+        }
+        position = Math.max(position, end);
+        page = Collections.emptyList();
+        pageIndex = 0;
+    }
+}
@@ -0,0 +1,288 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.MoreObjects;
+import com.neovim.msgpack.MessagePackRPC;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Local copy of the lines of a {@link Buffer}, kept up to date with the line events of
+ * nvim_buf_attach. Reads don't talk to neovim.
+ *
+ * The mirror takes a snapshot of the buffer when it attaches and whenever an event doesn't fit
+ * the local copy (out of order changedtick, lines outside the buffer) or neovim detaches it.
+ * Events that arrive while a snapshot is on its way are already part of it and are dropped.
+ *
+ * The lines are kept as UTF-8 bytes in a {@link LineStore}, a few bytes of overhead per line
+ * and O(log n) to look up or apply an event, so mirroring large buffers stays cheap.
+ *
+ * Created with {@link Neovim#mirror(Buffer)}.
+ */
+public class BufferMirror implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(BufferMirror.class);
+
+    private final MessagePackRPC messagePackRPC;
+    private final BufferEvents events;
+    private final Buffer buffer;
+    private final CompletableFuture<BufferMirror> ready;
+
+    // Guarded by this
+    private final LineStore lines = new LineStore();
+    private long changedTick = -1;
+    private long generation = 0;
+    private boolean synced = false;
+    private boolean closed = false;
+
+    BufferMirror(MessagePackRPC messagePackRPC, BufferEvents events, Buffer buffer) {
+        this.messagePackRPC = checkNotNull(messagePackRPC);
+        this.events = checkNotNull(events);
+        this.buffer = checkNotNull(buffer);
+        this.ready = messagePackRPC.newFuture();
+    }
+
+    /**
+     * Attach to the buffer and take the first snapshot.
+     *
+     * @return completes when the first snapshot has been applied
+     */
+    CompletableFuture<BufferMirror> attach() {
+        if (!events.add(this)) {
+            ready.completeExceptionally(
+                    new IllegalStateException("Buffer is already mirrored: " + buffer));
+            return ready;
+        }
+        CompletableFuture<Boolean> attached;
+        try {
+            attached = messagePackRPC.sendRequest(
+                    Boolean.class, "nvim_buf_attach", buffer, false, Collections.emptyMap());
+        } catch (RuntimeException e) {
+            fail(e);
+            return ready;
+        }
+        attached.whenComplete((success, error) -> {
+            if (error != null || !success) {
+                fail(error != null ? error : new IllegalStateException("Can't attach to " + buffer));
+            }
+        });
+        resync();
+        return ready;
+    }
+
+    public Buffer getBuffer() {
+        return buffer;
+    }
+
+    public synchronized int getLineCount() {
+        return lines.size();
+    }
+
+    /**
+     * @param index zero based line number
+     * @throws IndexOutOfBoundsException if the buffer doesn't have that line
+     */
+    public String getLine(int index) {
+        return new String(getLineBytes(index), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param index zero based line number
+     * @return the line as sent by neovim, like {@link Buffer#getLine(int)}
+     * @throws IndexOutOfBoundsException if the buffer doesn't have that line
+     */
+    public synchronized byte[] getLineBytes(int index) {
+        checkElementIndex(index, lines.size());
+        return lines.get(index);
+    }
+
+    /**
+     * @param start first line, zero based and inclusive
+     * @param end last line, exclusive
+     * @return copy of the lines
+     */
+    public List<String> getLines(int start, int end) {
+        List<byte[]> slice = getLineSlice(start, end);
+        List<String> result = new ArrayList<>(slice.size());
+        for (byte[] line : slice) {
+            result.add(new String(line, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /**
+     * @param start first line, zero based and inclusive
+     * @param end last line, exclusive
+     * @return copy of the lines as sent by neovim, like {@link Buffer#getLineSlice}
+     */
+    public synchronized List<byte[]> getLineSlice(int start, int end) {
+        checkPositionIndexes(start, end, lines.size());
+        return lines.get(start, end);
+    }
+
+    /**
+     * Make the buffer hold lines, sending only the hunks that differ from the mirrored lines.
+     * The mirror itself is updated by the line events that follow.
+     *
+     * @return fails with a {@link java.util.ConcurrentModificationException}, and changes
+     *     nothing, if the buffer changed after the mirrored changedtick
+     * @throws IllegalStateException if the mirror isn't synced
+     */
+    public CompletableFuture<Void> replaceContents(List<byte[]> lines) {
+        checkNotNull(lines);
+        List<byte[]> current;
+        long tick;
+        synchronized (this) {
+            checkState(synced, "%s is not synced", buffer);
+            current = this.lines.get(0, this.lines.size());
+            tick = changedTick;
+        }
+        return LineDiff.apply(messagePackRPC, buffer, tick, current, lines);
+    }
+
+    /**
+     * @return changedtick of the buffer the lines correspond to
+     */
+    public synchronized long getChangedTick() {
+        return changedTick;
+    }
+
+    /**
+     * @return false while a snapshot is on its way, reads return the previous state until then
+     */
+    public synchronized boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * Detach from the buffer. The mirror keeps its last state but no longer changes.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            synced = false;
+        }
+        events.remove(this);
+        messagePackRPC.sendNotification("nvim_buf_detach", buffer);
+    }
+
+    synchronized void onLines(Long tick, int firstLine, int lastLine, List<byte[]> replacement) {
+        if (!synced) {
+            // Part of the snapshot that's on its way
+            return;
+        }
+        int end = lastLine < 0 ? lines.size() : lastLine;
+        if ((tick != null && tick <= changedTick)
+                || firstLine < 0
+                || firstLine > end
+                || end > lines.size()) {
+            log.warn("{} out of sync at changedtick {} (event {} lines {}-{}), resyncing",
+                    buffer, changedTick, tick, firstLine, lastLine);
+            resync();
+            return;
+        }
+        lines.replace(firstLine, end, replacement);
+        if (tick != null) {
+            changedTick = tick;
+        }
+    }
+
+    synchronized void onChangedTick(long tick) {
+        if (!synced) {
+            return;
+        }
+        if (tick < changedTick) {
+            resync();
+        } else {
+            changedTick = tick;
+        }
+    }
+
+    void onDetach() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        log.debug("{} detached, attaching again", buffer);
+        events.remove(this);
+        attach();
+    }
+
+    /**
+     * Take a new snapshot. The changedtick and lines are read in one atomic call so they
+     * match, and the response is handled in order with the events on the receiver thread.
+     */
+    private synchronized void resync() {
+        if (closed) {
+            return;
+        }
+        synced = false;
+        long snapshot = ++generation;
+        Batch batch = new Batch(messagePackRPC);
+        CompletableFuture<Long> tick = batch.call(Long.class, "nvim_buf_get_changedtick", buffer);
+        CompletableFuture<List<byte[]>> snapshotLines = batch.call(
+                new TypeReference<List<byte[]>>() {}, "nvim_buf_get_lines", buffer, 0, -1, false);
+        CompletableFuture<Void> sent;
+        try {
+            sent = batch.send();
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        sent.whenComplete((ignored, error) -> {
+            if (error != null) {
+                fail(error);
+            } else {
+                applySnapshot(snapshot, tick.join(), snapshotLines.join());
+            }
+        });
+    }
+
+    private synchronized void applySnapshot(long snapshot, long tick, List<byte[]> snapshotLines) {
+        if (closed || snapshot != generation) {
+            return;
+        }
+        lines.setAll(snapshotLines);
+        changedTick = tick;
+        synced = true;
+        ready.complete(this);
+    }
+
+    /**
+     * Stop following the buffer, the mirror keeps its last state.
+     */
+    private void fail(Throwable error) {
+        log.error("Can't mirror {}: {}", buffer, error.getMessage(), error);
+        synchronized (this) {
+            closed = true;
+            synced = false;
+        }
+        events.remove(this);
+        ready.completeExceptionally(error);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("buffer", buffer)
+                .add("lines", lines.size())
+                .add("changedTick", changedTick)
+                .add("synced", synced)
+                .toString();
+    }
+}
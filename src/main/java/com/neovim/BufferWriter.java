@@ -0,0 +1,198 @@
+package com.neovim;
+
+import com.google.common.base.MoreObjects;
+import com.neovim.msgpack.MessagePackRPC;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Writes lines into a {@link Buffer} as they are produced. Lines are collected into chunks of up
+ * to {@value #CHUNK_BYTES} bytes and each chunk is sent with nvim_buf_set_lines without waiting
+ * for the previous ones, up to {@value #MAX_IN_FLIGHT} chunks at a time. Memory use stays flat
+ * however many lines are written.
+ *
+ * The first chunk replaces the range the writer was created for, the following chunks are
+ * inserted after it. With a single undo block every chunk after the first is joined to the undo
+ * block of the first one, so one undo reverts the whole write.
+ *
+ * <pre>{@code
+ * try (BufferWriter writer = buffer.writer(0, -1, true)) {
+ *     for (String line : lines) {
+ *         writer.write(line);
+ *     }
+ * }
+ * }</pre>
+ *
+ * Not thread safe. A failed chunk fails the next write or close.
+ */
+public class BufferWriter implements AutoCloseable {
+    static final int CHUNK_BYTES = 256 * 1024;
+    static final int CHUNK_LINES = 8 * 1024;
+    static final int MAX_IN_FLIGHT = 4;
+
+    // Joins the change to the previous undo block of buf, undojoin only affects the current
+    // buffer so it runs with buf as the current buffer
+    private static final String JOINED_SET_LINES = "local buf, first, last, lines = ...\n"
+            + "vim.api.nvim_buf_call(buf, function()\n"
+            + "  vim.cmd('silent! undojoin')\n"
+            + "  vim.api.nvim_buf_set_lines(buf, first, last, false, lines)\n"
+            + "end)";
+
+    private final MessagePackRPC messagePackRPC;
+    private final Buffer buffer;
+    private final boolean singleUndoBlock;
+    private final int chunkBytes;
+    private final int chunkLines;
+    private final int maxInFlight;
+
+    private long position;
+    // End of the range the first chunk replaces, later chunks insert
+    private long end;
+    private boolean first = true;
+    private List<byte[]> chunk = new ArrayList<>();
+    private int bytes = 0;
+    private final Deque<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+    private long linesWritten = 0;
+    private boolean closed = false;
+
+    BufferWriter(MessagePackRPC messagePackRPC, Buffer buffer, long start, long end,
+            boolean singleUndoBlock) {
+        this(messagePackRPC, buffer, start, end, singleUndoBlock,
+                CHUNK_BYTES, CHUNK_LINES, MAX_IN_FLIGHT);
+    }
+
+    BufferWriter(MessagePackRPC messagePackRPC, Buffer buffer, long start, long end,
+            boolean singleUndoBlock, int chunkBytes, int chunkLines, int maxInFlight) {
+        checkArgument(start >= 0, "start must not be negative");
+        checkArgument(chunkBytes > 0 && chunkLines > 0 && maxInFlight > 0);
+        this.messagePackRPC = checkNotNull(messagePackRPC);
+        this.buffer = checkNotNull(buffer);
+        this.position = start;
+        this.end = end;
+        this.singleUndoBlock = singleUndoBlock;
+        this.chunkBytes = chunkBytes;
+        this.chunkLines = chunkLines;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param line line without a newline
+     */
+    public void write(byte[] line) {
+        checkState(!closed, "Writer is closed");
+        chunk.add(checkNotNull(line));
+        bytes += line.length;
+        if (chunk.size() >= chunkLines || bytes >= chunkBytes) {
+            flush();
+        }
+    }
+
+    public void write(String line) {
+        write(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send the lines written so far without waiting for them to be applied.
+     */
+    public void flush() {
+        checkState(!closed, "Writer is closed");
+        if (chunk.isEmpty()) {
+            return;
+        }
+        // Taken before sending, a failure reported below must not leave the lines to be sent
+        // again by close
+        List<byte[]> lines = chunk;
+        chunk = new ArrayList<>();
+        bytes = 0;
+        send(lines);
+        // Wait for the oldest chunk when too many are on their way, and report failures early
+        while (!inFlight.isEmpty()
+                && (inFlight.size() > maxInFlight || inFlight.peek().isDone())) {
+            inFlight.poll().join();
+        }
+    }
+
+    private void send(List<byte[]> lines) {
+        CompletableFuture<Void> sent;
+        if (first || !singleUndoBlock) {
+            sent = messagePackRPC.sendRequest(
+                    Void.class, "nvim_buf_set_lines", buffer, position, end, false, lines);
+        } else {
+            sent = messagePackRPC.sendRequest(
+                    Void.class,
+                    "nvim_exec_lua",
+                    JOINED_SET_LINES,
+                    Arrays.asList(buffer, position, end, lines));
+        }
+        first = false;
+        position += lines.size();
+        end = position;
+        linesWritten += lines.size();
+        inFlight.add(sent);
+    }
+
+    /**
+     * @return lines sent so far
+     */
+    public long getLinesWritten() {
+        return linesWritten;
+    }
+
+    /**
+     * Send the remaining lines and wait until every chunk has been applied. A writer closed
+     * without writing anything still replaces its range, with no lines.
+     *
+     * @throws CompletionException with the failure of the first chunk that failed, the failures
+     *     of later chunks are suppressed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        List<byte[]> lines = chunk;
+        chunk = Collections.emptyList();
+        if (first || !lines.isEmpty()) {
+            send(lines);
+        }
+        // Wait for every chunk even if one failed, then report the first failure
+        CompletionException failure = null;
+        while (!inFlight.isEmpty()) {
+            try {
+                inFlight.poll().join();
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e;
+                } else if (e != failure) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("buffer", buffer)
+                .add("position", position)
+                .add("linesWritten", linesWritten)
+                .add("inFlight", inFlight.size())
+                .toString();
+    }
+}
@@ -1,44 +1,120 @@
 package com.neovim;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.neovim.msgpack.NeovimException;
+import org.msgpack.jackson.dataformat.MessagePackExtensionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.base.Throwables.getRootCause;
 
 public class Dispatcher {
     private static final Logger log = LoggerFactory.getLogger(Dispatcher.class);
 
+    private static final ClassValue<Optional<NeovimHandlerTable<?>>> HANDLER_TABLES =
+            new ClassValue<Optional<NeovimHandlerTable<?>>>() {
+                @Override
+                protected Optional<NeovimHandlerTable<?>> computeValue(Class<?> type) {
+                    return findHandlerTable(type);
+                }
+            };
+
+    private static final Supplier<Executor> DEFAULT_EXECUTOR =
+            Suppliers.memoize(Dispatcher::newPerMessageExecutor);
+    private static final int STRIPES = Runtime.getRuntime().availableProcessors() * 4;
+
     private final ConcurrentMap<String, Invoker> handlers = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper;
+    private volatile DispatchExecutors executors = null;
 
     public Dispatcher(ObjectMapper objectMapper) {
         this.objectMapper = checkNotNull(objectMapper);
     }
 
+    /**
+     * Set the executor that runs handlers that are not {@link NeovimHandler.Execution#INLINE}.
+     * Ordered handlers are queued per method, or per method and first argument, and only one
+     * task of each queue is handed to the executor at a time.
+     *
+     * Defaults to a virtual thread per message on Java 21 and later and to a cached thread pool
+     * before that.
+     *
+     * @param executor runs handler methods, it should not run tasks on the calling thread
+     */
+    public void setExecutor(Executor executor) {
+        executors = new DispatchExecutors(executor);
+    }
+
+    private DispatchExecutors executors() {
+        DispatchExecutors executors = this.executors;
+        if (executors == null) {
+            executors = new DispatchExecutors(DEFAULT_EXECUTOR.get());
+            this.executors = executors;
+        }
+        return executors;
+    }
+
+    private static Executor newPerMessageExecutor() {
+        try {
+            // Looked up reflectively, virtual threads need Java 21
+            return (Executor) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("neovim-handler-%d")
+                    .build());
+        }
+    }
+
+    /**
+     * Register every {@link NeovimHandler} method of handler. Uses the table generated at
+     * compile time for the handler class if there is one, otherwise the class is scanned with
+     * reflection.
+     *
+     * @param handler object with {@link NeovimHandler} methods
+     * @throws IllegalStateException if a handler with the same name is already registered
+     */
+    @SuppressWarnings("unchecked")
     public void register(Object handler) {
-        for (Method method : handler.getClass().getMethods()) {
-            NeovimHandler neovimHandler = method.getAnnotation(NeovimHandler.class);
-            if (neovimHandler != null) {
-                String name = neovimHandler.value();
-
-                checkState(!handlers.containsKey(name),
-                        "Already registered request handler with name %s", name);
-                handlers.put(neovimHandler.value(), new Invoker(handler, method));
+        Optional<NeovimHandlerTable<?>> table = HANDLER_TABLES.get(handler.getClass());
+        if (table.isPresent()) {
+            ((NeovimHandlerTable<Object>) table.get()).register(handler, this::addHandler);
+        } else {
+            for (Method method : handler.getClass().getMethods()) {
+                NeovimHandler neovimHandler = method.getAnnotation(NeovimHandler.class);
+                if (neovimHandler != null) {
+                    addHandler(neovimHandler.value(), handler, neovimHandler, method);
+                }
             }
         }
         if (handler instanceof DispatcherHelper) {
@@ -46,71 +122,256 @@ public class Dispatcher {
         }
     }
 
+    private void addHandler(String name, Object handler, NeovimHandler annotation, Method method) {
+        Type[] parameterTypes = method.getGenericParameterTypes();
+        JavaType[] types = new JavaType[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            types[i] = objectMapper.constructType(parameterTypes[i]);
+        }
+        addHandler(name, new Invoker(
+                types,
+                method.isVarArgs(),
+                annotation.execution(),
+                reflectiveCall(handler, method)));
+    }
+
+    private void addHandler(
+            String name,
+            boolean varArgs,
+            NeovimHandler.Execution execution,
+            NeovimHandlerTable.HandlerMethod call,
+            TypeReference<?>... parameterTypes) {
+        JavaType[] types = new JavaType[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            types[i] = objectMapper.constructType(parameterTypes[i].getType());
+        }
+        addHandler(name, new Invoker(types, varArgs, execution, call));
+    }
+
+    private void addHandler(String name, Invoker invoker) {
+        checkState(handlers.putIfAbsent(name, invoker) == null,
+                "Already registered request handler with name %s", name);
+    }
+
+    private static Optional<NeovimHandlerTable<?>> findHandlerTable(Class<?> type) {
+        String tableName = type.getName() + NeovimHandlerTable.SUFFIX;
+        try {
+            Class<?> tableClass = Class.forName(tableName, true, type.getClassLoader());
+            NeovimHandlerTable<?> table = (NeovimHandlerTable<?>) tableClass.newInstance();
+            if (table.getHandlerType() == type) {
+                return Optional.of(table);
+            }
+            log.warn("{} is not a handler table for {}", tableName, type);
+        } catch (ClassNotFoundException e) {
+            // Not processed at compile time, fall back to reflection
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            log.warn("Can't use handler table {}: {}", tableName, e.getMessage(), e);
+        }
+        return Optional.empty();
+    }
+
+    private static NeovimHandlerTable.HandlerMethod reflectiveCall(Object object, Method method) {
+        try {
+            method.setAccessible(true);
+        } catch (RuntimeException e) {
+            log.debug("Can't make {} accessible: {}", method, e.getMessage());
+        }
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Can't access handler method " + method, e);
+        }
+        if (!Modifier.isStatic(method.getModifiers())) {
+            handle = handle.bindTo(object);
+        }
+        // (Object[]) -> Object, primitives are boxed and void returns null
+        int parameterCount = method.getParameterCount();
+        MethodHandle spread = handle.asType(MethodType.genericMethodType(parameterCount))
+                .asSpreader(Object[].class, parameterCount);
+        return args -> {
+            try {
+                return (Object) spread.invokeExact(args);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new UndeclaredThrowableException(t);
+            }
+        };
+    }
+
+    /**
+     * Call the handler registered under name.
+     *
+     * @param name handler name
+     * @param object arguments, an array
+     * @return the handler result, a {@link NeovimException} if the handler failed or a
+     *     {@link CompletionStage} that completes with one of those if the handler returned one
+     *     or does not run inline
+     */
     public Object dispatchMethod(String name, JsonNode object) {
         Invoker method = handlers.get(name);
         if (method == null) {
             log.warn("Received notification {}({})", name, object);
-            return new NeovimException(0, "No such method: " + name);
+            return new NeovimException(
+                    NeovimException.HANDLER_FAILED, "No such method: " + name);
+        }
+        if (method.execution == NeovimHandler.Execution.INLINE) {
+            return call(method, object);
+        }
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            Object result = call(method, object);
+            if (result instanceof CompletionStage) {
+                ((CompletionStage<?>) result).thenAccept(future::complete);
+            } else {
+                future.complete(result);
+            }
+        };
+        try {
+            DispatchExecutors executors = executors();
+            switch (method.execution) {
+                case ORDERED:
+                    executors.striped.execute(name.hashCode(), task);
+                    break;
+                case ORDERED_BY_FIRST_ARGUMENT:
+                    executors.striped.execute(
+                            31 * name.hashCode() + firstArgumentHash(object), task);
+                    break;
+                default:
+                    executors.executor.execute(task);
+                    break;
+            }
+        } catch (RejectedExecutionException e) {
+            return toNeovimException(e);
+        }
+        return future;
+    }
+
+    private static int firstArgumentHash(JsonNode args) {
+        if (!args.isArray() || args.size() == 0) {
+            return 0;
         }
+        JsonNode first = args.get(0);
+        if (first.isPojo() && ((POJONode) first).getPojo() instanceof MessagePackExtensionType) {
+            // Buffer, Window and Tabpage handles, the extension type has no hashCode of its own
+            MessagePackExtensionType extension =
+                    (MessagePackExtensionType) ((POJONode) first).getPojo();
+            return 31 * extension.getType() + Arrays.hashCode(extension.getData());
+        }
+        return first.hashCode();
+    }
 
+    private Object call(Invoker method, JsonNode object) {
         try {
-            return method.invoke(object);
-        } catch (Exception e) {
-            log.error("{}", e.getMessage(), e);
-            return new NeovimException(0, getRootCause(e).getMessage());
+            Object result = method.invoke(object);
+            if (result instanceof CompletionStage) {
+                // Failures of asynchronous handlers are reported the same way as thrown ones
+                return ((CompletionStage<?>) result).handle(
+                        (value, error) -> error == null ? value : toNeovimException(error));
+            }
+            return result;
+        } catch (Throwable e) {
+            // Errors too, or a handler running on the executor would never be answered
+            return toNeovimException(e);
         }
     }
 
+    private static NeovimException toNeovimException(Throwable e) {
+        log.error("{}", e.getMessage(), e);
+        return NeovimException.fromThrowable(e);
+    }
+
+    private static class DispatchExecutors {
+        private final Executor executor;
+        private final StripedExecutor striped;
+
+        DispatchExecutors(Executor executor) {
+            this.executor = checkNotNull(executor);
+            striped = new StripedExecutor(executor, STRIPES);
+        }
+    }
+
+    /**
+     * Argument binding plan for one handler method, computed once at registration.
+     */
     private class Invoker {
-        private final Object object;
-        private final Method method;
+        private final JavaType[] types;
+        private final boolean passJsonNode;
+        private final boolean varArgs;
+        private final NeovimHandler.Execution execution;
+        private final Class<?> varArgsComponent;
+        private final NeovimHandlerTable.HandlerMethod call;
+
+        // Created on first use so modules registered after the handler are picked up
+        private volatile ObjectReader[] readers = null;
+        private volatile ObjectReader varArgsReader = null;
 
-        public Invoker(Object object, Method method) {
-            this.object = checkNotNull(object);
-            this.method = checkNotNull(method);
+        public Invoker(
+                JavaType[] types,
+                boolean varArgs,
+                NeovimHandler.Execution execution,
+                NeovimHandlerTable.HandlerMethod call) {
+            this.types = checkNotNull(types);
+            this.execution = checkNotNull(execution);
+            this.call = checkNotNull(call);
+            this.varArgs = varArgs;
+            passJsonNode = types.length == 1 && types[0].getRawClass() == JsonNode.class;
+            varArgsComponent = varArgs
+                    ? types[types.length - 1].getContentType().getRawClass()
+                    : null;
         }
 
-        public Object invoke(JsonNode nodes) throws
-                InvocationTargetException, IllegalAccessException, IOException {
-            checkArgument(nodes.isArray(), "Argument is supposed to be an array");
-            Type[] types = method.getGenericParameterTypes();
+        private ObjectReader[] readers() {
+            ObjectReader[] readers = this.readers;
+            if (readers == null) {
+                readers = new ObjectReader[types.length];
+                for (int i = 0; i < types.length; i++) {
+                    readers[i] = objectMapper.reader(types[i]);
+                }
+                if (varArgs) {
+                    varArgsReader = objectMapper.reader(types[types.length - 1].getContentType());
+                }
+                this.readers = readers;
+            }
+            return readers;
+        }
 
+        public Object invoke(JsonNode nodes) throws Exception {
+            checkArgument(nodes.isArray(), "Argument is supposed to be an array");
             Object[] args = new Object[types.length];
 
-            if (types.length == 1 && types[0] == JsonNode.class) {
+            if (passJsonNode) {
                 // Pass nodes directly
                 args[0] = nodes;
-            } else if (method.isVarArgs() && types.length <= nodes.size()) {
+            } else if (varArgs && types.length <= nodes.size()) {
                 // Handle java var args method
+                ObjectReader[] readers = readers();
                 int i;
                 for (i = 0; i < types.length - 1; i++) {
-                    args[i] = objectMapper.readValue(
-                            nodes.get(i).traverse(),
-                            objectMapper.constructType(types[i]));
+                    args[i] = readers[i].readValue(nodes.get(i));
                 }
 
-                ArrayNode arrayNode = objectMapper.createArrayNode();
-                for (; i < nodes.size(); i++) {
-                    arrayNode.add(nodes.get(i));
+                Object array = Array.newInstance(varArgsComponent, nodes.size() - i);
+                for (int j = 0; i < nodes.size(); i++, j++) {
+                    Array.set(array, j, varArgsReader.readValue(nodes.get(i)));
                 }
-
-                args[types.length - 1] = objectMapper.readValue(
-                       arrayNode.traverse(), objectMapper.constructType(types[types.length - 1]));
+                args[types.length - 1] = array;
             } else if (types.length == nodes.size()) {
                 // Each element in the array is an argument
+                ObjectReader[] readers = readers();
                 for (int i = 0; i < types.length; i++) {
-                    args[i] = objectMapper.readValue(
-                            nodes.get(i).traverse(),
-                            objectMapper.constructType(types[i]));
+                    args[i] = readers[i].readValue(nodes.get(i));
                 }
             } else if (types.length == 1) {
                 // The array is the argument
-                JavaType javaType = objectMapper.constructType(types[0]);
-                args[0] = objectMapper.readValue(nodes.traverse(), javaType);
+                args[0] = readers()[0].readValue(nodes);
             } else {
                 throw new IllegalArgumentException("Can't convert arguments");
             }
-            return method.invoke(object, args);
+
+            return call.invoke(args);
         }
     }
 }
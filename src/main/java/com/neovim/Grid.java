@@ -0,0 +1,297 @@
+package com.neovim;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * Cells of one UI grid, kept in flat arrays indexed by {@code row * width + col}: the code point
+ * and the highlight id of each cell. The rare cell holding more than one code point, a character
+ * with combining marks, keeps its text on the side. The right half of a double width character
+ * has code point 0.
+ *
+ * Every change widens the dirty range of its rows, {@link #drainDamage(DamageConsumer)} reports
+ * the changed cells as rectangles so a renderer only redraws those.
+ *
+ * Updated by {@link Ui} on the thread reading from neovim, read it from
+ * {@link Ui.Renderer#flush(Ui)}.
+ */
+public class Grid {
+    static final int BLANK = ' ';
+
+    private final int id;
+    private int width = 0;
+    private int height = 0;
+    private int[] codePoints = new int[0];
+    private int[] highlights = new int[0];
+    // Cells with more than one code point, the text by index
+    private final BitSet clusterCells = new BitSet();
+    private final Map<Integer, String> clusters = new HashMap<>();
+    // Changed columns [dirtyStart, dirtyEnd) of each row, empty when start >= end
+    private int[] dirtyStart = new int[0];
+    private int[] dirtyEnd = new int[0];
+    private boolean dirty = false;
+
+    Grid(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return first code point of the cell, 0 for the right half of a double width character
+     */
+    public int getCodePoint(int row, int col) {
+        return codePoints[index(row, col)];
+    }
+
+    /**
+     * @return every code point of the cell, empty for the right half of a double width character
+     */
+    public String getText(int row, int col) {
+        int index = index(row, col);
+        if (clusterCells.get(index)) {
+            return clusters.get(index);
+        }
+        int codePoint = codePoints[index];
+        return codePoint == 0 ? "" : new String(Character.toChars(codePoint));
+    }
+
+    public int getHighlight(int row, int col) {
+        return highlights[index(row, col)];
+    }
+
+    /**
+     * Code points in row major order, shared with the grid.
+     */
+    public int[] codePoints() {
+        return codePoints;
+    }
+
+    /**
+     * Highlight ids in row major order, shared with the grid.
+     */
+    public int[] highlights() {
+        return highlights;
+    }
+
+    private int index(int row, int col) {
+        checkElementIndex(row, height);
+        checkElementIndex(col, width);
+        return row * width + col;
+    }
+
+    void resize(int newWidth, int newHeight) {
+        checkArgument(newWidth >= 0 && newHeight >= 0, "Negative grid size");
+        if (newWidth == width && newHeight == height) {
+            return;
+        }
+        int[] newCodePoints = new int[newWidth * newHeight];
+        int[] newHighlights = new int[newWidth * newHeight];
+        Arrays.fill(newCodePoints, BLANK);
+        int rows = Math.min(height, newHeight);
+        int cols = Math.min(width, newWidth);
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(codePoints, row * width, newCodePoints, row * newWidth, cols);
+            System.arraycopy(highlights, row * width, newHighlights, row * newWidth, cols);
+        }
+        if (!clusters.isEmpty()) {
+            Map<Integer, String> kept = new HashMap<>();
+            for (Map.Entry<Integer, String> cluster : clusters.entrySet()) {
+                int row = cluster.getKey() / width;
+                int col = cluster.getKey() % width;
+                if (row < rows && col < cols) {
+                    kept.put(row * newWidth + col, cluster.getValue());
+                }
+            }
+            clusters.clear();
+            clusterCells.clear();
+            for (Map.Entry<Integer, String> cluster : kept.entrySet()) {
+                clusters.put(cluster.getKey(), cluster.getValue());
+                clusterCells.set(cluster.getKey());
+            }
+        }
+        width = newWidth;
+        height = newHeight;
+        codePoints = newCodePoints;
+        highlights = newHighlights;
+        dirtyStart = new int[newHeight];
+        dirtyEnd = new int[newHeight];
+        markAllDirty();
+    }
+
+    /**
+     * Blank every cell with the default highlight.
+     */
+    void clear() {
+        Arrays.fill(codePoints, BLANK);
+        Arrays.fill(highlights, 0);
+        clusters.clear();
+        clusterCells.clear();
+        markAllDirty();
+    }
+
+    /**
+     * Set repeat cells of row from col on. Cells past the right edge are dropped.
+     *
+     * @param codePoint first code point of the text, 0 for an empty cell
+     * @param cluster text of the cell if it has more than one code point, otherwise null
+     */
+    void put(int row, int col, int codePoint, String cluster, int highlight, int repeat) {
+        checkElementIndex(row, height);
+        int end = Math.min(col + repeat, width);
+        if (col < 0 || col >= end) {
+            return;
+        }
+        int start = row * width + col;
+        int stop = row * width + end;
+        Arrays.fill(codePoints, start, stop, codePoint);
+        Arrays.fill(highlights, start, stop, highlight);
+        if (cluster != null) {
+            for (int i = start; i < stop; i++) {
+                clusters.put(i, cluster);
+            }
+            clusterCells.set(start, stop);
+        } else if (!clusters.isEmpty()) {
+            removeClusters(start, stop);
+        }
+        markDirty(row, col, end);
+    }
+
+    /**
+     * Move the region rows up, or down if rows is negative, within rows [top, bot) and columns
+     * [left, right). The rows scrolled in keep their old cells until neovim redraws them.
+     */
+    void scroll(int top, int bot, int left, int right, int rows) {
+        checkArgument(0 <= top && top <= bot && bot <= height, "Bad scroll rows");
+        checkArgument(0 <= left && left <= right && right <= width, "Bad scroll columns");
+        int cols = right - left;
+        if (rows > 0) {
+            for (int row = top; row + rows < bot; row++) {
+                copyRow(row + rows, row, left, cols);
+            }
+        } else if (rows < 0) {
+            for (int row = bot - 1; row + rows >= top; row--) {
+                copyRow(row + rows, row, left, cols);
+            }
+        }
+        for (int row = top; row < bot; row++) {
+            markDirty(row, left, right);
+        }
+    }
+
+    private void copyRow(int from, int to, int col, int cols) {
+        int source = from * width + col;
+        int target = to * width + col;
+        System.arraycopy(codePoints, source, codePoints, target, cols);
+        System.arraycopy(highlights, source, highlights, target, cols);
+        if (clusters.isEmpty()) {
+            return;
+        }
+        removeClusters(target, target + cols);
+        for (int i = clusterCells.nextSetBit(source);
+                i >= 0 && i < source + cols;
+                i = clusterCells.nextSetBit(i + 1)) {
+            clusters.put(target + i - source, clusters.get(i));
+            clusterCells.set(target + i - source);
+        }
+    }
+
+    private void removeClusters(int start, int stop) {
+        for (int i = clusterCells.nextSetBit(start);
+                i >= 0 && i < stop;
+                i = clusterCells.nextSetBit(i + 1)) {
+            clusters.remove(i);
+            clusterCells.clear(i);
+        }
+    }
+
+    private void markDirty(int row, int start, int end) {
+        if (dirtyStart[row] > start) {
+            dirtyStart[row] = start;
+        }
+        if (dirtyEnd[row] < end) {
+            dirtyEnd[row] = end;
+        }
+        dirty = true;
+    }
+
+    private void markAllDirty() {
+        Arrays.fill(dirtyStart, 0);
+        Arrays.fill(dirtyEnd, width);
+        dirty = width > 0 && height > 0;
+    }
+
+    private void markAllClean() {
+        Arrays.fill(dirtyStart, width);
+        Arrays.fill(dirtyEnd, 0);
+        dirty = false;
+    }
+
+    /**
+     * @return whether cells changed since the last {@link #drainDamage(DamageConsumer)}
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Report the cells changed since the last call and mark them clean. Consecutive rows with
+     * the same changed columns are reported as one rectangle.
+     */
+    public void drainDamage(DamageConsumer consumer) {
+        if (!dirty) {
+            return;
+        }
+        int row = 0;
+        while (row < height) {
+            int start = dirtyStart[row];
+            int end = dirtyEnd[row];
+            if (start >= end) {
+                row++;
+                continue;
+            }
+            int bottom = row + 1;
+            while (bottom < height && dirtyStart[bottom] == start && dirtyEnd[bottom] == end) {
+                bottom++;
+            }
+            consumer.damaged(row, start, bottom, end);
+            row = bottom;
+        }
+        markAllClean();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .add("width", width)
+                .add("height", height)
+                .add("dirty", dirty)
+                .toString();
+    }
+
+    @FunctionalInterface
+    public interface DamageConsumer {
+        /**
+         * Cells in rows [top, bottom) and columns [left, right) changed.
+         */
+        void damaged(int top, int left, int bottom, int right);
+    }
+}
@@ -0,0 +1,108 @@
+package com.neovim;
+
+import java.lang.ref.WeakReference;
+import java.util.function.LongFunction;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Interns the handles of one connection by id, so the same id gives the same object while
+ * anyone still holds it.
+ *
+ * Open addressing on a long[] of ids, so looking up a handle that exists doesn't box the id or
+ * allocate an entry. Only a new handle costs its weak reference.
+ *
+ * @param <T> handle class
+ */
+class HandleTable<T> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final LongFunction<T> factory;
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private WeakReference<T>[] handles = newArray(INITIAL_CAPACITY);
+    // Used slots, including the ones whose handle was collected
+    private int used = 0;
+
+    /**
+     * @param factory creates the handle for an id seen for the first time
+     */
+    HandleTable(LongFunction<T> factory) {
+        this.factory = checkNotNull(factory);
+    }
+
+    /**
+     * @return the handle for id, created if there is none or it was collected
+     */
+    synchronized T get(long id) {
+        int mask = ids.length - 1;
+        int slot = hash(id) & mask;
+        while (handles[slot] != null) {
+            if (ids[slot] == id) {
+                T handle = handles[slot].get();
+                if (handle == null) {
+                    handle = factory.apply(id);
+                    handles[slot] = new WeakReference<>(handle);
+                }
+                return handle;
+            }
+            slot = (slot + 1) & mask;
+        }
+        T handle = factory.apply(id);
+        ids[slot] = id;
+        handles[slot] = new WeakReference<>(handle);
+        if (++used * 4 >= ids.length * 3) {
+            rehash();
+        }
+        return handle;
+    }
+
+    /**
+     * @return handles that were not collected yet
+     */
+    synchronized int size() {
+        int size = 0;
+        for (WeakReference<T> handle : handles) {
+            if (handle != null && handle.get() != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Drop the slots of collected handles, then grow if the table is still more than half full.
+     */
+    private void rehash() {
+        int live = size();
+        int capacity = live * 2 >= ids.length ? ids.length * 2 : ids.length;
+        long[] oldIds = ids;
+        WeakReference<T>[] oldHandles = handles;
+        ids = new long[capacity];
+        handles = newArray(capacity);
+        used = 0;
+        int mask = capacity - 1;
+        for (int i = 0; i < oldHandles.length; i++) {
+            if (oldHandles[i] == null || oldHandles[i].get() == null) {
+                continue;
+            }
+            int slot = hash(oldIds[i]) & mask;
+            while (handles[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = oldIds[i];
+            handles[slot] = oldHandles[i];
+            used++;
+        }
+    }
+
+    private static int hash(long id) {
+        // Ids are mostly small and sequential, spread them over the table
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> WeakReference<T>[] newArray(int capacity) {
+        return (WeakReference<T>[]) new WeakReference<?>[capacity];
+    }
+}
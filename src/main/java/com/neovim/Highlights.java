@@ -0,0 +1,291 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.google.common.base.MoreObjects;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Highlight attributes of a UI by id, as defined by hl_attr_define events. Each definition is
+ * decoded once into a packed long, the foreground color in bits 0-23, the background color in
+ * bits 24-47 and the style bits in 48-63, so a renderer resolves the highlight of a cell with a
+ * single array load:
+ *
+ * <pre>{@code
+ * long attributes = highlights.get(grid.getHighlight(row, col));
+ * int foreground = highlights.foreground(attributes);
+ * boolean bold = Highlights.hasStyle(attributes, Highlights.BOLD);
+ * }</pre>
+ *
+ * The special color, for undercurl and the other underlines, and the blend level are kept in
+ * a second array.
+ *
+ * Id 0 is the default highlight. Updated by {@link Ui} on the thread reading from neovim.
+ */
+public class Highlights {
+    public static final int BOLD = 1;
+    public static final int ITALIC = 1 << 1;
+    public static final int UNDERLINE = 1 << 2;
+    public static final int UNDERCURL = 1 << 3;
+    public static final int UNDERDOUBLE = 1 << 4;
+    public static final int UNDERDOTTED = 1 << 5;
+    public static final int UNDERDASHED = 1 << 6;
+    public static final int STRIKETHROUGH = 1 << 7;
+    public static final int REVERSE = 1 << 8;
+    public static final int STANDOUT = 1 << 9;
+    public static final int NOCOMBINE = 1 << 10;
+    public static final int ALTFONT = 1 << 11;
+    // The attribute has no color of its own and uses the default one
+    public static final int DEFAULT_FOREGROUND = 1 << 13;
+    public static final int DEFAULT_BACKGROUND = 1 << 14;
+    public static final int DEFAULT_SPECIAL = 1 << 15;
+
+    static final long DEFAULT_ATTRIBUTES = pack(0, 0,
+            DEFAULT_FOREGROUND | DEFAULT_BACKGROUND | DEFAULT_SPECIAL);
+
+    private static final int COLOR_MASK = 0xffffff;
+
+    private long[] attributes = new long[256];
+    // Special color in bits 0-23, blend in 24-30
+    private int[] extras = new int[256];
+    private int defaultForeground = -1;
+    private int defaultBackground = -1;
+    private int defaultSpecial = -1;
+
+    Highlights() {
+        Arrays.fill(attributes, DEFAULT_ATTRIBUTES);
+    }
+
+    /**
+     * @return packed attributes of id, the default ones if id was never defined
+     */
+    public long get(int id) {
+        return id >= 0 && id < attributes.length ? attributes[id] : DEFAULT_ATTRIBUTES;
+    }
+
+    /**
+     * @return special color of id or the default special color, -1 if neovim didn't set one
+     */
+    public int getSpecial(int id) {
+        if (id < 0 || id >= extras.length || hasStyle(attributes[id], DEFAULT_SPECIAL)) {
+            return defaultSpecial;
+        }
+        return extras[id] & COLOR_MASK;
+    }
+
+    /**
+     * @return blend level of id from 0 (opaque) to 100
+     */
+    public int getBlend(int id) {
+        return id >= 0 && id < extras.length ? extras[id] >>> 24 : 0;
+    }
+
+    /**
+     * @return foreground color of the packed attributes or the default foreground, -1 if neovim
+     *     didn't set one
+     */
+    public int foreground(long attributes) {
+        return hasStyle(attributes, DEFAULT_FOREGROUND)
+                ? defaultForeground
+                : (int) (attributes & COLOR_MASK);
+    }
+
+    /**
+     * @return background color of the packed attributes or the default background, -1 if neovim
+     *     didn't set one
+     */
+    public int background(long attributes) {
+        return hasStyle(attributes, DEFAULT_BACKGROUND)
+                ? defaultBackground
+                : (int) ((attributes >>> 24) & COLOR_MASK);
+    }
+
+    /**
+     * @return style bits of the packed attributes
+     */
+    public static int style(long attributes) {
+        return (int) (attributes >>> 48);
+    }
+
+    public static boolean hasStyle(long attributes, int style) {
+        return (style(attributes) & style) != 0;
+    }
+
+    public int getDefaultForeground() {
+        return defaultForeground;
+    }
+
+    public int getDefaultBackground() {
+        return defaultBackground;
+    }
+
+    public int getDefaultSpecial() {
+        return defaultSpecial;
+    }
+
+    void define(int id, Attributes definition) {
+        if (id < 0) {
+            return;
+        }
+        if (id >= attributes.length) {
+            int length = Math.max(attributes.length * 2, id + 1);
+            int oldLength = attributes.length;
+            attributes = Arrays.copyOf(attributes, length);
+            extras = Arrays.copyOf(extras, length);
+            Arrays.fill(attributes, oldLength, length, DEFAULT_ATTRIBUTES);
+        }
+        attributes[id] = definition.packed;
+        extras[id] = definition.extra;
+    }
+
+    void setDefaultColors(int foreground, int background, int special) {
+        defaultForeground = foreground;
+        defaultBackground = background;
+        defaultSpecial = special;
+    }
+
+    static long pack(int foreground, int background, int style) {
+        return (foreground & COLOR_MASK)
+                | (long) (background & COLOR_MASK) << 24
+                | (long) (style & 0xffff) << 48;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("defaultForeground", defaultForeground)
+                .add("defaultBackground", defaultBackground)
+                .add("defaultSpecial", defaultSpecial)
+                .toString();
+    }
+
+    /**
+     * One decoded rgb_attr map of hl_attr_define. Deserialized by {@link NeovimModule}.
+     */
+    public static final class Attributes {
+        private final long packed;
+        private final int extra;
+
+        Attributes(long packed, int extra) {
+            this.packed = packed;
+            this.extra = extra;
+        }
+
+        public long getPacked() {
+            return packed;
+        }
+
+        public int getSpecial() {
+            return extra & COLOR_MASK;
+        }
+
+        public int getBlend() {
+            return extra >>> 24;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("packed", Long.toHexString(packed))
+                    .add("special", Integer.toHexString(getSpecial()))
+                    .add("blend", getBlend())
+                    .toString();
+        }
+    }
+
+    /**
+     * Reads the attribute map field by field straight into the packed form.
+     */
+    static class AttributesDeserializer extends JsonDeserializer<Attributes> {
+        @Override
+        public Class<?> handledType() {
+            return Attributes.class;
+        }
+
+        @Override
+        public Attributes deserialize(JsonParser parser, DeserializationContext context)
+                throws IOException {
+            JsonToken token = parser.getCurrentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = parser.nextToken();
+            }
+            int foreground = 0;
+            int background = 0;
+            int special = 0;
+            int blend = 0;
+            int style = DEFAULT_FOREGROUND | DEFAULT_BACKGROUND | DEFAULT_SPECIAL;
+            for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (name) {
+                    case "foreground":
+                        foreground = parser.getIntValue();
+                        style &= ~DEFAULT_FOREGROUND;
+                        break;
+                    case "background":
+                        background = parser.getIntValue();
+                        style &= ~DEFAULT_BACKGROUND;
+                        break;
+                    case "special":
+                        special = parser.getIntValue();
+                        style &= ~DEFAULT_SPECIAL;
+                        break;
+                    case "blend":
+                        blend = Math.max(0, Math.min(100, parser.getIntValue()));
+                        break;
+                    default:
+                        int flag = styleFlag(name);
+                        if (value == JsonToken.VALUE_TRUE) {
+                            style |= flag;
+                        }
+                        parser.skipChildren();
+                        break;
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new JsonMappingException(
+                        "Expected highlight attributes but was " + token,
+                        parser.getCurrentLocation());
+            }
+            return new Attributes(
+                    pack(foreground, background, style), (special & COLOR_MASK) | blend << 24);
+        }
+
+        private static int styleFlag(String name) {
+            switch (name) {
+                case "bold":
+                    return BOLD;
+                case "italic":
+                    return ITALIC;
+                case "underline":
+                    return UNDERLINE;
+                case "undercurl":
+                    return UNDERCURL;
+                case "underdouble":
+                    return UNDERDOUBLE;
+                case "underdotted":
+                    return UNDERDOTTED;
+                case "underdashed":
+                    return UNDERDASHED;
+                case "strikethrough":
+                    return STRIKETHROUGH;
+                case "reverse":
+                    return REVERSE;
+                case "standout":
+                    return STANDOUT;
+                case "nocombine":
+                    return NOCOMBINE;
+                case "altfont":
+                    return ALTFONT;
+                default:
+                    // Unknown or not a style, such as url
+                    return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable snapshot of the tab pages, their windows and the buffer, cursor, size and position
+ * of each window, taken with {@link Neovim#snapshotLayout()}.
+ *
+ * Neovim gathers everything in one nvim_exec_lua request, the result is a flat array per window
+ * that is read straight from the parser into the value objects below.
+ */
+public final class Layout {
+    // Returns {current tab, current window, {{tab, {{win, buf, row, col, height, width,
+    // screen row, screen col}, ...}}, ...}}
+    static final String LUA = "local api = vim.api\n"
+            + "local tabs = {}\n"
+            + "for _, tab in ipairs(api.nvim_list_tabpages()) do\n"
+            + "  local wins = {}\n"
+            + "  for _, win in ipairs(api.nvim_tabpage_list_wins(tab)) do\n"
+            + "    local cursor = api.nvim_win_get_cursor(win)\n"
+            + "    local pos = api.nvim_win_get_position(win)\n"
+            + "    wins[#wins + 1] = {win, api.nvim_win_get_buf(win), cursor[1], cursor[2],\n"
+            + "      api.nvim_win_get_height(win), api.nvim_win_get_width(win), pos[1], pos[2]}\n"
+            + "  end\n"
+            + "  tabs[#tabs + 1] = {tab, wins}\n"
+            + "end\n"
+            + "return {api.nvim_get_current_tabpage(), api.nvim_get_current_win(), tabs}";
+
+    private final TabPage currentTabPage;
+    private final Window currentWindow;
+    private final List<TabPageLayout> tabPages;
+
+    Layout(TabPage currentTabPage, Window currentWindow, List<TabPageLayout> tabPages) {
+        this.currentTabPage = checkNotNull(currentTabPage);
+        this.currentWindow = checkNotNull(currentWindow);
+        this.tabPages = ImmutableList.copyOf(tabPages);
+    }
+
+    public TabPage getCurrentTabPage() {
+        return currentTabPage;
+    }
+
+    public Window getCurrentWindow() {
+        return currentWindow;
+    }
+
+    public List<TabPageLayout> getTabPages() {
+        return tabPages;
+    }
+
+    /**
+     * @return state of window, null if it isn't part of the snapshot
+     */
+    public WindowLayout getWindow(Window window) {
+        for (TabPageLayout tabPage : tabPages) {
+            for (WindowLayout windowLayout : tabPage.windows) {
+                if (windowLayout.window.equals(window)) {
+                    return windowLayout;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("currentTabPage", currentTabPage)
+                .add("currentWindow", currentWindow)
+                .add("tabPages", tabPages)
+                .toString();
+    }
+
+    /**
+     * Read the result of {@link #LUA}. Handles come back from lua as plain numbers, they are
+     * looked up in the handle tables of module so they are the same objects responses decode to.
+     */
+    static Layout read(NeovimModule module, JsonParser parser) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+        TabPage currentTabPage = module.tabPage(nextLong(parser));
+        Window currentWindow = module.window(nextLong(parser));
+        expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+        ImmutableList.Builder<TabPageLayout> tabPages = ImmutableList.builder();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+            TabPage tabPage = module.tabPage(nextLong(parser));
+            expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+            ImmutableList.Builder<WindowLayout> windows = ImmutableList.builder();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+                windows.add(new WindowLayout(
+                        module.window(nextLong(parser)),
+                        module.buffer(nextLong(parser)),
+                        nextInt(parser),
+                        nextInt(parser),
+                        nextInt(parser),
+                        nextInt(parser),
+                        nextInt(parser),
+                        nextInt(parser)));
+                expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+            }
+            tabPages.add(new TabPageLayout(tabPage, windows.build()));
+            expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+        }
+        expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+        return new Layout(currentTabPage, currentWindow, tabPages.build());
+    }
+
+    private static long nextLong(JsonParser parser) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.VALUE_NUMBER_INT);
+        return parser.getLongValue();
+    }
+
+    private static int nextInt(JsonParser parser) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.VALUE_NUMBER_INT);
+        return parser.getIntValue();
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected)
+            throws JsonMappingException {
+        if (actual != expected) {
+            throw new JsonMappingException(
+                    String.format("Expected %s but was %s", expected, actual),
+                    parser.getCurrentLocation());
+        }
+    }
+
+    public static final class TabPageLayout {
+        private final TabPage tabPage;
+        private final List<WindowLayout> windows;
+
+        TabPageLayout(TabPage tabPage, List<WindowLayout> windows) {
+            this.tabPage = checkNotNull(tabPage);
+            this.windows = ImmutableList.copyOf(windows);
+        }
+
+        public TabPage getTabPage() {
+            return tabPage;
+        }
+
+        public List<WindowLayout> getWindows() {
+            return windows;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("tabPage", tabPage)
+                    .add("windows", windows)
+                    .toString();
+        }
+    }
+
+    public static final class WindowLayout {
+        private final Window window;
+        private final Buffer buffer;
+        private final int cursorRow;
+        private final int cursorCol;
+        private final int height;
+        private final int width;
+        private final int row;
+        private final int col;
+
+        WindowLayout(Window window, Buffer buffer, int cursorRow, int cursorCol, int height,
+                int width, int row, int col) {
+            this.window = checkNotNull(window);
+            this.buffer = checkNotNull(buffer);
+            this.cursorRow = cursorRow;
+            this.cursorCol = cursorCol;
+            this.height = height;
+            this.width = width;
+            this.row = row;
+            this.col = col;
+        }
+
+        public Window getWindow() {
+            return window;
+        }
+
+        public Buffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * @return cursor like {@link Window#getCursorPosition()}, 1 based row and 0 based column
+         */
+        public Position getCursorPosition() {
+            return new Position(cursorRow, cursorCol);
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return screen position of the top left corner like {@link Window#getPosition()}
+         */
+        public Position getPosition() {
+            return new Position(row, col);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("window", window)
+                    .add("buffer", buffer)
+                    .add("cursor", getCursorPosition())
+                    .add("height", height)
+                    .add("width", width)
+                    .add("position", getPosition())
+                    .toString();
+        }
+    }
+}
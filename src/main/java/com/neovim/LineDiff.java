@@ -0,0 +1,265 @@
+package com.neovim;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Throwables;
+import com.neovim.msgpack.MessagePackRPC;
+import com.neovim.msgpack.NeovimException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Line level diff with the Myers algorithm, used to turn a buffer into new contents by replacing
+ * only the lines that changed.
+ *
+ * The common prefix and suffix are skipped first and lines are compared by an id given to each
+ * distinct line, so the cost is mostly in the size of the change. If the lines in between differ
+ * in more than {@value #MAX_EDITS} places the whole middle becomes one hunk, the trace of the
+ * search would take too much memory.
+ */
+class LineDiff {
+    static final int MAX_EDITS = 1024;
+    static final String CHANGED_ERROR = "buffer changed since its lines were read";
+
+    // First call of the batch, stops it before any hunk is applied to lines the hunks weren't
+    // computed against
+    private static final String CHECK_CHANGED_TICK = "local buf, tick = ...\n"
+            + "if vim.api.nvim_buf_get_changedtick(buf) ~= tick then\n"
+            + "  error('" + CHANGED_ERROR + "', 0)\n"
+            + "end";
+
+    private LineDiff() {
+    }
+
+    /**
+     * @return hunks that turn from into to, in order and not overlapping
+     */
+    static List<Hunk> diff(List<byte[]> from, List<byte[]> to) {
+        int prefix = 0;
+        int max = Math.min(from.size(), to.size());
+        while (prefix < max && Arrays.equals(from.get(prefix), to.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+                && Arrays.equals(
+                        from.get(from.size() - 1 - suffix), to.get(to.size() - 1 - suffix))) {
+            suffix++;
+        }
+        List<byte[]> oldLines = from.subList(prefix, from.size() - suffix);
+        List<byte[]> newLines = to.subList(prefix, to.size() - suffix);
+
+        List<Hunk> hunks = new ArrayList<>();
+        if (oldLines.isEmpty() && newLines.isEmpty()) {
+            return hunks;
+        }
+        if (oldLines.isEmpty() || newLines.isEmpty()) {
+            hunks.add(new Hunk(prefix, prefix + oldLines.size(), newLines));
+            return hunks;
+        }
+
+        Map<ByteBuffer, Integer> ids = new HashMap<>();
+        int[] a = ids(oldLines, ids);
+        int[] b = ids(newLines, ids);
+        int[] matches = matches(a, b);
+        if (matches == null) {
+            hunks.add(new Hunk(prefix, prefix + a.length, newLines));
+            return hunks;
+        }
+
+        // Every gap between two matched lines is a hunk
+        int previousX = -1;
+        int previousY = -1;
+        for (int i = 0; i <= matches.length; i += 2) {
+            int x = i < matches.length ? matches[i] : a.length;
+            int y = i < matches.length ? matches[i + 1] : b.length;
+            if (x > previousX + 1 || y > previousY + 1) {
+                hunks.add(new Hunk(
+                        prefix + previousX + 1, prefix + x, newLines.subList(previousY + 1, y)));
+            }
+            previousX = x;
+            previousY = y;
+        }
+        return hunks;
+    }
+
+    private static int[] ids(List<byte[]> lines, Map<ByteBuffer, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i++) {
+            Integer id = ids.putIfAbsent(ByteBuffer.wrap(lines.get(i)), ids.size());
+            result[i] = id != null ? id : ids.size() - 1;
+        }
+        return result;
+    }
+
+    /**
+     * Shortest edit script between a and b.
+     *
+     * @return (x, y) pairs of matching lines in increasing order, null if there are more than
+     *     {@link #MAX_EDITS} edits
+     */
+    private static int[] matches(int[] a, int[] b) {
+        int n = a.length;
+        int m = b.length;
+        int maxEdits = Math.min(n + m, MAX_EDITS);
+        int offset = maxEdits + 1;
+        int[] v = new int[2 * offset + 1];
+        // v[k] for -d <= k <= d after each round d, needed to walk back
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= maxEdits; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[x] == b[y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+                    return backtrack(trace, n, m);
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+        }
+        return null;
+    }
+
+    private static int[] backtrack(List<int[]> trace, int n, int m) {
+        int[] matches = new int[2 * Math.min(n, m)];
+        int count = 0;
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int k = x - y;
+            int previousX;
+            int previousY;
+            // Where the snake on diagonal k starts, right after the edit of round d
+            int snakeStart;
+            if (d == 0) {
+                previousX = 0;
+                previousY = 0;
+                snakeStart = 0;
+            } else {
+                int[] previous = trace.get(d - 1);
+                // previous[i] is v[i - (d - 1)]
+                boolean down = k == -d
+                        || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]);
+                int previousK = down ? k + 1 : k - 1;
+                previousX = previous[previousK + d - 1];
+                previousY = previousX - previousK;
+                snakeStart = down ? previousX : previousX + 1;
+            }
+            while (x > snakeStart) {
+                x--;
+                y--;
+                matches[count++] = y;
+                matches[count++] = x;
+            }
+            x = previousX;
+            y = previousY;
+        }
+        // Collected backwards as (y, x), reverse into (x, y) pairs in order
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = matches[count - 1 - i];
+        }
+        return result;
+    }
+
+    /**
+     * Apply the hunks that turn current into replacement to buffer in one atomic batch, last hunk
+     * first so the line numbers of the others stay valid. Nothing is applied if the buffer is no
+     * longer at changedTick.
+     *
+     * @param changedTick b:changedtick current was read at
+     * @return fails with a {@link ConcurrentModificationException} if the buffer changed since
+     */
+    static CompletableFuture<Void> apply(
+            MessagePackRPC messagePackRPC,
+            Buffer buffer,
+            long changedTick,
+            List<byte[]> current,
+            List<byte[]> replacement) {
+        List<Hunk> hunks = diff(current, replacement);
+        if (hunks.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Batch batch = new Batch(messagePackRPC);
+        batch.call(Void.class, "nvim_exec_lua",
+                CHECK_CHANGED_TICK, Arrays.asList(buffer, changedTick));
+        for (int i = hunks.size() - 1; i >= 0; i--) {
+            Hunk hunk = hunks.get(i);
+            batch.call(Void.class, "nvim_buf_set_lines",
+                    buffer, hunk.start, hunk.end, true, new ArrayList<>(hunk.lines));
+        }
+        CompletableFuture<Void> done = messagePackRPC.newFuture();
+        batch.send().whenComplete((ignored, error) -> {
+            if (error == null) {
+                done.complete(null);
+            } else if (isChanged(error)) {
+                done.completeExceptionally(new ConcurrentModificationException(
+                        buffer + " changed since changedtick " + changedTick));
+            } else {
+                done.completeExceptionally(error);
+            }
+        });
+        return done;
+    }
+
+    private static boolean isChanged(Throwable error) {
+        Throwable cause = Throwables.getRootCause(error);
+        return cause instanceof NeovimException
+                && cause.getMessage() != null
+                && cause.getMessage().contains(CHANGED_ERROR);
+    }
+
+    /**
+     * Replace the old lines in [start, end) with lines.
+     */
+    static class Hunk {
+        private final int start;
+        private final int end;
+        private final List<byte[]> lines;
+
+        Hunk(int start, int end, List<byte[]> lines) {
+            this.start = start;
+            this.end = end;
+            this.lines = checkNotNull(lines);
+        }
+
+        int getStart() {
+            return start;
+        }
+
+        int getEnd() {
+            return end;
+        }
+
+        List<byte[]> getLines() {
+            return lines;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("start", start)
+                    .add("end", end)
+                    .add("lines", lines.size())
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.neovim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * Compact list of lines, each line a byte[] like {@link Buffer#getLineSlice}.
+ *
+ * Lines are packed back to back into leaves of up to {@value #MAX_LEAF_BYTES} bytes with an
+ * int offset per line, so a line costs its bytes plus four instead of an array per line. The
+ * leaves form an implicit treap ordered by position where every node knows the number of lines
+ * below it, which makes finding a line and replacing a range of lines O(log n) plus the lines
+ * touched. Replacing repacks the leaves at both ends of the range together with the new lines
+ * so edits don't leave small leaves behind.
+ *
+ * Not thread safe.
+ */
+class LineStore {
+    static final int MAX_LEAF_BYTES = 4096;
+    static final int MAX_LEAF_LINES = 128;
+
+    private Leaf root = null;
+    private int seed = (int) System.nanoTime() | 1;
+    // Reused while packing lines into leaves
+    private byte[] scratch = new byte[MAX_LEAF_BYTES];
+
+    LineStore() {
+    }
+
+    LineStore(List<byte[]> lines) {
+        root = pack(lines);
+    }
+
+    int size() {
+        return lines(root);
+    }
+
+    byte[] get(int index) {
+        checkElementIndex(index, size());
+        Leaf leaf = root;
+        while (true) {
+            int left = lines(leaf.left);
+            if (index < left) {
+                leaf = leaf.left;
+            } else if (index < left + leaf.lineCount) {
+                return leaf.line(index - left);
+            } else {
+                index -= left + leaf.lineCount;
+                leaf = leaf.right;
+            }
+        }
+    }
+
+    /**
+     * @return copies of the lines in [start, end)
+     */
+    List<byte[]> get(int start, int end) {
+        checkPositionIndexes(start, end, size());
+        List<byte[]> lines = new ArrayList<>(end - start);
+        collect(root, start, end, lines);
+        return lines;
+    }
+
+    private static void collect(Leaf leaf, int start, int end, List<byte[]> lines) {
+        if (leaf == null || start >= end) {
+            return;
+        }
+        int left = lines(leaf.left);
+        if (start < left) {
+            collect(leaf.left, start, Math.min(end, left), lines);
+        }
+        int first = Math.max(start - left, 0);
+        int last = Math.min(end - left, leaf.lineCount);
+        for (int i = first; i < last; i++) {
+            lines.add(leaf.line(i));
+        }
+        int right = left + leaf.lineCount;
+        if (end > right) {
+            collect(leaf.right, Math.max(start - right, 0), end - right, lines);
+        }
+    }
+
+    /**
+     * Replace the lines in [start, end) with replacement, like nvim_buf_set_lines.
+     */
+    void replace(int start, int end, List<byte[]> replacement) {
+        checkPositionIndexes(start, end, size());
+        checkNotNull(replacement);
+        Leaf[] head = split(root, start);
+        Leaf[] tail = split(head[1], end - start);
+        Leaf before = head[0];
+        Leaf after = tail[1];
+
+        // Repack the leaves on either side with the new lines
+        List<byte[]> lines = new ArrayList<>(replacement.size() + 2 * MAX_LEAF_LINES);
+        Leaf last = rightmost(before);
+        if (last != null) {
+            Leaf[] parts = split(before, lines(before) - last.lineCount);
+            before = parts[0];
+            parts[1].addLinesTo(lines);
+        }
+        lines.addAll(replacement);
+        Leaf first = leftmost(after);
+        if (first != null) {
+            Leaf[] parts = split(after, first.lineCount);
+            parts[0].addLinesTo(lines);
+            after = parts[1];
+        }
+        root = merge(merge(before, pack(lines)), after);
+    }
+
+    /**
+     * Replace every line.
+     */
+    void setAll(List<byte[]> lines) {
+        root = pack(lines);
+    }
+
+    private Leaf pack(List<byte[]> lines) {
+        Leaf packed = null;
+        int[] ends = new int[MAX_LEAF_LINES];
+        int lineCount = 0;
+        int byteCount = 0;
+        for (byte[] line : lines) {
+            if (lineCount > 0
+                    && (lineCount == MAX_LEAF_LINES || byteCount + line.length > MAX_LEAF_BYTES)) {
+                packed = merge(packed, newLeaf(ends, lineCount, byteCount));
+                lineCount = 0;
+                byteCount = 0;
+            }
+            if (byteCount + line.length > scratch.length) {
+                // A single line longer than a leaf gets a leaf of its own
+                scratch = Arrays.copyOf(scratch, line.length);
+            }
+            System.arraycopy(line, 0, scratch, byteCount, line.length);
+            byteCount += line.length;
+            ends[lineCount++] = byteCount;
+        }
+        if (lineCount > 0) {
+            packed = merge(packed, newLeaf(ends, lineCount, byteCount));
+        }
+        if (scratch.length > MAX_LEAF_BYTES) {
+            scratch = new byte[MAX_LEAF_BYTES];
+        }
+        return packed;
+    }
+
+    private Leaf newLeaf(int[] ends, int lineCount, int byteCount) {
+        return new Leaf(
+                Arrays.copyOf(scratch, byteCount), Arrays.copyOf(ends, lineCount), nextPriority());
+    }
+
+    private Leaf newLeaf(byte[] bytes, int[] ends) {
+        return new Leaf(bytes, ends, nextPriority());
+    }
+
+    private int nextPriority() {
+        // xorshift, good enough to keep the treap balanced
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    /**
+     * Split into the first count lines and the rest, splitting a leaf if the boundary falls
+     * inside it.
+     */
+    private Leaf[] split(Leaf leaf, int count) {
+        if (leaf == null) {
+            return new Leaf[] { null, null };
+        }
+        int left = lines(leaf.left);
+        if (count <= left) {
+            Leaf[] parts = split(leaf.left, count);
+            leaf.left = parts[1];
+            leaf.update();
+            return new Leaf[] { parts[0], leaf };
+        }
+        int inLeaf = count - left;
+        if (inLeaf >= leaf.lineCount) {
+            Leaf[] parts = split(leaf.right, inLeaf - leaf.lineCount);
+            leaf.right = parts[0];
+            leaf.update();
+            return new Leaf[] { leaf, parts[1] };
+        }
+        // The boundary is inside this leaf, it keeps the first lines
+        int splitAt = leaf.ends[inLeaf - 1];
+        int[] tailEnds = new int[leaf.lineCount - inLeaf];
+        for (int i = 0; i < tailEnds.length; i++) {
+            tailEnds[i] = leaf.ends[inLeaf + i] - splitAt;
+        }
+        Leaf tail = newLeaf(
+                Arrays.copyOfRange(leaf.bytes, splitAt, leaf.ends[leaf.lineCount - 1]), tailEnds);
+        leaf.bytes = Arrays.copyOf(leaf.bytes, splitAt);
+        leaf.ends = Arrays.copyOf(leaf.ends, inLeaf);
+        leaf.lineCount = inLeaf;
+        Leaf right = leaf.right;
+        leaf.right = null;
+        leaf.update();
+        return new Leaf[] { leaf, merge(tail, right) };
+    }
+
+    private static Leaf merge(Leaf left, Leaf right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static Leaf leftmost(Leaf leaf) {
+        while (leaf != null && leaf.left != null) {
+            leaf = leaf.left;
+        }
+        return leaf;
+    }
+
+    private static Leaf rightmost(Leaf leaf) {
+        while (leaf != null && leaf.right != null) {
+            leaf = leaf.right;
+        }
+        return leaf;
+    }
+
+    private static int lines(Leaf leaf) {
+        return leaf == null ? 0 : leaf.totalLines;
+    }
+
+    /**
+     * Treap node holding a run of consecutive lines.
+     */
+    private static class Leaf {
+        private byte[] bytes;
+        // End offset of each line in bytes
+        private int[] ends;
+        private int lineCount;
+        private final int priority;
+
+        private Leaf left = null;
+        private Leaf right = null;
+        // Lines in this subtree
+        private int totalLines;
+
+        Leaf(byte[] bytes, int[] ends, int priority) {
+            this.bytes = bytes;
+            this.ends = ends;
+            this.lineCount = ends.length;
+            this.priority = priority;
+            this.totalLines = lineCount;
+        }
+
+        byte[] line(int index) {
+            int start = index == 0 ? 0 : ends[index - 1];
+            return Arrays.copyOfRange(bytes, start, ends[index]);
+        }
+
+        void addLinesTo(List<byte[]> lines) {
+            for (int i = 0; i < lineCount; i++) {
+                lines.add(line(i));
+            }
+        }
+
+        void update() {
+            totalLines = lines(left) + lineCount + lines(right);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.Hashing;
+import com.neovim.msgpack.MessagePackRPC;
+import com.neovim.msgpack.NeovimException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.getRootCause;
+
+/**
+ * Lua chunk that is sent to neovim once and then called by id. The id is the SHA-1 of the
+ * script, so functions with the same script share one registration per connection.
+ *
+ * The script gets the arguments of {@link #call} as {@code ...} and its return value is decoded
+ * into the requested type, like {@link Neovim#execLua(TypeReference, String, Object...)}.
+ *
+ * <pre>{@code
+ * LuaFunction count = neovim.luaFunction(
+ *     "local buf, pattern = ...\n"
+ *     + "local n = 0\n"
+ *     + "for _, line in ipairs(vim.api.nvim_buf_get_lines(buf, 0, -1, false)) do\n"
+ *     + "  if line:find(pattern) then n = n + 1 end\n"
+ *     + "end\n"
+ *     + "return n");
+ * CompletableFuture<Long> todos = count.call(Long.class, buffer, "TODO");
+ * }</pre>
+ *
+ * Created with {@link Neovim#luaFunction(String)}.
+ */
+public class LuaFunction {
+    static final String TABLE = "_neovim_java_functions";
+    static final String UNKNOWN = "neovim-java: unknown function ";
+
+    // Compiles the script and keeps it under its id
+    static final String REGISTER = "local id, script = ...\n"
+            + "local f = assert((loadstring or load)(script, '=' .. id))\n"
+            + "_G." + TABLE + " = _G." + TABLE + " or {}\n"
+            + "_G." + TABLE + "[id] = f";
+
+    static final String INVOKE = "local id = ...\n"
+            + "local f = (_G." + TABLE + " or {})[id]\n"
+            + "if not f then error('" + UNKNOWN + "' .. id) end\n"
+            + "return f(select(2, ...))";
+
+    private final MessagePackRPC messagePackRPC;
+    // Ids registered on this connection
+    private final Set<String> registered;
+    private final String script;
+    private final String id;
+
+    LuaFunction(MessagePackRPC messagePackRPC, Set<String> registered, String script) {
+        this.messagePackRPC = checkNotNull(messagePackRPC);
+        this.registered = checkNotNull(registered);
+        this.script = checkNotNull(script);
+        this.id = Hashing.sha1().hashString(script, StandardCharsets.UTF_8).toString();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public <T> CompletableFuture<T> call(TypeReference<T> type, Object... args) {
+        List<Object> invokeArgs = invokeArgs(args);
+        return invoke(() -> messagePackRPC.sendRequest(type, "nvim_exec_lua", INVOKE, invokeArgs));
+    }
+
+    public <T> CompletableFuture<T> call(Class<T> type, Object... args) {
+        List<Object> invokeArgs = invokeArgs(args);
+        return invoke(() -> messagePackRPC.sendRequest(type, "nvim_exec_lua", INVOKE, invokeArgs));
+    }
+
+    private List<Object> invokeArgs(Object[] args) {
+        List<Object> invokeArgs = new ArrayList<>(args.length + 1);
+        invokeArgs.add(id);
+        invokeArgs.addAll(Arrays.asList(args));
+        return invokeArgs;
+    }
+
+    /**
+     * Register the script if needed and call it. Neovim handles requests in order so the call
+     * doesn't wait for the registration. If neovim lost the function, say the table was
+     * cleared, it is registered again and the call retried once.
+     */
+    private <T> CompletableFuture<T> invoke(Supplier<CompletableFuture<T>> send) {
+        register();
+        CompletableFuture<T> first = send.get();
+        return first
+                .handle((value, error) -> {
+                    if (error == null || !isUnknownFunction(error)) {
+                        return first;
+                    }
+                    registered.remove(id);
+                    register();
+                    return send.get();
+                })
+                .thenCompose(result -> result);
+    }
+
+    private void register() {
+        if (!registered.add(id)) {
+            return;
+        }
+        messagePackRPC.sendRequest(Void.class, "nvim_exec_lua", REGISTER, Arrays.asList(id, script))
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        // The call fails too, try again next time
+                        registered.remove(id);
+                    }
+                });
+    }
+
+    private boolean isUnknownFunction(Throwable error) {
+        Throwable cause = getRootCause(error);
+        return cause instanceof NeovimException
+                && cause.getMessage() != null
+                && cause.getMessage().contains(UNKNOWN + id);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .toString();
+    }
+}
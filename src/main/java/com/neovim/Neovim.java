@@ -3,19 +3,37 @@ package com.neovim;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.neovim.msgpack.MessagePackRPC;
+import com.neovim.msgpack.OverflowPolicy;
+import com.neovim.msgpack.RequestQueueStats;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 public class Neovim implements AutoCloseable {
 
     private final MessagePackRPC messagePackRPC;
     private final Dispatcher dispatcher;
+    // Interns the handles of this connection
+    private final NeovimModule module;
+    // Registered with the dispatcher when the first buffer is mirrored
+    private BufferEvents bufferEvents = null;
+    private OptionEvents optionEvents = null;
+    private Ui ui = null;
+    // Ids of the lua functions registered on this connection
+    private final Set<String> luaFunctions = ConcurrentHashMap.newKeySet();
 
     public static Neovim connectTo(MessagePackRPC.Connection connection, Object... handlers) {
         ObjectMapper objectMapper = MessagePackRPC.defaultObjectMapper();
@@ -28,8 +46,9 @@ public class Neovim implements AutoCloseable {
             dispatcher.register(handler);
         }
 
-        Neovim neovim = new Neovim(messagePackRPC, dispatcher);
-        messagePackRPC.registerModule(new NeovimModule(messagePackRPC));
+        NeovimModule module = new NeovimModule(messagePackRPC);
+        Neovim neovim = new Neovim(messagePackRPC, dispatcher, module);
+        messagePackRPC.registerModule(module);
         messagePackRPC.start();
         return neovim;
     }
@@ -38,9 +57,63 @@ public class Neovim implements AutoCloseable {
         dispatcher.register(handler);
     }
 
-    Neovim(MessagePackRPC messagePackRPC, Dispatcher dispatcher) {
+    Neovim(MessagePackRPC messagePackRPC, Dispatcher dispatcher, NeovimModule module) {
         this.messagePackRPC = checkNotNull(messagePackRPC);
         this.dispatcher = checkNotNull(dispatcher);
+        this.module = checkNotNull(module);
+    }
+
+    /**
+     * Set the executor that runs handlers that are not {@link NeovimHandler.Execution#INLINE}.
+     *
+     * @see Dispatcher#setExecutor(Executor)
+     */
+    public void setHandlerExecutor(Executor executor) {
+        dispatcher.setExecutor(executor);
+    }
+
+    /**
+     * Fail requests that get no response within the timeout. Per method timeouts take precedence.
+     *
+     * @param timeout time to wait for a response, 0 to wait forever
+     * @param unit unit of timeout
+     */
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        messagePackRPC.setDefaultTimeout(timeout, unit);
+    }
+
+    /**
+     * Fail requests to the method that get no response within the timeout.
+     *
+     * @param method name of the remote method, for example "vim_eval"
+     * @param timeout time to wait for a response, 0 to wait forever
+     * @param unit unit of timeout
+     */
+    public void setRequestTimeout(String method, long timeout, TimeUnit unit) {
+        messagePackRPC.setTimeout(method, timeout, unit);
+    }
+
+    /**
+     * Limit the number of requests waiting for a response.
+     *
+     * @see MessagePackRPC#setMaxInFlight(int, OverflowPolicy)
+     */
+    public void setMaxRequestsInFlight(int maxInFlight, OverflowPolicy policy) {
+        messagePackRPC.setMaxInFlight(maxInFlight, policy);
+    }
+
+    /**
+     * Limit the number of requests waiting for a response to methods starting with
+     * methodPrefix.
+     *
+     * @see MessagePackRPC#setMaxInFlight(String, int, OverflowPolicy)
+     */
+    public void setMaxRequestsInFlight(String methodPrefix, int maxInFlight, OverflowPolicy policy) {
+        messagePackRPC.setMaxInFlight(methodPrefix, maxInFlight, policy);
+    }
+
+    public RequestQueueStats getRequestQueueStats() {
+        return messagePackRPC.getRequestQueueStats();
     }
 
     public CompletableFuture<Charset> getEncoding() {
@@ -180,6 +253,119 @@ public class Neovim implements AutoCloseable {
         return messagePackRPC.sendRequest(Long.class, "vim_name_to_color", name);
     }
 
+    /**
+     * Keep a local copy of the lines of buffer that is updated as the buffer changes.
+     *
+     * @return completes once the mirror holds the current lines
+     * @see BufferMirror
+     */
+    public CompletableFuture<BufferMirror> mirror(Buffer buffer) {
+        return new BufferMirror(messagePackRPC, bufferEvents(), buffer).attach();
+    }
+
+    private synchronized BufferEvents bufferEvents() {
+        if (bufferEvents == null) {
+            // Not registered with the dispatcher, handlers for the same events keep working
+            bufferEvents = new BufferEvents(dispatcher::dispatchMethod);
+            messagePackRPC.setNotificationReader(
+                    BufferEvents.LINES_EVENT, bufferEvents::readLinesEvent);
+            messagePackRPC.setNotificationReader(
+                    BufferEvents.CHANGED_TICK_EVENT, bufferEvents::readChangedTickEvent);
+            messagePackRPC.setNotificationReader(
+                    BufferEvents.DETACH_EVENT, bufferEvents::readDetachEvent);
+        }
+        return bufferEvents;
+    }
+
+    /**
+     * Cache for buffer contents validated by b:changedtick, using at most about maxBytes.
+     *
+     * @see BufferCache
+     */
+    public BufferCache newBufferCache(long maxBytes) {
+        return new BufferCache(messagePackRPC, maxBytes);
+    }
+
+    /**
+     * Cache for options, kept valid by an OptionSet autocommand, and variables, kept for
+     * variableTtl.
+     *
+     * @return completes once the autocommand is installed
+     * @see OptionCache
+     */
+    public CompletableFuture<OptionCache> newOptionCache(long variableTtl, TimeUnit unit) {
+        return new OptionCache(messagePackRPC, optionEvents(), variableTtl, unit).attach();
+    }
+
+    private synchronized OptionEvents optionEvents() {
+        if (optionEvents == null) {
+            optionEvents = new OptionEvents();
+            dispatcher.register(optionEvents);
+        }
+        return optionEvents;
+    }
+
+    /**
+     * Attach as a UI of width by height cells with the line based grid. Neovim accepts one UI per
+     * connection.
+     *
+     * @param options further ui options such as {@code ext_popupmenu}
+     * @param renderer called at every flush to draw the changed cells
+     * @return completes once neovim accepted the UI
+     * @see Ui
+     */
+    public synchronized CompletableFuture<Ui> attachUi(
+            int width, int height, Map<String, Object> options, Ui.Renderer renderer) {
+        checkState(ui == null, "A UI is already attached");
+        ui = new Ui(messagePackRPC, renderer);
+        messagePackRPC.setRedrawHandler(ui.redrawHandler());
+        return ui.attach(width, height, options);
+    }
+
+    /**
+     * Tab pages, windows and the state of each window, gathered by neovim in one request.
+     *
+     * @see Layout
+     */
+    public CompletableFuture<Layout> snapshotLayout() {
+        return messagePackRPC.sendRequest(
+                (objectMapper, parser) -> Layout.read(module, parser),
+                "nvim_exec_lua",
+                Layout.LUA,
+                Collections.emptyList());
+    }
+
+    /**
+     * Run a lua chunk in neovim. The chunk gets args as {@code ...} and what it returns is
+     * decoded into type.
+     */
+    public <T> CompletableFuture<T> execLua(TypeReference<T> type, String script, Object... args) {
+        return messagePackRPC.sendRequest(type, "nvim_exec_lua", script, Arrays.asList(args));
+    }
+
+    public <T> CompletableFuture<T> execLua(Class<T> type, String script, Object... args) {
+        return messagePackRPC.sendRequest(type, "nvim_exec_lua", script, Arrays.asList(args));
+    }
+
+    /**
+     * Lua chunk that is sent once and called by id afterwards, for scripts that are called
+     * often or are large.
+     *
+     * @see LuaFunction
+     */
+    public LuaFunction luaFunction(String script) {
+        return new LuaFunction(messagePackRPC, luaFunctions, script);
+    }
+
+    /**
+     * Start recording calls to send in a single request.
+     *
+     * @see Batch
+     */
+    public Batch batch() {
+        return new Batch(messagePackRPC);
+    }
+
     public <T> CompletableFuture<T> call(Class<T> type,  String name, Object... args) {
         return messagePackRPC.sendRequest(type, name, args);
     }
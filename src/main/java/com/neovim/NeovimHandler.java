@@ -11,4 +11,32 @@ import java.lang.annotation.Target;
 @Target(ElementType.METHOD)
 public @interface NeovimHandler {
     String value();
+
+    /**
+     * Where the handler method runs, see {@link Dispatcher#setExecutor(java.util.concurrent.Executor)}.
+     */
+    Execution execution() default Execution.INLINE;
+
+    enum Execution {
+        /**
+         * On the thread reading from neovim. Calls are strictly ordered with every other inline
+         * handler but no further messages are read until the method returns.
+         */
+        INLINE,
+        /**
+         * On the dispatch executor, calls of the same method run one at a time in the order the
+         * messages arrived.
+         */
+        ORDERED,
+        /**
+         * On the dispatch executor, calls of the same method with the same first argument (for
+         * example the buffer of a buffer event) run one at a time in the order the messages
+         * arrived.
+         */
+        ORDERED_BY_FIRST_ARGUMENT,
+        /**
+         * On the dispatch executor without any ordering.
+         */
+        PARALLEL
+    }
 }
@@ -0,0 +1,57 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * Dispatch table for the {@link NeovimHandler} methods of one handler class.
+ *
+ * Implementations are generated at compile time by the neovim-java-client-processor
+ * annotation processor as {@code <binary class name>_NeovimHandlers} in the same package as the
+ * handler. {@link Dispatcher#register(Object)} uses the generated table when it exists and
+ * scans the class with reflection otherwise.
+ *
+ * @param <T> handler class
+ */
+public interface NeovimHandlerTable<T> {
+    /**
+     * Suffix appended to the binary name of the handler class to get the table class name.
+     */
+    String SUFFIX = "_NeovimHandlers";
+
+    /**
+     * @return the exact class this table was generated for
+     */
+    Class<T> getHandlerType();
+
+    /**
+     * Add every handler method of handler to the registry.
+     *
+     * @param handler object the methods are called on
+     * @param registry receives the handler methods
+     */
+    void register(T handler, Registry registry);
+
+    /**
+     * Direct call of a handler method with already decoded arguments.
+     */
+    @FunctionalInterface
+    interface HandlerMethod {
+        Object invoke(Object[] args) throws Exception;
+    }
+
+    interface Registry {
+        /**
+         * @param name name from {@link NeovimHandler#value()}
+         * @param varArgs true if the last parameter is a java var args parameter
+         * @param execution from {@link NeovimHandler#execution()}
+         * @param method calls the handler method, returns null for void methods
+         * @param parameterTypes declared type of each parameter, primitives boxed
+         */
+        void add(
+                String name,
+                boolean varArgs,
+                NeovimHandler.Execution execution,
+                HandlerMethod method,
+                TypeReference<?>... parameterTypes);
+    }
+}
@@ -10,114 +10,200 @@ import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.neovim.msgpack.MessagePackRPC;
-import org.msgpack.core.MessagePack;
 import org.msgpack.jackson.dataformat.MessagePackExtensionType;
 import org.msgpack.jackson.dataformat.MessagePackGenerator;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.function.BiFunction;
+import java.util.function.Function;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class NeovimModule extends SimpleModule {
     // TODO: Change from hardcoded values to values retrieved from getApiInfo
-    private static final byte bufferType = 0;
-    private static final byte windowType = 1;
-    private static final byte tabPageType = 2;
+    static final byte BUFFER_TYPE = 0;
+    static final byte WINDOW_TYPE = 1;
+    static final byte TAB_PAGE_TYPE = 2;
 
-    private final MessagePackRPC messagePackRPC;
+    // Interned so the same handle decodes to the same object while anyone still holds it
+    private final HandleTable<Buffer> buffers;
+    private final HandleTable<Window> windows;
+    private final HandleTable<TabPage> tabPages;
 
     public NeovimModule(MessagePackRPC messagePackRPC) {
         super("Neovim Module");
-        this.messagePackRPC = messagePackRPC;
+        checkNotNull(messagePackRPC);
+        buffers = new HandleTable<>(id -> new Buffer(messagePackRPC, id));
+        windows = new HandleTable<>(id -> new Window(messagePackRPC, id));
+        tabPages = new HandleTable<>(id -> new TabPage(messagePackRPC, id));
     }
 
-    @Override
-    public void setupModule(SetupContext context) {
-        addDeserializer(Buffer.class, new IdDeserializer<>(Buffer.class, Buffer::new, bufferType));
-        addSerializer(Buffer.class, new JsonSerializer<Buffer>() {
-            @Override
-            public Class<Buffer> handledType() {
-                return Buffer.class;
-            }
+    /**
+     * @return the interned buffer for id, for handles that arrive as plain numbers
+     */
+    Buffer buffer(long id) {
+        return buffers.get(id);
+    }
 
-            @Override
-            public void serialize(
-                    Buffer buffer,
-                    JsonGenerator jsonGenerator,
-                    SerializerProvider serializerProvider)
-                    throws IOException, JsonProcessingException {
-                MessagePackGenerator generator = (MessagePackGenerator) jsonGenerator;
-
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                MessagePack.newDefaultPacker(out).packLong(buffer.getId()).close();
-                MessagePackExtensionType extensionType =
-                        new MessagePackExtensionType(bufferType, out.toByteArray());
-                generator.writeExtensionType(extensionType);
-            }
-        });
+    Window window(long id) {
+        return windows.get(id);
+    }
 
-        addDeserializer(Window.class, new IdDeserializer<>(Window.class, Window::new, windowType));
-        addSerializer(Window.class, new JsonSerializer<Window>() {
-            @Override
-            public Class<Window> handledType() {
-                return Window.class;
-            }
+    TabPage tabPage(long id) {
+        return tabPages.get(id);
+    }
 
-            @Override
-            public void serialize(
-                    Window buffer,
-                    JsonGenerator jsonGenerator,
-                    SerializerProvider serializerProvider)
-                    throws IOException, JsonProcessingException {
-                MessagePackGenerator generator = (MessagePackGenerator) jsonGenerator;
-
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                MessagePack.newDefaultPacker(out).packLong(buffer.getId()).close();
-                MessagePackExtensionType extensionType =
-                        new MessagePackExtensionType(windowType, out.toByteArray());
-                generator.writeExtensionType(extensionType);
-            }
-        });
+    @Override
+    public void setupModule(SetupContext context) {
+        addDeserializer(Buffer.class, new IdDeserializer<>(Buffer.class, buffers, BUFFER_TYPE));
+        addSerializer(Buffer.class, new IdSerializer<>(Buffer.class, Buffer::getExtensionType));
+
+        addDeserializer(Window.class, new IdDeserializer<>(Window.class, windows, WINDOW_TYPE));
+        addSerializer(Window.class, new IdSerializer<>(Window.class, Window::getExtensionType));
 
         addDeserializer(
-                TabPage.class, new IdDeserializer<>(TabPage.class, TabPage::new, tabPageType));
-        addSerializer(TabPage.class, new JsonSerializer<TabPage>() {
-            @Override
-            public Class<TabPage> handledType() {
-                return TabPage.class;
-            }
+                TabPage.class, new IdDeserializer<>(TabPage.class, tabPages, TAB_PAGE_TYPE));
+        addSerializer(TabPage.class, new IdSerializer<>(TabPage.class, TabPage::getExtensionType));
 
-            @Override
-            public void serialize(
-                    TabPage buffer,
-                    JsonGenerator jsonGenerator,
-                    SerializerProvider serializerProvider)
-                    throws IOException, JsonProcessingException {
-                MessagePackGenerator generator = (MessagePackGenerator) jsonGenerator;
-
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                MessagePack.newDefaultPacker(out).packLong(buffer.getId()).close();
-                MessagePackExtensionType extensionType =
-                        new MessagePackExtensionType(tabPageType, out.toByteArray());
-                generator.writeExtensionType(extensionType);
-            }
-        });
+        addDeserializer(Highlights.Attributes.class, new Highlights.AttributesDeserializer());
         // Adding Serializers and Deserializers must happen before this
         super.setupModule(context);
     }
 
-    private class IdDeserializer<T> extends JsonDeserializer<T> {
+    /**
+     * Build the extension value neovim uses for a handle, the id packed as a msgpack integer.
+     * Handles call this once and keep the result.
+     */
+    static MessagePackExtensionType extensionType(byte type, long id) {
+        return new MessagePackExtensionType(type, encodeId(id));
+    }
+
+    /**
+     * Pack id in the smallest msgpack integer format, the same bytes MessagePacker.packLong
+     * writes.
+     */
+    static byte[] encodeId(long id) {
+        if (id >= -32 && id < 128) {
+            // positive or negative fixint
+            return new byte[] { (byte) id };
+        }
+        if (id > 0) {
+            if (id < 1 << 8) {
+                return new byte[] { (byte) 0xcc, (byte) id };
+            }
+            if (id < 1 << 16) {
+                return withPrefix((byte) 0xcd, id, 2);
+            }
+            if (id < 1L << 32) {
+                return withPrefix((byte) 0xce, id, 4);
+            }
+            return withPrefix((byte) 0xcf, id, 8);
+        }
+        if (id >= Byte.MIN_VALUE) {
+            return new byte[] { (byte) 0xd0, (byte) id };
+        }
+        if (id >= Short.MIN_VALUE) {
+            return withPrefix((byte) 0xd1, id, 2);
+        }
+        if (id >= Integer.MIN_VALUE) {
+            return withPrefix((byte) 0xd2, id, 4);
+        }
+        return withPrefix((byte) 0xd3, id, 8);
+    }
+
+    private static byte[] withPrefix(byte prefix, long value, int length) {
+        byte[] bytes = new byte[length + 1];
+        bytes[0] = prefix;
+        for (int i = length; i > 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    /**
+     * Inverse of {@link #encodeId(long)}, accepts any msgpack integer format.
+     *
+     * @throws IllegalArgumentException if data is not a msgpack integer
+     */
+    static long decodeId(byte[] data) {
+        checkArgument(data.length > 0, "Empty handle");
+        int prefix = data[0] & 0xff;
+        if (prefix <= 0x7f || prefix >= 0xe0) {
+            return data[0];
+        }
+        switch (prefix) {
+            case 0xcc:
+                return readUnsigned(data, 1);
+            case 0xcd:
+                return readUnsigned(data, 2);
+            case 0xce:
+                return readUnsigned(data, 4);
+            case 0xcf:
+                return readUnsigned(data, 8);
+            case 0xd0:
+                return (byte) readUnsigned(data, 1);
+            case 0xd1:
+                return (short) readUnsigned(data, 2);
+            case 0xd2:
+                return (int) readUnsigned(data, 4);
+            case 0xd3:
+                return readUnsigned(data, 8);
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Handle is not an integer, prefix 0x%02x", prefix));
+        }
+    }
+
+    private static long readUnsigned(byte[] data, int length) {
+        checkArgument(data.length == length + 1, "Truncated handle");
+        long value = 0;
+        for (int i = 1; i <= length; i++) {
+            value = (value << 8) | (data[i] & 0xff);
+        }
+        return value;
+    }
+
+    private static class IdSerializer<T> extends JsonSerializer<T> {
+        private final Class<T> type;
+        private final Function<T, MessagePackExtensionType> extensionType;
+
+        public IdSerializer(Class<T> type, Function<T, MessagePackExtensionType> extensionType) {
+            this.type = checkNotNull(type);
+            this.extensionType = checkNotNull(extensionType);
+        }
+
+        @Override
+        public Class<T> handledType() {
+            return type;
+        }
+
+        @Override
+        public void serialize(
+                T value,
+                JsonGenerator jsonGenerator,
+                SerializerProvider serializerProvider)
+                throws IOException, JsonProcessingException {
+            MessagePackGenerator generator = (MessagePackGenerator) jsonGenerator;
+            generator.writeExtensionType(extensionType.apply(value));
+        }
+    }
+
+    /**
+     * Decodes a handle and returns the interned object for its id. The id itself is decoded and
+     * looked up without allocating, but msgpack-jackson still wraps the payload in a
+     * MessagePackExtensionType for {@link JsonParser#getEmbeddedObject()} and has no way to read
+     * it without one.
+     */
+    private static class IdDeserializer<T> extends JsonDeserializer<T> {
         private final Class<T> type;
-        private final BiFunction<MessagePackRPC, Long, T> supplier;
         private final int extType;
+        private final HandleTable<T> handles;
 
-        public IdDeserializer(
-                Class<T> type, BiFunction<MessagePackRPC, Long, T> supplier, int extType) {
+        public IdDeserializer(Class<T> type, HandleTable<T> handles, int extType) {
             this.type = checkNotNull(type);
-            this.supplier = checkNotNull(supplier);
             this.extType = extType;
+            this.handles = checkNotNull(handles);
         }
 
         @Override
@@ -134,11 +220,13 @@ public class NeovimModule extends SimpleModule {
                 throw new JsonParseException(String.format("extensionType != %d", extType),
                         jsonParser.getCurrentLocation());
             }
-            long id = MessagePack.newDefaultUnpacker(extensionValue.getData())
-                    .unpackValue()
-                    .asIntegerValue()
-                    .asLong();
-            return supplier.apply(messagePackRPC, id);
+            long id;
+            try {
+                id = decodeId(extensionValue.getData());
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException(e.getMessage(), jsonParser.getCurrentLocation(), e);
+            }
+            return handles.get(id);
         }
     }
 }
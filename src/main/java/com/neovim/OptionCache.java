@@ -0,0 +1,261 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.neovim.msgpack.MessagePackRPC;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Serves option and variable reads locally after the first request.
+ *
+ * Options stay cached until they change. An OptionSet autocommand sends the name of every option
+ * that is set to this client with rpcnotify and the cache drops every entry of that option,
+ * global and local. Use full option names, "sw" isn't invalidated by a change to "shiftwidth".
+ *
+ * Variables have no change event and are cached for a fixed time.
+ *
+ * Created with {@link Neovim#newOptionCache(long, TimeUnit)}.
+ */
+public class OptionCache implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(OptionCache.class);
+    private static final String AUGROUP = "neovim_java_option_cache";
+
+    private final MessagePackRPC messagePackRPC;
+    private final OptionEvents events;
+    private final ConcurrentMap<Key, CompletableFuture<?>> options = new ConcurrentHashMap<>();
+    private final Cache<Key, CompletableFuture<?>> variables;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // Reads go straight to neovim until the autocommand is installed and after close
+    private volatile boolean active = false;
+
+    OptionCache(MessagePackRPC messagePackRPC, OptionEvents events, long variableTtl,
+            TimeUnit unit) {
+        checkArgument(variableTtl >= 0, "variableTtl must not be negative");
+        this.messagePackRPC = checkNotNull(messagePackRPC);
+        this.events = checkNotNull(events);
+        this.variables = CacheBuilder.newBuilder()
+                .expireAfterWrite(variableTtl, unit)
+                .build();
+    }
+
+    /**
+     * Install the OptionSet autocommand, once per connection is enough but doing it again
+     * replaces it.
+     *
+     * @return completes when options are served from the cache
+     */
+    CompletableFuture<OptionCache> attach() {
+        events.add(this);
+        return messagePackRPC.sendRequest(new TypeReference<List<Object>>() {}, "vim_get_api_info")
+                .thenCompose(info -> {
+                    long channel = ((Number) info.get(0)).longValue();
+                    Batch batch = new Batch(messagePackRPC);
+                    batch.command("augroup " + AUGROUP + " | augroup END");
+                    batch.command("autocmd! " + AUGROUP);
+                    batch.command(String.format(
+                            "autocmd %s OptionSet * call rpcnotify(%d, '%s', expand('<amatch>'))",
+                            AUGROUP, channel, OptionEvents.OPTION_SET));
+                    return batch.send();
+                })
+                .thenApply(ignored -> {
+                    active = true;
+                    return this;
+                })
+                .whenComplete((cache, error) -> {
+                    if (error != null) {
+                        events.remove(this);
+                    }
+                });
+    }
+
+    public <T> CompletableFuture<T> getOption(Class<T> type, String name) {
+        return option(new Key(null, name, type),
+                () -> messagePackRPC.sendRequest(type, "vim_get_option", name));
+    }
+
+    public <T> CompletableFuture<T> getOption(Buffer buffer, TypeReference<T> type, String name) {
+        return option(new Key(buffer, name, type.getType()), () -> buffer.getOption(type, name));
+    }
+
+    public <T> CompletableFuture<T> getOption(Window window, TypeReference<T> type, String name) {
+        return option(new Key(window, name, type.getType()), () -> window.getOption(type, name));
+    }
+
+    public <T> CompletableFuture<T> getVar(TypeReference<T> type, String name) {
+        return variable(new Key(null, name, type.getType()),
+                () -> messagePackRPC.sendRequest(type, "vim_get_var", name));
+    }
+
+    public <T> CompletableFuture<T> getVar(Buffer buffer, TypeReference<T> type, String name) {
+        return variable(new Key(buffer, name, type.getType()), () -> buffer.getVar(type, name));
+    }
+
+    public <T> CompletableFuture<T> getVar(Window window, TypeReference<T> type, String name) {
+        return variable(new Key(window, name, type.getType()), () -> window.getVar(type, name));
+    }
+
+    public <T> CompletableFuture<T> getVar(TabPage tabPage, TypeReference<T> type, String name) {
+        return variable(new Key(tabPage, name, type.getType()), () -> tabPage.getVar(type, name));
+    }
+
+    private <T> CompletableFuture<T> option(Key key, Supplier<CompletableFuture<T>> fetch) {
+        if (!active) {
+            return fetch.get();
+        }
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> cached = (CompletableFuture<T>) options.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return copy(cached);
+        }
+        // Claim the key before sending, so concurrent misses share one request and an
+        // invalidation that comes while it is in flight drops it
+        CompletableFuture<T> fetched = messagePackRPC.newFuture();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> raced = (CompletableFuture<T>) options.putIfAbsent(key, fetched);
+        if (raced != null) {
+            hits.incrementAndGet();
+            return copy(raced);
+        }
+        misses.incrementAndGet();
+        CompletableFuture<T> response;
+        try {
+            response = fetch.get();
+        } catch (RuntimeException e) {
+            options.remove(key, fetched);
+            fetched.completeExceptionally(e);
+            throw e;
+        }
+        response.whenComplete((value, error) -> {
+            if (error != null) {
+                // Ask again next time instead of caching the failure
+                options.remove(key, fetched);
+                fetched.completeExceptionally(error);
+            } else {
+                fetched.complete(value);
+            }
+        });
+        return copy(fetched);
+    }
+
+    private <T> CompletableFuture<T> variable(Key key, Supplier<CompletableFuture<T>> fetch) {
+        if (!active) {
+            return fetch.get();
+        }
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> cached = (CompletableFuture<T>) variables.getIfPresent(key);
+        if (cached != null && !cached.isCompletedExceptionally()) {
+            hits.incrementAndGet();
+            return copy(cached);
+        }
+        misses.incrementAndGet();
+        CompletableFuture<T> fetched = fetch.get();
+        variables.put(key, fetched);
+        return copy(fetched);
+    }
+
+    /**
+     * Callers get their own future, completing it doesn't affect the cache.
+     */
+    private static <T> CompletableFuture<T> copy(CompletableFuture<T> future) {
+        return future.thenApply(value -> value);
+    }
+
+    /**
+     * Drop the global and every local value of option.
+     */
+    void invalidateOption(String name) {
+        options.keySet().removeIf(key -> key.name.equals(name));
+    }
+
+    /**
+     * Drop every cached variable, for when they are known to have changed.
+     */
+    public void invalidateVariables() {
+        variables.invalidateAll();
+    }
+
+    /**
+     * A hit is a read served from the cache, a miss one that went to neovim.
+     */
+    public CacheStats stats() {
+        return new CacheStats(hits.get(), misses.get(), 0, 0, 0, 0);
+    }
+
+    /**
+     * Stop caching, reads go to neovim from now on. The last cache of the connection to close
+     * removes the autocommand, so neovim doesn't notify a channel that may be gone.
+     */
+    @Override
+    public void close() {
+        active = false;
+        boolean last = events.remove(this);
+        options.clear();
+        variables.invalidateAll();
+        if (last) {
+            try {
+                messagePackRPC.sendNotification("vim_command", "silent! autocmd! " + AUGROUP);
+            } catch (UncheckedIOException e) {
+                log.debug("Could not remove the OptionSet autocommand: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("options", options.size())
+                .add("variables", variables.size())
+                .add("stats", stats())
+                .toString();
+    }
+
+    private static class Key {
+        // Buffer, Window or TabPage, null for global values
+        private final Object scope;
+        private final String name;
+        private final Type type;
+
+        Key(Object scope, String name, Type type) {
+            this.scope = scope;
+            this.name = checkNotNull(name);
+            this.type = checkNotNull(type);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key that = (Key) o;
+
+            return Objects.equal(this.scope, that.scope) &&
+                    Objects.equal(this.name, that.name) &&
+                    Objects.equal(this.type, that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(scope, name, type);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.neovim;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Routes the notifications of the OptionSet autocommand installed by {@link OptionCache} to
+ * every open cache. Registered once per connection, the handler runs inline so a change is
+ * applied in order with the responses that came before it.
+ */
+class OptionEvents {
+    static final String OPTION_SET = "neovim_java_option_set";
+
+    private final Set<OptionCache> caches = new CopyOnWriteArraySet<>();
+
+    void add(OptionCache cache) {
+        caches.add(checkNotNull(cache));
+    }
+
+    /**
+     * @return true if cache was the last one
+     */
+    boolean remove(OptionCache cache) {
+        return caches.remove(cache) && caches.isEmpty();
+    }
+
+    @NeovimHandler(OPTION_SET)
+    public void optionSet(String name) {
+        for (OptionCache cache : caches) {
+            cache.invalidateOption(name);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.neovim;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs tasks with the same key one at a time in submission order while tasks with different
+ * keys run in parallel on the underlying executor.
+ *
+ * Keys are hashed onto a fixed number of stripes, two keys that share a stripe are ordered
+ * with respect to each other as well. A stripe only occupies a thread of the underlying executor
+ * while it has queued tasks.
+ */
+class StripedExecutor {
+    private static final Logger log = LoggerFactory.getLogger(StripedExecutor.class);
+
+    private final Executor executor;
+    private final Stripe[] stripes;
+
+    /**
+     * @param executor runs the tasks
+     * @param stripeCount number of independent queues
+     */
+    StripedExecutor(Executor executor, int stripeCount) {
+        checkArgument(stripeCount > 0, "stripeCount must be positive");
+        this.executor = checkNotNull(executor);
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Run task after every task previously submitted with the same key hash has finished.
+     *
+     * @throws RejectedExecutionException if the underlying executor rejects the stripe, task
+     *     is not run. Tasks queued on the stripe meanwhile run on the calling thread.
+     */
+    void execute(int keyHash, Runnable task) {
+        // Spread the hash so keys that only differ in the high bits still use different stripes
+        int hash = keyHash ^ (keyHash >>> 16);
+        stripes[(hash & Integer.MAX_VALUE) % stripes.length].execute(checkNotNull(task));
+    }
+
+    private class Stripe implements Runnable {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Nothing drains the stripe, take back only this task. Tasks other producers
+                    // added in the meantime were accepted, so run them here instead of dropping
+                    // them.
+                    tasks.remove(task);
+                    if (pending.decrementAndGet() != 0) {
+                        run();
+                    }
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                Runnable task = tasks.poll();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Handler task failed: {}", e.getMessage(), e);
+                }
+            } while (pending.decrementAndGet() != 0);
+        }
+    }
+}
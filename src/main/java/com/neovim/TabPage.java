@@ -3,6 +3,7 @@ package com.neovim;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.Objects;
 import com.neovim.msgpack.MessagePackRPC;
+import org.msgpack.jackson.dataformat.MessagePackExtensionType;
 
 import java.io.IOException;
 import java.util.List;
@@ -13,6 +14,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class TabPage {
     private final MessagePackRPC messagePackRPC;
     private final long id;
+    // Encoded on first use, instances are interned by NeovimModule so it is reused
+    private MessagePackExtensionType extensionType = null;
 
     TabPage(MessagePackRPC messagePackRPC, long id) {
         this.messagePackRPC = checkNotNull(messagePackRPC);
@@ -23,6 +26,16 @@ public class TabPage {
         return id;
     }
 
+    MessagePackExtensionType getExtensionType() {
+        // Racy but idempotent, every thread computes the same value
+        MessagePackExtensionType extensionType = this.extensionType;
+        if (extensionType == null) {
+            extensionType = NeovimModule.extensionType(NeovimModule.TAB_PAGE_TYPE, id);
+            this.extensionType = extensionType;
+        }
+        return extensionType;
+    }
+
     public CompletableFuture<List<Window>> getWindows() {
         return messagePackRPC.sendRequest(
                 new TypeReference<List<Window>>() {}, "tabpage_get_windows", this);
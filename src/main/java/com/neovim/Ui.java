@@ -0,0 +1,196 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.MoreObjects;
+import com.neovim.msgpack.GridCells;
+import com.neovim.msgpack.MessagePackRPC;
+import com.neovim.msgpack.RedrawHandler;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Client side of the neovim UI protocol with the line based grid ({@code ext_linegrid}). Redraw
+ * notifications are decoded straight from the input by {@link MessagePackRPC}, the grid events
+ * are applied in place to the {@link Grid}s without allocating per cell and at every flush the
+ * {@link Renderer} is called to draw the damage.
+ *
+ * Redraw events are handled on the thread reading from neovim, the grids must only be read from
+ * {@link Renderer#flush(Ui)} or under the renderer's own synchronization.
+ *
+ * Attached with {@link Neovim#attachUi(int, int, Map, Renderer)}, once per connection.
+ */
+public class Ui {
+    private final MessagePackRPC messagePackRPC;
+    private final Renderer renderer;
+    private final Map<Integer, Grid> grids = new HashMap<>();
+    private int cursorGrid = 1;
+    private int cursorRow = 0;
+    private int cursorCol = 0;
+    private final Highlights highlights = new Highlights();
+    private final RedrawHandler redrawHandler = new GridEvents();
+
+    Ui(MessagePackRPC messagePackRPC, Renderer renderer) {
+        this.messagePackRPC = checkNotNull(messagePackRPC);
+        this.renderer = checkNotNull(renderer);
+    }
+
+    /**
+     * @param options ui options, {@code ext_linegrid} is always on and {@code rgb} defaults to
+     *     true
+     */
+    CompletableFuture<Ui> attach(int width, int height, Map<String, Object> options) {
+        Map<String, Object> uiOptions = new HashMap<>(options);
+        uiOptions.put("ext_linegrid", true);
+        uiOptions.putIfAbsent("rgb", true);
+        return messagePackRPC.sendRequest(Void.class, "nvim_ui_attach", width, height, uiOptions)
+                .thenApply(ignored -> this);
+    }
+
+    /**
+     * Ask neovim to resize the default grid, the new size arrives as a grid_resize event.
+     */
+    public CompletableFuture<Void> tryResize(int width, int height) {
+        return messagePackRPC.sendRequest(Void.class, "nvim_ui_try_resize", width, height);
+    }
+
+    public CompletableFuture<Void> detach() {
+        return messagePackRPC.sendRequest(Void.class, "nvim_ui_detach");
+    }
+
+    /**
+     * @return grid id, null if neovim hasn't created it
+     */
+    public Grid getGrid(int id) {
+        return grids.get(id);
+    }
+
+    public Collection<Grid> getGrids() {
+        return Collections.unmodifiableCollection(grids.values());
+    }
+
+    /**
+     * Attributes of the highlight ids in {@link Grid#getHighlight(int, int)}.
+     */
+    public Highlights getHighlights() {
+        return highlights;
+    }
+
+    public int getCursorGrid() {
+        return cursorGrid;
+    }
+
+    public int getCursorRow() {
+        return cursorRow;
+    }
+
+    public int getCursorCol() {
+        return cursorCol;
+    }
+
+    /**
+     * Handler for {@link MessagePackRPC#setRedrawHandler(RedrawHandler)}.
+     */
+    RedrawHandler redrawHandler() {
+        return redrawHandler;
+    }
+
+    private Grid grid(int id) {
+        Grid grid = grids.get(id);
+        if (grid == null) {
+            grid = new Grid(id);
+            grids.put(id, grid);
+        }
+        return grid;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("grids", grids.values())
+                .add("cursorGrid", cursorGrid)
+                .add("cursorRow", cursorRow)
+                .add("cursorCol", cursorCol)
+                .toString();
+    }
+
+    private class GridEvents implements RedrawHandler {
+        @Override
+        public void onGridResize(int grid, int width, int height) {
+            grid(grid).resize(width, height);
+        }
+
+        @Override
+        public void onGridClear(int grid) {
+            grid(grid).clear();
+        }
+
+        @Override
+        public void onGridDestroy(int grid) {
+            grids.remove(grid);
+        }
+
+        @Override
+        public void onGridCursorGoto(int grid, int row, int col) {
+            cursorGrid = grid;
+            cursorRow = row;
+            cursorCol = col;
+        }
+
+        @Override
+        public void onGridScroll(int grid, int top, int bot, int left, int right, int rows,
+                int cols) {
+            // cols is always 0, neovim doesn't scroll sideways yet
+            grid(grid).scroll(top, bot, left, right, rows);
+        }
+
+        @Override
+        public void onGridLine(int grid, int row, int colStart, GridCells cells) {
+            Grid target = grid(grid);
+            int col = colStart;
+            for (int i = 0; i < cells.size(); i++) {
+                int repeat = cells.getRepeat(i);
+                target.put(row, col, cells.getCodePoint(i), cells.getCluster(i),
+                        cells.getHighlight(i), repeat);
+                col += repeat;
+            }
+        }
+
+        @Override
+        public void onFlush() {
+            renderer.flush(Ui.this);
+        }
+
+        @Override
+        public void onHlAttrDefine(int id, ObjectMapper objectMapper, JsonParser rgbAttrs)
+                throws IOException {
+            highlights.define(id, objectMapper.readValue(rgbAttrs, Highlights.Attributes.class));
+        }
+
+        @Override
+        public void onEvent(String name, JsonNode args) {
+            if (name.equals("default_colors_set")) {
+                highlights.setDefaultColors(
+                        args.get(0).asInt(), args.get(1).asInt(), args.get(2).asInt());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Renderer {
+        /**
+         * Neovim finished a screen update, draw the damage of the grids, see
+         * {@link Grid#drainDamage(Grid.DamageConsumer)}. Called on the thread reading from
+         * neovim.
+         */
+        void flush(Ui ui);
+    }
+}
@@ -3,6 +3,7 @@ package com.neovim;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.Objects;
 import com.neovim.msgpack.MessagePackRPC;
+import org.msgpack.jackson.dataformat.MessagePackExtensionType;
 
 import java.util.concurrent.CompletableFuture;
 
@@ -11,6 +12,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class Window {
     private final MessagePackRPC messagePackRPC;
     private final long id;
+    // Encoded on first use, instances are interned by NeovimModule so it is reused
+    private MessagePackExtensionType extensionType = null;
 
     Window(MessagePackRPC messagePackRPC, long id) {
         this.messagePackRPC = checkNotNull(messagePackRPC);
@@ -21,6 +24,16 @@ public class Window {
         return id;
     }
 
+    MessagePackExtensionType getExtensionType() {
+        // Racy but idempotent, every thread computes the same value
+        MessagePackExtensionType extensionType = this.extensionType;
+        if (extensionType == null) {
+            extensionType = NeovimModule.extensionType(NeovimModule.WINDOW_TYPE, id);
+            this.extensionType = extensionType;
+        }
+        return extensionType;
+    }
+
     public CompletableFuture<Buffer> getBuffer() {
         return messagePackRPC.sendRequest(Buffer.class, "window_get_buffer", this);
     }
@@ -0,0 +1,75 @@
+package com.neovim.msgpack;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * Cells of one grid_line event in parallel arrays. The highlight id left out by neovim when it
+ * is the one of the cell before is filled in. Reused for every event, so nothing is allocated
+ * per cell once the arrays have grown to the width of the grid.
+ */
+public final class GridCells {
+    private int size = 0;
+    private int[] codePoints = new int[64];
+    private String[] clusters = new String[64];
+    private int[] highlights = new int[64];
+    private int[] repeats = new int[64];
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return first code point of the cell text, 0 for an empty cell (the right half of a double
+     *     width character)
+     */
+    public int getCodePoint(int index) {
+        checkElementIndex(index, size);
+        return codePoints[index];
+    }
+
+    /**
+     * @return text of the cell if it has more than one code point, otherwise null
+     */
+    public String getCluster(int index) {
+        checkElementIndex(index, size);
+        return clusters[index];
+    }
+
+    public int getHighlight(int index) {
+        checkElementIndex(index, size);
+        return highlights[index];
+    }
+
+    /**
+     * @return how many columns the cell fills
+     */
+    public int getRepeat(int index) {
+        checkElementIndex(index, size);
+        return repeats[index];
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(clusters, 0, size, null);
+        }
+        size = 0;
+    }
+
+    void add(String text, int highlight, int repeat) {
+        if (size == codePoints.length) {
+            int capacity = size * 2;
+            codePoints = Arrays.copyOf(codePoints, capacity);
+            clusters = Arrays.copyOf(clusters, capacity);
+            highlights = Arrays.copyOf(highlights, capacity);
+            repeats = Arrays.copyOf(repeats, capacity);
+        }
+        int codePoint = text.isEmpty() ? 0 : text.codePointAt(0);
+        codePoints[size] = codePoint;
+        clusters[size] = text.length() > Character.charCount(codePoint) ? text : null;
+        highlights[size] = highlight;
+        repeats[size] = repeat;
+        size++;
+    }
+}
@@ -0,0 +1,235 @@
+package com.neovim.msgpack;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Timer for large numbers of timeouts that are usually cancelled before they expire.
+ *
+ * Timeouts are hashed into a ring of buckets by their deadline. A single daemon thread advances
+ * one bucket per tick and only looks at the timeouts in that bucket, so scheduling and
+ * cancelling are O(1) and thousands of pending timeouts cost one small node each. Expiration is
+ * accurate to one tick.
+ */
+public class HashedWheelTimer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private static final int WAITING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startTime;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Timer with a 10 millisecond tick and 512 buckets.
+     */
+    public HashedWheelTimer() {
+        this(10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * @param tickDuration time between ticks
+     * @param unit unit of tickDuration
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        checkArgument(tickDuration > 0, "tickDuration must be positive");
+        checkArgument(ticksPerWheel > 0 && ticksPerWheel <= 1 << 30,
+                "ticksPerWheel must be between 1 and 2^30");
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        if (size == 0) {
+            size = 1;
+        }
+        wheel = new Bucket[size];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = wheel.length - 1;
+        startTime = System.nanoTime();
+
+        worker = new Thread(this::run, "neovim-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Run task once after the delay has passed. The task runs on the timer thread and should
+     * be quick.
+     *
+     * @param task task to run
+     * @param delay time to wait
+     * @param unit unit of delay
+     * @return handle that can cancel the task
+     * @throws IllegalStateException if the timer was closed
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        checkNotNull(task);
+        checkState(!closed, "Timer closed");
+        long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(task, deadline);
+        added.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!closed) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (closed) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            transferAdded(tick);
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void transferAdded(long currentTick) {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state.get() == CANCELLED) {
+                continue;
+            }
+            long ticks = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (ticks - currentTick) / wheel.length;
+            // Anything already late goes in the current bucket
+            long bucket = Math.max(ticks, currentTick);
+            wheel[(int) (bucket & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Handle for a scheduled task.
+     */
+    public static final class Timeout {
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private volatile Runnable task;
+
+        // Only accessed by the worker thread
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task if it has not run yet. The task is released immediately, the node is
+         * dropped from its bucket the next time the wheel passes it.
+         *
+         * @return true if the task will not run because of this call
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                task = null;
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            Runnable task = this.task;
+            if (!state.compareAndSet(WAITING, EXPIRED)) {
+                return;
+            }
+            this.task = null;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.warn("Timeout task threw: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, only touched by the worker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+        }
+    }
+}
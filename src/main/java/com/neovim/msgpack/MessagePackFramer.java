@@ -0,0 +1,181 @@
+package com.neovim.msgpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Finds where top level MessagePack values end in a stream that arrives in pieces, without
+ * decoding them. Only the headers are looked at, payloads are skipped by length, so the input
+ * can be split into packets that are each handed to a parser once complete.
+ *
+ * Not thread safe, each connection has its own.
+ */
+class MessagePackFramer {
+    private boolean inValue = false;
+    // Values left to complete the current top level value
+    private long open = 0;
+    // Payload bytes left to skip
+    private long skip = 0;
+    // Header whose length bytes are still arriving
+    private int format = -1;
+    private int lengthBytes = 0;
+    private long length = 0;
+
+    /**
+     * Scan buffer up to the end of the current top level value. The position is moved past the
+     * bytes that were scanned, right after the value if it was completed and to the limit if
+     * not.
+     *
+     * @return true if the value was completed
+     * @throws IOException if the bytes are not MessagePack
+     */
+    boolean feed(ByteBuffer buffer) throws IOException {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        try {
+            while (position < limit) {
+                if (skip > 0) {
+                    int skipped = (int) Math.min(skip, limit - position);
+                    position += skipped;
+                    skip -= skipped;
+                } else if (format >= 0) {
+                    length = (length << 8) | (buffer.get(position++) & 0xff);
+                    if (--lengthBytes == 0) {
+                        int header = format;
+                        format = -1;
+                        endHeader(header, length);
+                    }
+                } else {
+                    int b = buffer.get(position++) & 0xff;
+                    if (!inValue) {
+                        inValue = true;
+                        open = 1;
+                    }
+                    open--;
+                    startValue(b);
+                }
+                if (open == 0 && skip == 0 && format < 0) {
+                    inValue = false;
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            buffer.position(position);
+        }
+    }
+
+    /**
+     * @return true if part of a value was fed and it isn't complete yet
+     */
+    boolean inValue() {
+        return inValue;
+    }
+
+    private void startValue(int b) throws IOException {
+        if (b <= 0x7f || b >= 0xe0) {
+            // fixint
+            return;
+        }
+        if (b <= 0x8f) {
+            open += 2L * (b & 0x0f);
+            return;
+        }
+        if (b <= 0x9f) {
+            open += b & 0x0f;
+            return;
+        }
+        if (b <= 0xbf) {
+            skip = b & 0x1f;
+            return;
+        }
+        switch (b) {
+            case 0xc0:
+            case 0xc2:
+            case 0xc3:
+                return;
+            case 0xc4:
+            case 0xc7:
+            case 0xd9:
+                startLength(b, 1);
+                return;
+            case 0xc5:
+            case 0xc8:
+            case 0xda:
+            case 0xdc:
+            case 0xde:
+                startLength(b, 2);
+                return;
+            case 0xc6:
+            case 0xc9:
+            case 0xdb:
+            case 0xdd:
+            case 0xdf:
+                startLength(b, 4);
+                return;
+            case 0xcc:
+            case 0xd0:
+                skip = 1;
+                return;
+            case 0xcd:
+            case 0xd1:
+                skip = 2;
+                return;
+            case 0xca:
+            case 0xce:
+            case 0xd2:
+                skip = 4;
+                return;
+            case 0xcb:
+            case 0xcf:
+            case 0xd3:
+                skip = 8;
+                return;
+            case 0xd4:
+                skip = 2;
+                return;
+            case 0xd5:
+                skip = 3;
+                return;
+            case 0xd6:
+                skip = 5;
+                return;
+            case 0xd7:
+                skip = 9;
+                return;
+            case 0xd8:
+                skip = 17;
+                return;
+            default:
+                throw new IOException(String.format("Not MessagePack, prefix 0x%02x", b));
+        }
+    }
+
+    private void startLength(int b, int bytes) {
+        format = b;
+        lengthBytes = bytes;
+        length = 0;
+    }
+
+    private void endHeader(int b, long length) {
+        switch (b) {
+            case 0xc7:
+            case 0xc8:
+            case 0xc9:
+                // ext, the type byte comes before the data
+                skip = length + 1;
+                return;
+            case 0xdc:
+            case 0xdd:
+                open += length;
+                return;
+            case 0xde:
+            case 0xdf:
+                open += 2 * length;
+                return;
+            default:
+                // str and bin
+                skip = length;
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package com.neovim.msgpack;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -18,19 +25,27 @@ import java.io.UncheckedIOException;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
-import static com.neovim.msgpack.JsonNodeUtil.formatJsonNode;
 
 public class MessagePackRPC implements AutoCloseable {
 
@@ -52,19 +67,82 @@ public class MessagePackRPC implements AutoCloseable {
         OutputStream getOutputStream();
     }
 
+    /**
+     * Connection whose bytes are moved by threads shared with other connections, see
+     * {@link NioTransport}. There is no reader thread per connection, the connection splits its
+     * input into packets and each one is parsed and handled on the shared executor.
+     */
+    public interface MultiplexedConnection extends Connection {
+        /**
+         * @return executor shared with other connections that reads packets
+         */
+        Executor getExecutor();
+
+        /**
+         * Start reading. Can only be called once.
+         *
+         * @param packetsArrived called with the number of packets that were completed, once
+         *     they can be taken without blocking
+         */
+        void start(IntConsumer packetsArrived);
+
+        /**
+         * Take the next packet, waits for one if none arrived yet.
+         *
+         * @return bytes of one MessagePack value, null once the input ended
+         */
+        byte[] takePacket() throws IOException;
+    }
+
+    /**
+     * Reads the arguments of a notification straight from the input, see
+     * {@link #setNotificationReader(String, NotificationReader)}.
+     */
+    @FunctionalInterface
+    public interface NotificationReader {
+        /**
+         * @param objectMapper mapper with the registered modules, to bind single values
+         * @param parser positioned on the start of the argument array
+         */
+        void read(ObjectMapper objectMapper, JsonParser parser) throws IOException;
+    }
+
     private static final Logger log = LoggerFactory.getLogger(MessagePackRPC.class);
+    private static final int PENDING_REQUEST_SLOTS = 1024;
+    // Packets read in one go on the shared executor before the connection lets others run
+    private static final int MAX_PACKETS_PER_DRAIN = 64;
+
+    // Shared by every connection so request deadlines never cost more than one thread
+    private static final Supplier<HashedWheelTimer> DEFAULT_TIMER =
+            Suppliers.memoize(HashedWheelTimer::new);
 
     private final RequestIdGenerator idGenerator;
     private final Connection connection;
     private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final ExecutorService writerService = Executors.newSingleThreadExecutor();
     private final ObjectMapper objectMapper;
+    private final PacketWriter packetWriter;
     private BiConsumer<String, JsonNode> notificationHandler;
     private BiFunction<String, JsonNode, ?> requestHandler;
+    private volatile RedrawHandler redrawHandler = null;
+    private final ConcurrentMap<String, NotificationReader> notificationReaders =
+            new ConcurrentHashMap<>();
+    private final RedrawDecoder redrawDecoder;
 
-    private final ConcurrentMap<Long, RequestCallback<?>> callbacks = new ConcurrentHashMap<>();
+    private final RequestLimiter limiter = new RequestLimiter();
+    private final PendingRequests callbacks = new PendingRequests(PENDING_REQUEST_SLOTS);
+    private final ConcurrentMap<String, Long> methodTimeoutNanos = new ConcurrentHashMap<>();
+    private volatile long defaultTimeoutNanos = 0;
 
     private Future<?> receiverFuture = null;
+    private boolean started = false;
+    // Multiplexed connections only, packets that arrived and were not read yet
+    private final AtomicLong packetsBuffered = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean();
     private volatile boolean closed = false;
+    // Only used on the receiver thread, kept for re-entrant reads while a handler waits
+    private JsonParser parser;
+    private volatile Thread receiverThread = null;
 
     public static ObjectMapper defaultObjectMapper() {
         MessagePackFactory factory = new MessagePackFactory();
@@ -85,47 +163,230 @@ public class MessagePackRPC implements AutoCloseable {
         this.idGenerator = checkNotNull(idGenerator);
         this.objectMapper = checkNotNull(objectMapper);
         this.connection = checkNotNull(connection);
+        // The stream of a multiplexed connection only queues the bytes for its selector thread,
+        // so the caller serializes. Queuing on the shared workers would deadlock once every
+        // worker waits on a request of its own.
+        Executor writeExecutor = connection instanceof MultiplexedConnection
+                ? Runnable::run
+                : writerService;
+        this.packetWriter = new PacketWriter(
+                objectMapper, connection::getOutputStream, writeExecutor, this::sendFailed);
         notificationHandler = (method, arg) -> log.warn("Received notification {}({})", method, arg);
         requestHandler = (method, arg) -> new NeovimException(-1, "Does not support Requests");
+        redrawDecoder = new RedrawDecoder(objectMapper);
+    }
+
+    /**
+     * Queue packet to be sent by the writer thread. Does not block on the connection.
+     *
+     * @throws IOException if the connection is already closed
+     */
+    private void send(Packet packet) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        packetWriter.write(packet);
+    }
+
+    private void sendFailed(Packet packet, IOException e) {
+        if (packet instanceof Request) {
+            RequestCallback<?> callback = callbacks.remove(((Request) packet).getRequestId());
+            if (callback != null) {
+                callback.getCompletableFuture().completeExceptionally(e);
+            }
+        } else {
+            log.error("failed to send {}: {}", packet, e.getMessage(), e);
+        }
     }
 
-    // TODO: Determine if this should be on a separate thread
-    private synchronized void send(Packet packet) throws IOException {
-        OutputStream output = connection.getOutputStream();
-        objectMapper.writeValue(output, packet);
-        output.flush();
+    private <T> CompletableFuture<T> sendRequest(
+            Request data, RequestCallback<T> callback, long timeoutNanos) {
+        CompletableFuture<T> future = callback.getCompletableFuture();
+        // Armed before the limiter so the deadline covers time spent queued as well
+        if (timeoutNanos > 0) {
+            String message = String.format(
+                    "%s timed out after %d ms",
+                    data.getMethod(), TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            HashedWheelTimer.Timeout timeout = DEFAULT_TIMER.get().newTimeout(
+                    () -> future.completeExceptionally(new TimeoutException(message)),
+                    timeoutNanos,
+                    TimeUnit.NANOSECONDS);
+            future.whenComplete((result, error) -> timeout.cancel());
+        }
+        limiter.submit(
+                data.getMethod(),
+                future,
+                () -> registerAndSend(data, callback));
+        return future;
     }
 
-    private <T> CompletableFuture<T> sendRequest(Request data, RequestCallback<T> callback) {
+    private <T> void registerAndSend(Request data, RequestCallback<T> callback) {
         // Make sure the id is not already in use. (Should never loop)
         long id;
         do {
             id = idGenerator.nextId();
             data.setRequestId(id);
-        } while(callbacks.putIfAbsent(id, callback) != null);
+        } while(!callbacks.register(id, callback));
+
+        // However the future completes (response, timeout, cancel, send failure) release the slot
+        CompletableFuture<T> future = callback.getCompletableFuture();
+        long requestId = id;
+        future.whenComplete((result, error) -> callbacks.remove(requestId, callback));
 
         try {
             send(data);
         } catch (IOException e) {
-            callbacks.remove(id);
-            callback.getCompletableFuture().completeExceptionally(e);
+            future.completeExceptionally(e);
             throw new UncheckedIOException(e);
         }
-        return callback.getCompletableFuture();
+    }
+
+    private <T> RequestCallback<T> newCallback(JavaType type) {
+        return new RequestCallback<>(type, new ReceiverAwareFuture<>());
+    }
+
+    private long timeoutNanos(String functionName) {
+        Long timeout = methodTimeoutNanos.get(functionName);
+        return timeout != null ? timeout : defaultTimeoutNanos;
     }
 
     public <T> CompletableFuture<T> sendRequest(
             TypeReference<T> typeReference, String functionName, Object... args) {
         return sendRequest(
                 new Request(functionName, args),
-                new RequestCallback<>(objectMapper.constructType(typeReference.getType())));
+                newCallback(objectMapper.constructType(typeReference.getType())),
+                timeoutNanos(functionName));
     }
 
     public <T> CompletableFuture<T> sendRequest(
             Class<T> resultClass, String functionName, Object... args) {
         return sendRequest(
                 new Request(functionName, args),
-                new RequestCallback<>(objectMapper.constructType(resultClass)));
+                newCallback(objectMapper.constructType(resultClass)),
+                timeoutNanos(functionName));
+    }
+
+    /**
+     * Send request whose result is read by resultReader straight from the parser, for results
+     * that don't map onto a single type.
+     *
+     * @param resultReader called on the receiver thread with the parser positioned on the first
+     *     token of the result, must consume exactly the result
+     */
+    public <T> CompletableFuture<T> sendRequest(
+            IOBiFunction<ObjectMapper, JsonParser, T> resultReader,
+            String functionName,
+            Object... args) {
+        return sendRequest(
+                new Request(functionName, args),
+                new RequestCallback<>(resultReader, new ReceiverAwareFuture<>()),
+                timeoutNanos(functionName));
+    }
+
+    /**
+     * Send request that fails with a {@link TimeoutException} if no response arrives in time.
+     * Overrides the default and per method timeouts.
+     *
+     * @param timeout time to wait for the response, 0 to wait forever
+     * @param unit unit of timeout
+     */
+    public <T> CompletableFuture<T> sendRequest(
+            long timeout,
+            TimeUnit unit,
+            TypeReference<T> typeReference,
+            String functionName,
+            Object... args) {
+        return sendRequest(
+                new Request(functionName, args),
+                newCallback(objectMapper.constructType(typeReference.getType())),
+                unit.toNanos(timeout));
+    }
+
+    /**
+     * Send request that fails with a {@link TimeoutException} if no response arrives in time.
+     * Overrides the default and per method timeouts.
+     *
+     * @param timeout time to wait for the response, 0 to wait forever
+     * @param unit unit of timeout
+     */
+    public <T> CompletableFuture<T> sendRequest(
+            long timeout,
+            TimeUnit unit,
+            Class<T> resultClass,
+            String functionName,
+            Object... args) {
+        return sendRequest(
+                new Request(functionName, args),
+                newCallback(objectMapper.constructType(resultClass)),
+                unit.toNanos(timeout));
+    }
+
+    /**
+     * Set the timeout used by requests that don't have a per method or per request timeout.
+     *
+     * @param timeout time to wait for a response, 0 to wait forever
+     * @param unit unit of timeout
+     */
+    public void setDefaultTimeout(long timeout, TimeUnit unit) {
+        checkArgument(timeout >= 0, "timeout must not be negative");
+        defaultTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Set the timeout for every request to functionName.
+     *
+     * @param functionName name of the remote function
+     * @param timeout time to wait for a response, 0 to wait forever
+     * @param unit unit of timeout
+     */
+    public void setTimeout(String functionName, long timeout, TimeUnit unit) {
+        checkArgument(timeout >= 0, "timeout must not be negative");
+        methodTimeoutNanos.put(checkNotNull(functionName), unit.toNanos(timeout));
+    }
+
+    /**
+     * Number of requests that are still waiting for a response.
+     */
+    public int getPendingRequestCount() {
+        return callbacks.size();
+    }
+
+    /**
+     * Limit the number of requests waiting for a response over all methods.
+     *
+     * Requests are only counted while a limit is set. Requests already waiting when the first
+     * limit is set don't count against it, set limits before {@link #start()} to have every
+     * request counted.
+     *
+     * @param maxInFlight requests allowed in flight at the same time
+     * @param policy what happens to requests over the limit
+     */
+    public void setMaxInFlight(int maxInFlight, OverflowPolicy policy) {
+        limiter.setLimit("", maxInFlight, policy);
+    }
+
+    /**
+     * Limit the number of requests waiting for a response to methods starting with
+     * methodPrefix. The global limit still applies. A method only counts against the longest
+     * prefix it matches.
+     *
+     * Like {@link #setMaxInFlight(int, OverflowPolicy)} only requests sent after the first limit
+     * is set are counted.
+     *
+     * @param methodPrefix start of the method name, for example "buffer_"
+     * @param maxInFlight requests allowed in flight at the same time
+     * @param policy what happens to requests over the limit
+     */
+    public void setMaxInFlight(String methodPrefix, int maxInFlight, OverflowPolicy policy) {
+        checkArgument(!methodPrefix.isEmpty(), "methodPrefix must not be empty");
+        limiter.setLimit(methodPrefix, maxInFlight, policy);
+    }
+
+    /**
+     * Queue depth and wait times of requests held back by the in flight limits.
+     */
+    public RequestQueueStats getRequestQueueStats() {
+        return limiter.getStats();
     }
 
     /**
@@ -136,6 +397,15 @@ public class MessagePackRPC implements AutoCloseable {
      *
      * @throws UncheckedIOException if message fails to be sent.
      */
+    /**
+     * Future that, like the ones returned for requests, can be waited on from a handler running
+     * on the receiver thread. For results assembled from responses, such as the calls of a
+     * batch, a plain future would block the thread that has to read the response.
+     */
+    public final <T> CompletableFuture<T> newFuture() {
+        return new ReceiverAwareFuture<>();
+    }
+
     public void sendNotification(String functionName, Object... args) {
         try {
             send(new Notification(functionName, args));
@@ -144,6 +414,15 @@ public class MessagePackRPC implements AutoCloseable {
         }
     }
 
+    /**
+     * Set request handler. The handler will be passed the function name and the arguments and
+     * its return value is sent back as the response. A returned {@link NeovimException} is sent
+     * as an error. If the handler returns a {@link CompletionStage} the response is sent when it
+     * completes, so responses can go out in a different order than the requests came in.
+     *
+     * @param requestHandler the request handler that should be used when a request is received.
+     * @throws NullPointerException if requestHandler is null
+     */
     public void setRequestHandler(BiFunction<String, JsonNode, ?> requestHandler) {
         this.requestHandler = checkNotNull(requestHandler);
     }
@@ -158,62 +437,250 @@ public class MessagePackRPC implements AutoCloseable {
         this.notificationHandler = checkNotNull(notificationHandler);
     }
 
+    /**
+     * Decode redraw notifications straight from the input into calls of redrawHandler instead of
+     * building a tree for the notification handler. The grid events of a screen update can have
+     * many thousands of cells, this keeps them from allocating per cell.
+     *
+     * @param redrawHandler the handler, null to pass redraw notifications to the notification
+     *     handler again
+     */
+    public void setRedrawHandler(RedrawHandler redrawHandler) {
+        this.redrawHandler = redrawHandler;
+    }
+
+    /**
+     * Read notifications of method with reader instead of building a tree for the notification
+     * handler. Arguments bound from a tree lose the raw bytes of strings, a reader can bind them
+     * as byte[].
+     *
+     * @param reader the reader, null to pass method to the notification handler again
+     */
+    public void setNotificationReader(String method, NotificationReader reader) {
+        checkNotNull(method);
+        if (reader == null) {
+            notificationReaders.remove(method);
+        } else {
+            notificationReaders.put(method, reader);
+        }
+    }
+
     /**
      * Start reader threads. Can only be called once.
      * @throws IllegalStateException if called more than once
      */
     public void start() {
-        checkState(receiverFuture == null, "Already Started");
-        receiverFuture = executorService.submit(this::readFromInput);
+        checkState(!started, "Already Started");
+        started = true;
+        if (connection instanceof MultiplexedConnection) {
+            ((MultiplexedConnection) connection).start(this::packetsArrived);
+        } else {
+            receiverFuture = executorService.submit(this::readFromInput);
+        }
     }
 
-    private void readFromInput() {
+    private void packetsArrived(int count) {
+        packetsBuffered.addAndGet(count);
+        if (draining.compareAndSet(false, true)) {
+            ((MultiplexedConnection) connection).getExecutor().execute(this::drainPackets);
+        }
+    }
+
+    /**
+     * Handle the packets of a multiplexed connection that have arrived.
+     */
+    private void drainPackets() {
+        MultiplexedConnection multiplexed = (MultiplexedConnection) connection;
+        receiverThread = Thread.currentThread();
         try {
-            JsonNode jsonNode;
-            while ((jsonNode = objectMapper.readTree(connection.getInputStream())) != null) {
-                log.warn("{}", formatJsonNode(jsonNode));
-                if (!jsonNode.isArray()) {
-                    log.error("Received {}, ignoring...", jsonNode);
-                    continue;
+            int read = 0;
+            while (packetsBuffered.get() > 0 && read < MAX_PACKETS_PER_DRAIN) {
+                packetsBuffered.decrementAndGet();
+                if (!readPacket(multiplexed.takePacket())) {
+                    break;
                 }
-                parsePacket(jsonNode);
+                read++;
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.error("Input Stream error before closed: {}", e.getMessage(), e);
+            }
+        } finally {
+            receiverThread = null;
+            draining.set(false);
+        }
+        // More arrived meanwhile or the limit was hit, continue as a new task so other
+        // connections get a turn
+        if (packetsBuffered.get() > 0 && !closed && draining.compareAndSet(false, true)) {
+            multiplexed.getExecutor().execute(this::drainPackets);
+        }
+    }
+
+    /**
+     * Read and handle a packet of a multiplexed connection. The MessagePack parser keeps its
+     * state in a thread local, so it can't move between the threads of the executor and each
+     * packet gets a parser of its own.
+     *
+     * @return false at the end of the input
+     */
+    private boolean readPacket(byte[] packet) throws IOException {
+        if (packet == null) {
+            return false;
+        }
+        parser = objectMapper.getFactory().createParser(packet);
+        return readPacket(parser);
+    }
+
+    private void readFromInput() {
+        try (JsonParser parser =
+                     objectMapper.getFactory().createParser(connection.getInputStream())) {
+            this.parser = parser;
+            receiverThread = Thread.currentThread();
+            while (readPacket(parser)) {
+                // Handlers run as each packet is read
             }
         } catch (IOException e) {
             if (!closed) {
                 log.error("Input Stream error before closed: {}", e.getMessage(), e);
                 throw new UncheckedIOException("Stream threw exception before closing", e);
             }
+        } finally {
+            receiverThread = null;
+        }
+    }
+
+    /**
+     * Read and handle the next packet.
+     *
+     * @return false at the end of the input
+     */
+    private boolean readPacket(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            return false;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            log.error("Received {}, ignoring...", token);
+            parser.skipChildren();
+            return true;
+        }
+        try {
+            parsePacket(parser);
+        } finally {
+            skipToEndOfPacket(parser);
+        }
+        return true;
+    }
+
+    /**
+     * Called when future is waited on. If the caller is the receiver thread, for example a
+     * handler that blocks on a request of its own, the response could never be read. Read and
+     * handle packets re-entrantly until the future is done instead.
+     *
+     * @param timeoutNanos give up after this long, checked between packets. Reading a packet
+     *     blocks until one arrives, so neither this nor a future completed by another thread is
+     *     noticed while the connection is idle.
+     * @return nanoseconds left of timeoutNanos
+     */
+    private long receiveUntilDone(CompletableFuture<?> future, long timeoutNanos) {
+        if (future.isDone() || Thread.currentThread() != receiverThread) {
+            return timeoutNanos;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        try {
+            // The packet that got us here has been handled as far as the caller is concerned
+            skipToEndOfPacket(parser);
+            while (!future.isDone() && deadline - System.nanoTime() > 0) {
+                boolean more;
+                if (connection instanceof MultiplexedConnection) {
+                    // May go below 0 until the packet is reported
+                    packetsBuffered.decrementAndGet();
+                    more = readPacket(((MultiplexedConnection) connection).takePacket());
+                } else {
+                    more = readPacket(parser);
+                }
+                if (!more) {
+                    future.completeExceptionally(
+                            new IOException("Connection closed before the response arrived"));
+                }
+            }
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * Consume whatever is left of the current packet so the next read starts on a packet
+     * boundary, even if a handler or deserializer stopped part way through.
+     */
+    private static void skipToEndOfPacket(JsonParser parser) throws IOException {
+        while (!parser.getParsingContext().inRoot()) {
+            if (parser.nextToken() == null) {
+                return;
+            }
         }
     }
 
-    private void parsePacket(JsonNode node) {
-        checkArgument(node.isArray(), "Node needs to be an array");
-        checkArgument(node.size() == 3 || node.size() == 4);
+    /**
+     * Malformed input or the end of it, the stream can't be read any further. Other failures,
+     * like a mapping error, are confined to the packet and readPacket skips the rest of it.
+     */
+    private static boolean isStreamError(IOException e) {
+        return e instanceof JsonParseException || e instanceof EOFException;
+    }
 
-        int type = node.get(0).asInt(-1);
+    private static String readText(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return new String(parser.getBinaryValue());
+        }
+        checkArgument(token == JsonToken.VALUE_STRING, "Expected method name but was %s", token);
+        return parser.getText();
+    }
+
+    private static long readLong(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        checkArgument(token == JsonToken.VALUE_NUMBER_INT, "Expected integer but was %s", token);
+        return parser.getLongValue();
+    }
+
+    private void parsePacket(JsonParser parser) throws IOException {
+        int type = (int) readLong(parser);
         switch (type) {
             case Packet.NOTIFICATION_ID:
-                parseNotification(node);
+                parseNotification(parser);
                 break;
             case Packet.REQUEST_ID:
-                parseRequest(node);
+                parseRequest(parser);
                 break;
             case Packet.RESPONSE_ID:
-                parseResponse(node);
+                parseResponse(parser);
                 break;
             default:
-                throw new IllegalStateException("Not a Notification or Response " + node);
+                throw new IllegalStateException("Not a Notification or Response " + type);
         }
     }
 
-    private void parseRequest(JsonNode node) {
-        checkArgument(node.isArray(), "Node needs to be an array");
-        checkArgument(node.size() == 4, "Request array should be size 4");
+    private void parseRequest(JsonParser parser) throws IOException {
+        long requestId = readLong(parser);
+        String method = readText(parser);
+        parser.nextToken();
+        JsonNode arg = objectMapper.readTree(parser);
+        log.debug("Received request {} {}({})", requestId, method, arg);
 
-        long requestId = node.get(1).asLong();
-        String method = JsonNodeUtil.getText(node.get(2));
-        JsonNode arg = node.get(3);
         Object result = requestHandler.apply(method, arg);
+        if (result instanceof CompletionStage) {
+            // Respond whenever the handler finishes, the reader moves on to the next packet
+            ((CompletionStage<?>) result).whenComplete((value, error) -> sendResponse(
+                    requestId,
+                    error == null ? value : NeovimException.fromThrowable(error)));
+        } else {
+            sendResponse(requestId, result);
+        }
+    }
+
+    private void sendResponse(long requestId, Object result) {
         try {
             send(new Response(requestId, result));
         } catch (IOException e) {
@@ -221,32 +688,67 @@ public class MessagePackRPC implements AutoCloseable {
         }
     }
 
-    private void parseNotification(JsonNode node) {
-        checkArgument(node.isArray(), "Node needs to be an array");
-        checkArgument(node.size() == 3, "Notification array should be size 3");
+    private void parseNotification(JsonParser parser) throws IOException {
+        String method = readText(parser);
+        parser.nextToken();
+        RedrawHandler redrawHandler = this.redrawHandler;
+        if (redrawHandler != null && method.equals("redraw")) {
+            log.debug("Received notification redraw");
+            try {
+                redrawDecoder.decode(parser, redrawHandler);
+            } catch (IOException e) {
+                if (isStreamError(e)) {
+                    throw e;
+                }
+                log.error("Redraw handler failed: {}", e.getMessage(), e);
+            } catch (RuntimeException e) {
+                // Like a failed handler, the rest of the packet is skipped
+                log.error("Redraw handler failed: {}", e.getMessage(), e);
+            }
+            return;
+        }
+        NotificationReader reader = notificationReaders.get(method);
+        if (reader != null) {
+            log.debug("Received notification {}", method);
+            try {
+                reader.read(objectMapper, parser);
+            } catch (IOException e) {
+                if (isStreamError(e)) {
+                    throw e;
+                }
+                log.error("Notification reader for {} failed: {}", method, e.getMessage(), e);
+            } catch (RuntimeException e) {
+                log.error("Notification reader for {} failed: {}", method, e.getMessage(), e);
+            }
+            return;
+        }
+        JsonNode arg = objectMapper.readTree(parser);
+        log.debug("Received notification {}({})", method, arg);
 
-        String method = JsonNodeUtil.getText(node.get(1));
-        JsonNode arg = node.get(2);
         notificationHandler.accept(method, arg);
     }
 
-    private void parseResponse(JsonNode node) {
-        checkArgument(node.isArray(), "Node needs to be an array");
-        checkArgument(node.size() == 4, "Response array should be size 4");
-
-        long requestId = node.get(1).asLong();
-        RequestCallback<?> callback = callbacks.get(requestId);
+    private void parseResponse(JsonParser parser) throws IOException {
+        long requestId = readLong(parser);
+        log.debug("Received response {}", requestId);
+        RequestCallback<?> callback = callbacks.remove(requestId);
         if (callback == null) {
             log.warn(
                     "Response received for {}, However no request was found with that id",
                     requestId);
             return;
         }
-        Optional<NeovimException> neovimException = NeovimException.parseError(node.get(2));
+
+        // Errors are small, only the result is bound without building a tree
+        JsonNode error = parser.nextToken() == JsonToken.VALUE_NULL
+                ? NullNode.getInstance()
+                : objectMapper.readTree(parser);
+        Optional<NeovimException> neovimException = NeovimException.parseError(error);
         if (neovimException.isPresent()) {
             callback.setError(neovimException.get());
         } else {
-            callback.setResult(objectMapper, node.get(3));
+            parser.nextToken();
+            callback.setResult(objectMapper, parser);
         }
     }
 
@@ -257,18 +759,125 @@ public class MessagePackRPC implements AutoCloseable {
     @Override
     public void close() throws IOException {
         closed = true;
+        // Let the writer flush anything already queued before the connection goes away
+        writerService.shutdown();
+        try {
+            if (connection instanceof MultiplexedConnection) {
+                packetWriter.awaitIdle(1, TimeUnit.SECONDS);
+            } else {
+                writerService.awaitTermination(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         connection.close();
         executorService.shutdown();
-        if (receiverFuture != null) {
-            // Check to see if receiver thread had an exception
-            try {
-                receiverFuture.get();
-            } catch (InterruptedException e) {
-                executorService.shutdownNow();
-                Thread.currentThread().interrupt();
-            } catch (ExecutionException e) {
-                throw new CompletionException(e.getMessage(), e.getCause());
+        try {
+            if (receiverFuture != null) {
+                // Check to see if receiver thread had an exception
+                try {
+                    receiverFuture.get();
+                } catch (InterruptedException e) {
+                    executorService.shutdownNow();
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    throw new CompletionException(e.getMessage(), e.getCause());
+                }
             }
+        } finally {
+            // No response can arrive anymore
+            IOException closedException = new IOException("Connection closed");
+            limiter.failQueued(closedException);
+            callbacks.forEach(
+                    callback -> callback.getCompletableFuture().completeExceptionally(closedException));
+        }
+    }
+
+    /**
+     * Request future that can be waited on from a handler running on the receiver thread.
+     *
+     * On the receiver thread waiting means reading packets, which blocks until neovim sends the
+     * next one. Whether the future is done, including by a cancel or a request timeout, is only
+     * checked between packets, so an idle connection keeps the waiting handler blocked.
+     */
+    private class ReceiverAwareFuture<T> extends CompletableFuture<T> {
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            receiveUntilDone(this, Long.MAX_VALUE);
+            return super.get();
+        }
+
+        /**
+         * On the receiver thread the timeout is checked between packets, it can be exceeded
+         * by as long as the connection stays idle.
+         */
+        @Override
+        public T get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long remaining = receiveUntilDone(this, unit.toNanos(timeout));
+            return super.get(remaining, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public T join() {
+            receiveUntilDone(this, Long.MAX_VALUE);
+            return super.join();
+        }
+
+        // The dependent futures of these complete on the receiver thread along with this one,
+        // so they can be waited on from the receiver thread as well. The async variants and
+        // the ones combining two stages return plain futures.
+
+        @Override
+        public <U> CompletableFuture<U> thenApply(Function<? super T, ? extends U> fn) {
+            return receiverAware(super.thenApply(fn));
+        }
+
+        @Override
+        public CompletableFuture<Void> thenAccept(Consumer<? super T> action) {
+            return receiverAware(super.thenAccept(action));
+        }
+
+        @Override
+        public CompletableFuture<Void> thenRun(Runnable action) {
+            return receiverAware(super.thenRun(action));
+        }
+
+        @Override
+        public <U> CompletableFuture<U> thenCompose(
+                Function<? super T, ? extends CompletionStage<U>> fn) {
+            return receiverAware(super.thenCompose(fn));
+        }
+
+        @Override
+        public <U> CompletableFuture<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+            return receiverAware(super.handle(fn));
+        }
+
+        @Override
+        public CompletableFuture<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+            return receiverAware(super.whenComplete(action));
+        }
+
+        @Override
+        public CompletableFuture<T> exceptionally(Function<Throwable, ? extends T> fn) {
+            return receiverAware(super.exceptionally(fn));
+        }
+
+        /**
+         * CompletableFuture only creates its dependents through newIncompleteFuture on Java 9 and
+         * later, so copy the plain dependent into one of these instead.
+         */
+        private <U> CompletableFuture<U> receiverAware(CompletableFuture<U> dependent) {
+            ReceiverAwareFuture<U> future = new ReceiverAwareFuture<>();
+            dependent.whenComplete((value, error) -> {
+                if (error == null) {
+                    future.complete(value);
+                } else {
+                    future.completeExceptionally(error);
+                }
+            });
+            return future;
         }
     }
 }
@@ -6,7 +6,14 @@ import org.msgpack.core.MessagePacker;
 import java.io.IOException;
 import java.util.Optional;
 
+import static com.google.common.base.Throwables.getRootCause;
+
 public class NeovimException extends RuntimeException {
+    /**
+     * Error code sent back when a handler fails.
+     */
+    public static final long HANDLER_FAILED = 0;
+
     private final long errorCode;
 
     public NeovimException(long errorCode, String errorMessage) {
@@ -18,6 +25,18 @@ public class NeovimException extends RuntimeException {
         return errorCode;
     }
 
+    /**
+     * Error to answer a request with when its handler failed with throwable. A NeovimException
+     * is passed on as it is, anything else is reported with its root cause message.
+     */
+    public static NeovimException fromThrowable(Throwable throwable) {
+        Throwable cause = getRootCause(throwable);
+        if (cause instanceof NeovimException) {
+            return (NeovimException) cause;
+        }
+        return new NeovimException(HANDLER_FAILED, cause.getMessage());
+    }
+
     public static Optional<NeovimException> parseError(JsonNode node) {
         if (node.isNull()) {
             return Optional.empty();
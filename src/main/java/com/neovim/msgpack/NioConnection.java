@@ -0,0 +1,432 @@
+package com.neovim.msgpack;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Connection of a {@link NioTransport}. The selector thread reads whatever is available, splits
+ * it into packets with a {@link MessagePackFramer} and queues the complete ones in
+ * {@link Inbound} for the workers. Written bytes are queued by {@link OutboundStream} and written
+ * by the selector thread as the channel accepts them.
+ *
+ * Reading stops while more than {@link #MAX_BUFFERED_BYTES} of packets wait to be taken and
+ * starts again once half of them are. Writes that would queue more than that many bytes for a
+ * channel that isn't being read fail instead, so the request they carry fails rather than the
+ * queue growing without bound.
+ */
+class NioConnection implements MessagePackRPC.MultiplexedConnection {
+    private static final Logger log = LoggerFactory.getLogger(NioConnection.class);
+    static final long MAX_BUFFERED_BYTES = 16 * 1024 * 1024;
+
+    private final NioTransport transport;
+    private final NioTransport.SelectorLoop loop;
+    private final Executor executor;
+    private final SelectableChannel inputChannel;
+    private final ReadableByteChannel input;
+    private final SelectableChannel outputChannel;
+    private final WritableByteChannel output;
+    private final Inbound inbound = new Inbound();
+    private final OutboundStream outbound = new OutboundStream();
+    private final AtomicBoolean paused = new AtomicBoolean();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final AtomicBoolean closing = new AtomicBoolean();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    // Only used on the selector thread
+    private final MessagePackFramer framer = new MessagePackFramer();
+    private ByteArrayOutputStream partial = new ByteArrayOutputStream();
+    private IntConsumer listener = null;
+    private SelectionKey inputKey = null;
+    private SelectionKey outputKey = null;
+    private boolean inputEnded = false;
+
+    <R extends SelectableChannel & ReadableByteChannel,
+            W extends SelectableChannel & WritableByteChannel>
+    NioConnection(
+            NioTransport transport,
+            NioTransport.SelectorLoop loop,
+            Executor executor,
+            R input,
+            W output) {
+        this.transport = checkNotNull(transport);
+        this.loop = checkNotNull(loop);
+        this.executor = checkNotNull(executor);
+        this.inputChannel = checkNotNull(input);
+        this.input = input;
+        this.outputChannel = checkNotNull(output);
+        this.output = output;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inbound;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outbound;
+    }
+
+    @Override
+    public byte[] takePacket() throws IOException {
+        return inbound.take();
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void start(IntConsumer packetsArrived) {
+        checkNotNull(packetsArrived);
+        checkState(started.compareAndSet(false, true), "Already Started");
+        loop.execute(() -> {
+            listener = packetsArrived;
+            updateInterest();
+        });
+    }
+
+    /**
+     * Close the channels once the bytes that were written are sent. Waits up to a second for
+     * that unless called on the selector thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closing.compareAndSet(false, true)) {
+            return;
+        }
+        inbound.end();
+        // Closes the channels once the output is written
+        loop.execute(this::writeReady);
+        if (loop.inLoop()) {
+            return;
+        }
+        try {
+            if (!closed.await(1, TimeUnit.SECONDS)) {
+                // The other side stopped reading, give up on the rest
+                loop.execute(this::closeChannels);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void register() {
+        try {
+            if (inputChannel == outputChannel) {
+                inputKey = inputChannel.register(loop.selector(), 0, this);
+                outputKey = inputKey;
+            } else {
+                inputKey = inputChannel.register(loop.selector(), 0, this);
+                outputKey = outputChannel.register(loop.selector(), 0, this);
+            }
+            updateInterest();
+        } catch (ClosedChannelException e) {
+            log.error("Channel closed before it was registered");
+            inbound.end();
+            closeChannels();
+        }
+    }
+
+    void ready(SelectionKey key) {
+        if (key.isValid() && key.isWritable() && key == outputKey) {
+            writeReady();
+        }
+        if (key.isValid() && key.isReadable() && key == inputKey) {
+            readReady();
+        }
+    }
+
+    private void readReady() {
+        ByteBuffer buffer = loop.readBuffer();
+        buffer.clear();
+        int packets = 0;
+        try {
+            int read = input.read(buffer);
+            if (read < 0) {
+                endInput();
+                return;
+            }
+            buffer.flip();
+            byte[] bytes = buffer.array();
+            while (buffer.hasRemaining()) {
+                int start = buffer.position();
+                boolean complete = framer.feed(buffer);
+                int length = buffer.position() - start;
+                if (!complete) {
+                    partial.write(bytes, start, length);
+                } else if (partial.size() == 0) {
+                    inbound.add(Arrays.copyOfRange(bytes, start, start + length));
+                    packets++;
+                } else {
+                    partial.write(bytes, start, length);
+                    inbound.add(partial.toByteArray());
+                    packets++;
+                    if (partial.size() > bytes.length) {
+                        // Don't hold on to the buffer of a large packet
+                        partial = new ByteArrayOutputStream();
+                    } else {
+                        partial.reset();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!closing.get()) {
+                log.error("Input failed: {}", e.getMessage(), e);
+            }
+            endInput();
+            return;
+        } finally {
+            if (packets > 0) {
+                listener.accept(packets);
+            }
+        }
+        if (inbound.buffered() >= MAX_BUFFERED_BYTES) {
+            paused.set(true);
+            // The workers may have taken everything in the meantime without seeing the pause
+            if (!canResume() || !paused.compareAndSet(true, false)) {
+                updateInterest();
+            }
+        }
+    }
+
+    private void endInput() {
+        inputEnded = true;
+        inbound.end();
+        updateInterest();
+    }
+
+    private boolean canResume() {
+        return inbound.buffered() < MAX_BUFFERED_BYTES / 2;
+    }
+
+    private void writeReady() {
+        writeScheduled.set(false);
+        try {
+            ByteBuffer head;
+            while ((head = outbound.peek()) != null) {
+                output.write(head);
+                if (head.hasRemaining()) {
+                    break;
+                }
+                outbound.remove();
+            }
+        } catch (IOException e) {
+            if (!closing.get()) {
+                log.error("Output failed: {}", e.getMessage(), e);
+            }
+            outbound.clear();
+        }
+        if (closing.get() && outbound.isEmpty()) {
+            closeChannels();
+        } else {
+            updateInterest();
+        }
+    }
+
+    private void updateInterest() {
+        if (inputKey == null || !inputKey.isValid() || !outputKey.isValid()) {
+            return;
+        }
+        int readOps = listener != null && !paused.get() && !inputEnded
+                ? SelectionKey.OP_READ
+                : 0;
+        int writeOps = outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+        if (inputKey == outputKey) {
+            inputKey.interestOps(readOps | writeOps);
+        } else {
+            inputKey.interestOps(readOps);
+            outputKey.interestOps(writeOps);
+        }
+    }
+
+    private void closeChannels() {
+        if (closed.getCount() == 0) {
+            return;
+        }
+        inbound.end();
+        outbound.clear();
+        closeQuietly(inputChannel);
+        if (outputChannel != inputChannel) {
+            closeQuietly(outputChannel);
+        }
+        transport.removed(this);
+        closed.countDown();
+    }
+
+    private static void closeQuietly(SelectableChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("failed to close channel: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Packets read by the selector thread. Also readable as a stream of their bytes.
+     */
+    private class Inbound extends InputStream {
+        private final Deque<byte[]> packets = new ArrayDeque<>();
+        private long buffered = 0;
+        private boolean ended = false;
+        // Packet being read through the stream
+        private byte[] current = null;
+        private int offset = 0;
+
+        synchronized void add(byte[] packet) {
+            if (ended) {
+                return;
+            }
+            packets.add(packet);
+            buffered += packet.length;
+            notifyAll();
+        }
+
+        synchronized void end() {
+            ended = true;
+            notifyAll();
+        }
+
+        synchronized long buffered() {
+            return buffered;
+        }
+
+        /**
+         * @return next packet, null once the input ended
+         */
+        byte[] take() throws IOException {
+            byte[] packet;
+            synchronized (this) {
+                try {
+                    while (packets.isEmpty()) {
+                        if (ended) {
+                            return null;
+                        }
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for input");
+                }
+                packet = packets.remove();
+                buffered -= packet.length;
+            }
+            if (paused.get() && canResume() && paused.compareAndSet(true, false)) {
+                loop.execute(NioConnection.this::updateInterest);
+            }
+            return packet;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (current == null || offset == current.length) {
+                current = take();
+                offset = 0;
+                if (current == null) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - offset);
+            System.arraycopy(current, offset, b, off, n);
+            offset += n;
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            return (int) Math.min(Integer.MAX_VALUE, buffered);
+        }
+    }
+
+    /**
+     * Queues written bytes for the selector thread, a flush schedules the write. A write is
+     * queued whole or rejected whole, so a rejected packet leaves no partial value behind.
+     */
+    private class OutboundStream extends OutputStream {
+        private final Deque<ByteBuffer> pending = new ArrayDeque<>();
+        private long bytes = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closing.get()) {
+                throw new IOException("Connection closed");
+            }
+            if (len == 0) {
+                return;
+            }
+            synchronized (this) {
+                // A single write larger than the limit still goes through on an empty queue
+                if (bytes > 0 && bytes + len > MAX_BUFFERED_BYTES) {
+                    throw new IOException(String.format(
+                            "%d bytes waiting to be written, the other side isn't reading",
+                            bytes));
+                }
+                pending.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+                bytes += len;
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (writeScheduled.compareAndSet(false, true)) {
+                loop.execute(NioConnection.this::writeReady);
+            }
+        }
+
+        synchronized ByteBuffer peek() {
+            return pending.peek();
+        }
+
+        synchronized void remove() {
+            bytes -= pending.remove().capacity();
+        }
+
+        synchronized boolean isEmpty() {
+            return pending.isEmpty();
+        }
+
+        synchronized void clear() {
+            pending.clear();
+            bytes = 0;
+        }
+    }
+}
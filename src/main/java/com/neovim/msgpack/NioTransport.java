@@ -0,0 +1,246 @@
+package com.neovim.msgpack;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Moves the bytes of many connections with a fixed number of threads. A few selector threads
+ * read and write non-blocking channels and a shared pool of workers reads the packets and runs
+ * the handlers, so a farm of neovim instances doesn't need a reader and a writer thread for each
+ * one:
+ *
+ * <pre>{@code
+ * NioTransport transport = new NioTransport(2, 8);
+ * Neovim neovim = Neovim.connectTo(transport.connect(new InetSocketAddress("127.0.0.1", port)));
+ * }</pre>
+ *
+ * Any pair of selectable channels works, such as a {@link SocketChannel} or the two ends of
+ * {@link java.nio.channels.Pipe}s. The pipes of a {@link Process} are plain streams in Java and
+ * can't be selected, start neovim with {@code --listen} instead of {@code --embed} and connect to
+ * the address.
+ *
+ * Handlers run on the workers. Packets are serialized on the thread that sends them and the
+ * selector thread writes the bytes, so sending never needs a worker. A handler that waits on a
+ * request of its own reads the response on its worker, even with a single one.
+ */
+public class NioTransport implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(NioTransport.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final SelectorLoop[] loops;
+    private final ExecutorService workers;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final Set<NioConnection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    /**
+     * @param selectorThreads threads that read and write the channels
+     * @param workerThreads threads that read packets and run handlers
+     */
+    public NioTransport(int selectorThreads, int workerThreads) throws IOException {
+        checkArgument(selectorThreads > 0, "selectorThreads must be positive");
+        checkArgument(workerThreads > 0, "workerThreads must be positive");
+        this.workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("neovim-nio-worker-%d")
+                .build());
+        ThreadFactory selectorFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("neovim-nio-selector-%d")
+                .build();
+        this.loops = new SelectorLoop[selectorThreads];
+        try {
+            for (int i = 0; i < selectorThreads; i++) {
+                loops[i] = new SelectorLoop(selectorFactory);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a connection to address, for example of {@code nvim --headless --listen}.
+     */
+    public MessagePackRPC.MultiplexedConnection connect(SocketAddress address)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        try {
+            return connect(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public MessagePackRPC.MultiplexedConnection connect(SocketChannel channel)
+            throws IOException {
+        return connect(channel, channel);
+    }
+
+    /**
+     * Connection reading from input and writing to output, the channels are switched to
+     * non-blocking mode and closed with the connection.
+     */
+    public <R extends SelectableChannel & ReadableByteChannel,
+            W extends SelectableChannel & WritableByteChannel>
+    MessagePackRPC.MultiplexedConnection connect(R input, W output) throws IOException {
+        checkState(!closed, "Transport closed");
+        input.configureBlocking(false);
+        output.configureBlocking(false);
+        SelectorLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        NioConnection connection = new NioConnection(this, loop, workers, input, output);
+        connections.add(connection);
+        loop.execute(connection::register);
+        return connection;
+    }
+
+    /**
+     * @return connections that are not closed yet
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    void removed(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Close every connection, then stop the threads.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            connection.close();
+        }
+        for (SelectorLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One selector thread. Registration, interest changes and writes are queued as tasks and run
+     * on the thread between selects.
+     */
+    static final class SelectorLoop {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Shared by the connections of the loop, packets are copied out after each read
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        SelectorLoop(ThreadFactory threadFactory) throws IOException {
+            this.selector = Selector.open();
+            this.thread = threadFactory.newThread(this::run);
+            thread.start();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        Selector selector() {
+            return selector;
+        }
+
+        ByteBuffer readBuffer() {
+            return readBuffer;
+        }
+
+        private void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    runTasks();
+                    Set<SelectionKey> selected = selector.selectedKeys();
+                    for (Iterator<SelectionKey> it = selected.iterator(); it.hasNext(); ) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        try {
+                            ((NioConnection) key.attachment()).ready(key);
+                        } catch (CancelledKeyException ignored) {
+                            // Closed while its events were handled
+                        } catch (RuntimeException e) {
+                            log.error("Connection failed: {}", e.getMessage(), e);
+                        }
+                    }
+                }
+                runTasks();
+            } catch (IOException e) {
+                log.error("Selector failed: {}", e.getMessage(), e);
+            } finally {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    log.warn("failed to close selector: {}", e.getMessage(), e);
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Selector task failed: {}", e.getMessage(), e);
+                }
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
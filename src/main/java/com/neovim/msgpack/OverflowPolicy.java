@@ -0,0 +1,18 @@
+package com.neovim.msgpack;
+
+/**
+ * What {@link MessagePackRPC#sendRequest} does with a request once the in flight limit for it
+ * has been reached.
+ */
+public enum OverflowPolicy {
+    /**
+     * Hold the request and send it when a response frees up room. The returned future simply
+     * takes longer to complete.
+     */
+    QUEUE,
+    /**
+     * Complete the returned future with a {@link java.util.concurrent.RejectedExecutionException}
+     * without sending the request.
+     */
+    FAIL_FAST
+}
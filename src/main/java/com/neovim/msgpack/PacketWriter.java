@@ -0,0 +1,145 @@
+package com.neovim.msgpack;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes packets to an OutputStream from a single writer.
+ *
+ * Any number of threads can call {@link #write(Packet)}. Packets are added to a lock free queue
+ * and the caller returns right away. A single drain task is scheduled on the executor, it
+ * serializes everything that is queued into one buffer and flushes the stream once per batch.
+ *
+ * Each packet is serialized on its own first and only copied to the stream once it is complete,
+ * so a packet that fails half way doesn't leave a partial value in the stream.
+ */
+class PacketWriter {
+    private static final Logger log = LoggerFactory.getLogger(PacketWriter.class);
+    private static final int BUFFER_SIZE = 8192;
+    private static final long IDLE_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Queue<Packet> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ObjectMapper objectMapper;
+    private final Supplier<OutputStream> outputSupplier;
+    private final Executor executor;
+    private final BiConsumer<Packet, IOException> failureHandler;
+
+    // Only accessed by the drain task
+    private OutputStream output = null;
+    private ByteArrayOutputStream scratch = new ByteArrayOutputStream(BUFFER_SIZE);
+
+    /**
+     * @param objectMapper mapper used to serialize packets
+     * @param outputSupplier supplies the stream packets are written to on the first write
+     * @param executor executor the drain task runs on
+     * @param failureHandler called with each packet that could not be written
+     */
+    PacketWriter(
+            ObjectMapper objectMapper,
+            Supplier<OutputStream> outputSupplier,
+            Executor executor,
+            BiConsumer<Packet, IOException> failureHandler) {
+        this.objectMapper = checkNotNull(objectMapper);
+        this.outputSupplier = checkNotNull(outputSupplier);
+        this.executor = checkNotNull(executor);
+        this.failureHandler = checkNotNull(failureHandler);
+    }
+
+    /**
+     * Queue packet to be written. Does not block.
+     *
+     * @param packet packet to write
+     */
+    public void write(Packet packet) {
+        queue.add(checkNotNull(packet));
+        // Only the producer that moves pending from 0 schedules the drain task
+        if (pending.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Wait until every packet written so far has been handed to the stream.
+     *
+     * @return false if that took longer than timeout
+     */
+    boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pending.get() != 0) {
+            if (deadline - System.nanoTime() <= 0) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(IDLE_POLL_NANOS);
+        }
+        return true;
+    }
+
+    private void drain() {
+        if (output == null) {
+            output = new BufferedOutputStream(outputSupplier.get(), BUFFER_SIZE);
+        }
+        List<Packet> batch = new ArrayList<>();
+        while (true) {
+            int drained = 0;
+            Packet packet;
+            while ((packet = queue.poll()) != null) {
+                drained++;
+                try {
+                    scratch.reset();
+                    objectMapper.writeValue(scratch, packet);
+                    scratch.writeTo(output);
+                    batch.add(packet);
+                } catch (IOException e) {
+                    failureHandler.accept(packet, e);
+                }
+            }
+            flush(batch);
+            batch.clear();
+            if (scratch.size() > BUFFER_SIZE) {
+                // Don't hold on to the buffer of a large packet
+                scratch = new ByteArrayOutputStream(BUFFER_SIZE);
+            }
+            // Producers increment pending after adding to the queue. Keep draining until every
+            // counted packet has been written so that no producer is left without a drain task.
+            if (pending.addAndGet(-drained) == 0) {
+                return;
+            }
+        }
+    }
+
+    private void flush(List<Packet> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            output.flush();
+        } catch (IOException e) {
+            log.error("failed to flush {} packets: {}", batch.size(), e.getMessage(), e);
+            for (Packet packet : batch) {
+                failureHandler.accept(packet, e);
+            }
+        }
+    }
+}
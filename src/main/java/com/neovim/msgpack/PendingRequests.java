@@ -0,0 +1,126 @@
+package com.neovim.msgpack;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Table of requests waiting for a response, keyed by request id.
+ *
+ * Request ids are handed out sequentially so {@code id & mask} spreads in flight requests
+ * evenly over a power of two ring of slots. Each slot is claimed and released with a single
+ * CAS and the callback remembers its own id, so the common path neither boxes the id nor
+ * allocates. A request whose slot is still held by an older request that has not been answered
+ * goes to an overflow map instead.
+ */
+class PendingRequests {
+    private final AtomicReferenceArray<RequestCallback<?>> slots;
+    private final int mask;
+    private final ConcurrentMap<Long, RequestCallback<?>> overflow = new ConcurrentHashMap<>();
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    PendingRequests(int capacity) {
+        checkArgument(capacity > 0 && capacity <= 1 << 30, "capacity must be between 1 and 2^30");
+        int slotCount = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        slots = new AtomicReferenceArray<>(slotCount);
+        mask = slotCount - 1;
+    }
+
+    /**
+     * Register callback under id unless the id is already in use.
+     *
+     * @return true if the callback was registered
+     */
+    boolean register(long id, RequestCallback<?> callback) {
+        checkNotNull(callback);
+        callback.setRequestId(id);
+        int index = index(id);
+        RequestCallback<?> current = slots.get(index);
+        if (current == null && (overflow.isEmpty() || !overflow.containsKey(id))) {
+            if (slots.compareAndSet(index, null, callback)) {
+                size.increment();
+                return true;
+            }
+            current = slots.get(index);
+        }
+        if (current != null && current.getRequestId() == id) {
+            return false;
+        }
+        if (overflow.putIfAbsent(id, callback) == null) {
+            size.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove and return the callback registered under id.
+     *
+     * @return the callback or null if none was registered
+     */
+    RequestCallback<?> remove(long id) {
+        int index = index(id);
+        RequestCallback<?> current = slots.get(index);
+        if (current != null
+                && current.getRequestId() == id
+                && slots.compareAndSet(index, current, null)) {
+            size.decrement();
+            return current;
+        }
+        if (overflow.isEmpty()) {
+            return null;
+        }
+        RequestCallback<?> removed = overflow.remove(id);
+        if (removed != null) {
+            size.decrement();
+        }
+        return removed;
+    }
+
+    /**
+     * Remove callback if it is still registered under id.
+     *
+     * @return true if it was removed by this call
+     */
+    boolean remove(long id, RequestCallback<?> callback) {
+        int index = index(id);
+        if (slots.get(index) == callback && slots.compareAndSet(index, callback, null)) {
+            size.decrement();
+            return true;
+        }
+        if (!overflow.isEmpty() && overflow.remove(id, callback)) {
+            size.decrement();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Number of registered callbacks. Not exact while registrations are in progress.
+     */
+    int size() {
+        return size.intValue();
+    }
+
+    void forEach(Consumer<RequestCallback<?>> action) {
+        for (int i = 0; i < slots.length(); i++) {
+            RequestCallback<?> callback = slots.get(i);
+            if (callback != null) {
+                action.accept(callback);
+            }
+        }
+        overflow.values().forEach(action);
+    }
+
+    private int index(long id) {
+        return (int) id & mask;
+    }
+}
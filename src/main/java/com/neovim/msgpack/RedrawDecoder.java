@@ -0,0 +1,258 @@
+package com.neovim.msgpack;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.neovim.msgpack.JsonNodeUtil.getText;
+
+/**
+ * Decodes the arguments of a redraw notification, [[event name, args, args, ...], ...], into
+ * calls of a {@link RedrawHandler}.
+ *
+ * The grid events are read token by token from the parser without building a tree, the cells of
+ * a grid_line go into a reused {@link GridCells} and the attributes of hl_attr_define are left
+ * to the handler to read from the parser. Other events are rare and small, their arguments are
+ * read into a tree for {@link RedrawHandler#onEvent(String, JsonNode)}.
+ *
+ * Not thread safe, each connection has its own.
+ */
+public final class RedrawDecoder {
+    private final ObjectMapper objectMapper;
+    private final GridCells cells = new GridCells();
+
+    public RedrawDecoder(ObjectMapper objectMapper) {
+        this.objectMapper = checkNotNull(objectMapper);
+    }
+
+    /**
+     * @param parser positioned on the start of the arguments array, left on its end
+     */
+    public void decode(JsonParser parser, RedrawHandler handler) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+            String name = nextText(parser);
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+                decodeEvent(parser, name, handler);
+            }
+        }
+    }
+
+    private void decodeEvent(JsonParser parser, String name, RedrawHandler handler)
+            throws IOException {
+        switch (name) {
+            case "grid_resize": {
+                int grid = nextInt(parser);
+                int width = nextInt(parser);
+                int height = nextInt(parser);
+                endArray(parser);
+                handler.onGridResize(grid, width, height);
+                break;
+            }
+            case "grid_clear": {
+                int grid = nextInt(parser);
+                endArray(parser);
+                handler.onGridClear(grid);
+                break;
+            }
+            case "grid_destroy": {
+                int grid = nextInt(parser);
+                endArray(parser);
+                handler.onGridDestroy(grid);
+                break;
+            }
+            case "grid_cursor_goto": {
+                int grid = nextInt(parser);
+                int row = nextInt(parser);
+                int col = nextInt(parser);
+                endArray(parser);
+                handler.onGridCursorGoto(grid, row, col);
+                break;
+            }
+            case "grid_scroll": {
+                int grid = nextInt(parser);
+                int top = nextInt(parser);
+                int bot = nextInt(parser);
+                int left = nextInt(parser);
+                int right = nextInt(parser);
+                int rows = nextInt(parser);
+                int cols = nextInt(parser);
+                endArray(parser);
+                handler.onGridScroll(grid, top, bot, left, right, rows, cols);
+                break;
+            }
+            case "grid_line": {
+                int grid = nextInt(parser);
+                int row = nextInt(parser);
+                int colStart = nextInt(parser);
+                readCells(parser);
+                // Newer versions add a wrap flag
+                endArray(parser);
+                handler.onGridLine(grid, row, colStart, cells);
+                break;
+            }
+            case "flush":
+                endArray(parser);
+                handler.onFlush();
+                break;
+            case "hl_attr_define": {
+                int id = nextInt(parser);
+                expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+                handler.onHlAttrDefine(id, objectMapper, parser);
+                if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                    // Not read by the handler
+                    parser.skipChildren();
+                }
+                // cterm_attr and info
+                endArray(parser);
+                break;
+            }
+            default:
+                handler.onEvent(name, objectMapper.readTree(parser));
+                break;
+        }
+    }
+
+    /**
+     * Each cell is [text, highlight id, repeat], the highlight id is left out when it is the one
+     * of the cell before and repeat when it is 1.
+     */
+    private void readCells(JsonParser parser) throws IOException {
+        cells.clear();
+        expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+        int highlight = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+            String text = nextText(parser);
+            int repeat = 1;
+            if (parser.nextToken() != JsonToken.END_ARRAY) {
+                highlight = intValue(parser);
+                if (parser.nextToken() != JsonToken.END_ARRAY) {
+                    repeat = intValue(parser);
+                    endArray(parser);
+                }
+            }
+            cells.add(text, highlight, repeat);
+        }
+    }
+
+    /**
+     * Same calls as {@link #decode(JsonParser, RedrawHandler)} from arguments that were already
+     * read into a tree, for redraw notifications that come through the notification handler.
+     */
+    public void decode(JsonNode batches, RedrawHandler handler) {
+        for (JsonNode batch : batches) {
+            String name = getText(batch.get(0));
+            for (int i = 1; i < batch.size(); i++) {
+                decodeEvent(batch.get(i), name, handler);
+            }
+        }
+    }
+
+    private void decodeEvent(JsonNode args, String name, RedrawHandler handler) {
+        switch (name) {
+            case "grid_resize":
+                handler.onGridResize(
+                        args.get(0).asInt(), args.get(1).asInt(), args.get(2).asInt());
+                break;
+            case "grid_clear":
+                handler.onGridClear(args.get(0).asInt());
+                break;
+            case "grid_destroy":
+                handler.onGridDestroy(args.get(0).asInt());
+                break;
+            case "grid_cursor_goto":
+                handler.onGridCursorGoto(
+                        args.get(0).asInt(), args.get(1).asInt(), args.get(2).asInt());
+                break;
+            case "grid_scroll":
+                handler.onGridScroll(
+                        args.get(0).asInt(),
+                        args.get(1).asInt(),
+                        args.get(2).asInt(),
+                        args.get(3).asInt(),
+                        args.get(4).asInt(),
+                        args.get(5).asInt(),
+                        args.get(6).asInt());
+                break;
+            case "grid_line": {
+                cells.clear();
+                int highlight = 0;
+                for (JsonNode cell : args.get(3)) {
+                    if (cell.size() > 1) {
+                        highlight = cell.get(1).asInt();
+                    }
+                    cells.add(getText(cell.get(0)), highlight,
+                            cell.size() > 2 ? cell.get(2).asInt() : 1);
+                }
+                handler.onGridLine(
+                        args.get(0).asInt(), args.get(1).asInt(), args.get(2).asInt(), cells);
+                break;
+            }
+            case "flush":
+                handler.onFlush();
+                break;
+            case "hl_attr_define":
+                try (JsonParser rgbAttrs = args.get(1).traverse(objectMapper)) {
+                    rgbAttrs.nextToken();
+                    handler.onHlAttrDefine(args.get(0).asInt(), objectMapper, rgbAttrs);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                break;
+            default:
+                handler.onEvent(name, args);
+                break;
+        }
+    }
+
+    private static String nextText(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return new String(parser.getBinaryValue(), StandardCharsets.UTF_8);
+        }
+        expect(parser, token, JsonToken.VALUE_STRING);
+        return parser.getText();
+    }
+
+    private static int nextInt(JsonParser parser) throws IOException {
+        parser.nextToken();
+        return intValue(parser);
+    }
+
+    private static int intValue(JsonParser parser) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.VALUE_NUMBER_INT);
+        return parser.getIntValue();
+    }
+
+    /**
+     * Skip the arguments that are left up to the end of the current array.
+     */
+    private static void endArray(JsonParser parser) throws IOException {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() == null) {
+                throw new JsonMappingException(
+                        "Unexpected end of input", parser.getCurrentLocation());
+            }
+            parser.skipChildren();
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected)
+            throws JsonMappingException {
+        if (actual != expected) {
+            throw new JsonMappingException(
+                    String.format("Expected %s but was %s", expected, actual),
+                    parser.getCurrentLocation());
+        }
+    }
+}
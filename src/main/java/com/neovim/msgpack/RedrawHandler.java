@@ -0,0 +1,47 @@
+package com.neovim.msgpack;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Receives the events of redraw notifications as they are decoded, see
+ * {@link MessagePackRPC#setRedrawHandler(RedrawHandler)}. Called on the thread reading from
+ * neovim, in the order of the events.
+ */
+public interface RedrawHandler {
+    void onGridResize(int grid, int width, int height);
+
+    void onGridClear(int grid);
+
+    void onGridDestroy(int grid);
+
+    void onGridCursorGoto(int grid, int row, int col);
+
+    void onGridScroll(int grid, int top, int bot, int left, int right, int rows, int cols);
+
+    /**
+     * @param cells cells from colStart on, only valid during the call
+     */
+    void onGridLine(int grid, int row, int colStart, GridCells cells);
+
+    void onFlush();
+
+    /**
+     * Highlight id is defined, read the attributes from the parser if needed.
+     *
+     * @param rgbAttrs positioned on the start of the rgb_attr map, the rest of the event is
+     *     skipped afterwards
+     */
+    void onHlAttrDefine(int id, ObjectMapper objectMapper, JsonParser rgbAttrs)
+            throws IOException;
+
+    /**
+     * Any other event.
+     *
+     * @param args arguments of one call of the event
+     */
+    void onEvent(String name, JsonNode args);
+}
@@ -1,5 +1,6 @@
 package com.neovim.msgpack;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -8,18 +9,50 @@ import org.msgpack.core.MessageFormatException;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public class RequestCallback<T> {
 
-    private final IOBiFunction<ObjectMapper, JsonNode, T> deserializer;
-    private final CompletableFuture<T> completableFuture = new CompletableFuture<T>();
+    private final IOBiFunction<ObjectMapper, JsonParser, T> deserializer;
+    private final CompletableFuture<T> completableFuture;
+    // Set before the callback is published in PendingRequests
+    private long requestId;
 
     public RequestCallback(JavaType type) {
-        this.deserializer = (objectMapper, node) -> objectMapper.readValue(node.traverse(), type);
+        this(type, new CompletableFuture<>());
+    }
+
+    /**
+     * @param completableFuture completed with the result
+     */
+    RequestCallback(JavaType type, CompletableFuture<T> completableFuture) {
+        this((objectMapper, parser) -> objectMapper.readValue(parser, type), completableFuture);
+    }
+
+    /**
+     * @param deserializer reads the result from a parser positioned on its first token
+     * @param completableFuture completed with the result
+     */
+    RequestCallback(
+            IOBiFunction<ObjectMapper, JsonParser, T> deserializer,
+            CompletableFuture<T> completableFuture) {
+        this.deserializer = checkNotNull(deserializer);
+        this.completableFuture = checkNotNull(completableFuture);
     }
 
     public void setResult(ObjectMapper objectMapper, JsonNode result) {
+        setResult(objectMapper, result.traverse());
+    }
+
+    /**
+     * Bind the result directly from the parser.
+     *
+     * @param objectMapper mapper used to deserialize the result
+     * @param parser parser positioned on the first token of the result
+     */
+    public void setResult(ObjectMapper objectMapper, JsonParser parser) {
         try {
-            completableFuture.complete(deserializer.call(objectMapper, result));
+            completableFuture.complete(deserializer.call(objectMapper, parser));
         } catch (IOException | MessageFormatException e) {
             completableFuture.completeExceptionally(e);
         }
@@ -29,6 +62,14 @@ public class RequestCallback<T> {
         completableFuture.completeExceptionally(error);
     }
 
+    long getRequestId() {
+        return requestId;
+    }
+
+    void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
     public CompletableFuture<T> getCompletableFuture() {
         return completableFuture;
     }
@@ -0,0 +1,284 @@
+package com.neovim.msgpack;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caps the number of requests waiting for a response, over all methods and per method name
+ * prefix. A request counts against the global limit and the limit of the longest prefix that
+ * matches its method. Requests over a limit are queued in order or rejected, depending on the
+ * policy of the limit that was reached.
+ *
+ * Without any limit configured requests are sent straight away and nothing is tracked. So
+ * requests sent before the first limit is set are never counted, and until they complete more
+ * than the limit can be in flight.
+ */
+class RequestLimiter {
+    private static final Logger log = LoggerFactory.getLogger(RequestLimiter.class);
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private final Limit global = new Limit("");
+    private final Map<String, Limit> prefixLimits = new LinkedHashMap<>();
+    private int queued = 0;
+    private long totalQueued = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+
+    private final ConcurrentMap<String, Optional<Limit>> methodLimits = new ConcurrentHashMap<>();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private volatile boolean enabled = false;
+
+    /**
+     * @param prefix method name prefix, empty for the global limit
+     * @param maxInFlight requests allowed to wait for a response at the same time
+     * @param policy what to do with requests over the limit
+     */
+    void setLimit(String prefix, int maxInFlight, OverflowPolicy policy) {
+        checkNotNull(prefix);
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        checkNotNull(policy);
+        synchronized (lock) {
+            Limit limit = prefix.isEmpty()
+                    ? global
+                    : prefixLimits.computeIfAbsent(prefix, Limit::new);
+            limit.max = maxInFlight;
+            limit.policy = policy;
+            methodLimits.clear();
+            enabled = true;
+        }
+        // A higher limit may let queued requests through
+        drain();
+    }
+
+    /**
+     * Run send now if the limits allow it, later if it has to queue. The permits are released
+     * when future completes.
+     *
+     * @param send registers and sends the request, completes future if that fails
+     */
+    void submit(String method, CompletableFuture<?> future, Runnable send) {
+        if (!enabled) {
+            send.run();
+            return;
+        }
+        Limit limit = limitFor(method);
+        Waiter waiter;
+        RejectedExecutionException rejected;
+        synchronized (lock) {
+            Limit full = firstFull(limit);
+            if (full == null && queueOf(limit).isEmpty()) {
+                acquire(limit);
+                waiter = null;
+                rejected = null;
+            } else if (full != null && full.policy == OverflowPolicy.FAIL_FAST) {
+                waiter = null;
+                rejected = new RejectedExecutionException(String.format(
+                        "%s: %d requests in flight for '%s'", method, full.inFlight, full.prefix));
+            } else {
+                rejected = null;
+                waiter = new Waiter(future, send, limit);
+                queueOf(limit).add(waiter);
+                queued++;
+                totalQueued++;
+            }
+        }
+        // Completed outside the lock, callbacks of future run on this thread
+        if (rejected != null) {
+            future.completeExceptionally(rejected);
+        } else if (waiter == null) {
+            future.whenComplete((result, error) -> release(limit));
+            send.run();
+        } else {
+            // Cancelled or timed out before it was sent, don't count it as queued anymore
+            future.whenComplete((result, error) -> {
+                if (waiter.claim()) {
+                    synchronized (lock) {
+                        queued--;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Complete every queued request with error instead of sending it.
+     */
+    void failQueued(Throwable error) {
+        List<Waiter> failed = new ArrayList<>();
+        synchronized (lock) {
+            failed.addAll(global.waiting);
+            global.waiting.clear();
+            for (Limit limit : prefixLimits.values()) {
+                failed.addAll(limit.waiting);
+                limit.waiting.clear();
+            }
+        }
+        failed.removeIf(waiter -> !waiter.claim());
+        synchronized (lock) {
+            queued -= failed.size();
+        }
+        for (Waiter waiter : failed) {
+            waiter.future.completeExceptionally(error);
+        }
+    }
+
+    RequestQueueStats getStats() {
+        synchronized (lock) {
+            return new RequestQueueStats(queued, totalQueued, totalWaitNanos, maxWaitNanos);
+        }
+    }
+
+    /**
+     * Longest configured prefix of method, looked up once per method name.
+     */
+    private Limit limitFor(String method) {
+        Optional<Limit> limit = methodLimits.get(method);
+        if (limit == null) {
+            synchronized (lock) {
+                Limit longest = null;
+                for (Limit candidate : prefixLimits.values()) {
+                    if (method.startsWith(candidate.prefix)
+                            && (longest == null
+                                    || candidate.prefix.length() > longest.prefix.length())) {
+                        longest = candidate;
+                    }
+                }
+                limit = Optional.ofNullable(longest);
+            }
+            methodLimits.put(method, limit);
+        }
+        return limit.orElse(null);
+    }
+
+    // The methods below must hold lock
+
+    private Limit firstFull(Limit limit) {
+        if (limit != null && limit.inFlight >= limit.max) {
+            return limit;
+        }
+        return global.inFlight >= global.max ? global : null;
+    }
+
+    private Queue<Waiter> queueOf(Limit limit) {
+        return limit != null ? limit.waiting : global.waiting;
+    }
+
+    private void acquire(Limit limit) {
+        global.inFlight++;
+        if (limit != null) {
+            limit.inFlight++;
+        }
+    }
+
+    private void release(Limit limit) {
+        synchronized (lock) {
+            global.inFlight--;
+            if (limit != null) {
+                limit.inFlight--;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Send queued requests that fit. Only one thread drains at a time, a release during the
+     * drain (a send that fails right away) makes it loop instead of recursing.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            for (Waiter waiter : takeReady()) {
+                waiter.future.whenComplete((result, error) -> release(waiter.limit));
+                try {
+                    waiter.send.run();
+                } catch (RuntimeException e) {
+                    // The future has been completed with the failure
+                    log.debug("Queued request failed: {}", e.getMessage());
+                }
+            }
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private List<Waiter> takeReady() {
+        List<Waiter> ready = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (lock) {
+            takeReady(null, global.waiting, ready, now);
+            for (Limit limit : prefixLimits.values()) {
+                takeReady(limit, limit.waiting, ready, now);
+            }
+        }
+        return ready;
+    }
+
+    private void takeReady(Limit limit, Queue<Waiter> waiting, List<Waiter> ready, long now) {
+        while (!waiting.isEmpty() && firstFull(limit) == null) {
+            Waiter waiter = waiting.poll();
+            if (!waiter.claim()) {
+                // Completed while queued
+                continue;
+            }
+            queued--;
+            long waited = now - waiter.enqueuedNanos;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+            acquire(limit);
+            ready.add(waiter);
+        }
+    }
+
+    private static class Limit {
+        private final String prefix;
+        private final Queue<Waiter> waiting = new ArrayDeque<>();
+        private int max = Integer.MAX_VALUE;
+        private OverflowPolicy policy = OverflowPolicy.QUEUE;
+        private int inFlight = 0;
+
+        Limit(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    private static class Waiter {
+        private final CompletableFuture<?> future;
+        private final Runnable send;
+        private final Limit limit;
+        private final long enqueuedNanos = System.nanoTime();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Waiter(CompletableFuture<?> future, Runnable send, Limit limit) {
+            this.future = future;
+            this.send = send;
+            this.limit = limit;
+        }
+
+        /**
+         * @return true for exactly one of sending it and giving up on it
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
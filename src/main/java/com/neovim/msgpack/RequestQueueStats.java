@@ -0,0 +1,60 @@
+package com.neovim.msgpack;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the requests held back by the in flight limits of a {@link MessagePackRPC}.
+ */
+public final class RequestQueueStats {
+    private final int queued;
+    private final long totalQueued;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    RequestQueueStats(int queued, long totalQueued, long totalWaitNanos, long maxWaitNanos) {
+        this.queued = queued;
+        this.totalQueued = totalQueued;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /**
+     * @return number of requests waiting to be sent right now
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return number of requests that had to wait since the connection was created
+     */
+    public long getTotalQueued() {
+        return totalQueued;
+    }
+
+    /**
+     * @return time the requests that have been sent after waiting spent in the queue, added up
+     */
+    public long getTotalWait(TimeUnit unit) {
+        return unit.convert(totalWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return longest time a request spent in the queue
+     */
+    public long getMaxWait(TimeUnit unit) {
+        return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("queued", queued)
+                .add("totalQueued", totalQueued)
+                .add("totalWaitNanos", totalWaitNanos)
+                .add("maxWaitNanos", maxWaitNanos)
+                .toString();
+    }
+}
@@ -0,0 +1,210 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.primitives.Bytes;
+import com.neovim.msgpack.IOBiFunction;
+import com.neovim.msgpack.MessagePackRPC;
+import com.neovim.msgpack.NeovimException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchTest {
+    private ObjectMapper objectMapper;
+    private Batch batch;
+    private Buffer buffer;
+    private Window window;
+
+    private IOBiFunction<ObjectMapper, JsonParser, Object> resultReader;
+    private Object[] requestArgs;
+    private final CompletableFuture<Object> response = new CompletableFuture<>();
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        objectMapper.registerModule(new NeovimModule(messagePackRPC));
+        batch = new Batch(messagePackRPC);
+        buffer = new Buffer(messagePackRPC, 1);
+        window = new Window(messagePackRPC, 2);
+        when(messagePackRPC.sendRequest(
+                any(IOBiFunction.class), eq("nvim_call_atomic"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    Object[] arguments = invocation.getArguments();
+                    resultReader = (IOBiFunction<ObjectMapper, JsonParser, Object>) arguments[0];
+                    requestArgs = Arrays.copyOfRange(arguments, 2, arguments.length);
+                    return response;
+                });
+    }
+
+    @Test
+    public void send_oneRequestWithEveryCall() throws Exception {
+        batch.buffer(buffer).getLineCount();
+        batch.window(window).getCursorPosition();
+        batch.send();
+
+        JsonNode calls = objectMapper.readTree(objectMapper.writeValueAsBytes(requestArgs));
+        assertThat(calls.size(), is(1));
+        assertThat(calls.get(0).size(), is(2));
+        assertThat(calls.get(0).get(0).get(0).asText(), is("buffer_line_count"));
+        assertThat(objectMapper.treeToValue(calls.get(0).get(0).get(1).get(0), Buffer.class)
+                .getId(), is(1L));
+        assertThat(calls.get(0).get(1).get(0).asText(), is("window_get_cursor"));
+    }
+
+    @Test
+    public void send_results_completeTypedFutures() throws Exception {
+        CompletableFuture<Long> lineCount = batch.buffer(buffer).getLineCount();
+        CompletableFuture<Position> cursor = batch.window(window).getCursorPosition();
+        CompletableFuture<Window> currentWindow = batch.getCurrentWindow();
+        CompletableFuture<Void> done = batch.send();
+
+        respond(Arrays.asList(10, Arrays.asList(3, 4), window), null);
+
+        assertThat(lineCount.get(), is(10L));
+        assertThat(cursor.get().row, is(3));
+        assertThat(cursor.get().col, is(4));
+        assertThat(currentWindow.get(), is(window));
+        assertThat(done.isCompletedExceptionally(), is(false));
+        assertThat(done.isDone(), is(true));
+    }
+
+    @Test
+    public void send_fewerResultsThanCalls_missingCallsFail() throws Exception {
+        CompletableFuture<Long> first = batch.buffer(buffer).getLineCount();
+        CompletableFuture<Boolean> missing = batch.buffer(buffer).isValid();
+        CompletableFuture<Void> done = batch.send();
+
+        respond(Collections.singletonList(10), null);
+
+        assertThat(first.get(), is(10L));
+        assertThat(causeOf(missing), instanceOf(NeovimException.class));
+        assertThat(causeOf(done), is(causeOf(missing)));
+    }
+
+    @Test
+    public void send_error_failsCallAndSkipsRest() throws Exception {
+        CompletableFuture<Long> first = batch.buffer(buffer).getLineCount();
+        CompletableFuture<byte[]> failed = batch.buffer(buffer).getLine(100);
+        CompletableFuture<Boolean> skipped = batch.buffer(buffer).isValid();
+        CompletableFuture<Void> done = batch.send();
+
+        respond(Collections.singletonList(10), Arrays.asList(1, 0, "Index out of bounds"));
+
+        assertThat(first.get(), is(10L));
+        assertThat(causeOf(failed).getMessage(), is("Index out of bounds"));
+        assertThat(causeOf(skipped), instanceOf(NeovimException.class));
+        assertThat(causeOf(done).getMessage(), is("Index out of bounds"));
+    }
+
+    @Test
+    public void send_requestFails_everyCallFails() throws Exception {
+        CompletableFuture<Long> lineCount = batch.buffer(buffer).getLineCount();
+        CompletableFuture<Void> done = batch.send();
+
+        response.completeExceptionally(new NeovimException(0, "no such method"));
+
+        assertThat(causeOf(lineCount).getMessage(), is("no such method"));
+        assertThat(done.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void send_empty_noRequest() throws Exception {
+        assertThat(batch.send().isDone(), is(true));
+        verify(messagePackRPC, never()).sendRequest(
+                any(IOBiFunction.class), any(String.class), anyVararg());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void call_afterSend_throws() {
+        batch.getCurrentBuffer();
+        batch.send();
+        batch.getCurrentBuffer();
+    }
+
+    @Test
+    public void call_joinedFromInlineHandler_responseStillRead() throws Exception {
+        ObjectMapper packer = new ObjectMapper(new MessagePackFactory());
+        byte[] input = Bytes.concat(
+                packer.writeValueAsBytes(Arrays.asList(2, "outer", Collections.emptyList())),
+                packer.writeValueAsBytes(Arrays.asList(1, 0, null,
+                        Arrays.asList(Collections.singletonList(3), null))));
+        MessagePackRPC rpc = new MessagePackRPC(new MessagePackRPC.Connection() {
+            private final InputStream in = new ByteArrayInputStream(input);
+            private final OutputStream out = new ByteArrayOutputStream();
+
+            @Override
+            public InputStream getInputStream() {
+                return in;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return out;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        rpc.registerModule(new NeovimModule(rpc));
+        CompletableFuture<Long> lineCount = new CompletableFuture<>();
+        rpc.setNotificationHandler((method, arg) -> {
+            // Runs on the receiver thread, like an inline handler
+            Batch inline = new Batch(rpc);
+            CompletableFuture<Long> call = inline.buffer(new Buffer(rpc, 1)).getLineCount();
+            inline.send();
+            lineCount.complete(call.join());
+        });
+        rpc.start();
+
+        assertThat(lineCount.get(5, TimeUnit.SECONDS), is(3L));
+        rpc.close();
+    }
+
+    private void respond(Object results, Object error) throws Exception {
+        byte[] bytes = objectMapper.writeValueAsBytes(Arrays.asList(results, error));
+        JsonParser parser = objectMapper.getFactory().createParser(bytes);
+        parser.nextToken();
+        response.complete(resultReader.call(objectMapper, parser));
+    }
+
+    private static Throwable causeOf(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
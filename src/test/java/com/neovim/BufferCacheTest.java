@@ -0,0 +1,118 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.IOBiFunction;
+import com.neovim.msgpack.MessagePackRPC;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BufferCacheTest {
+    private ObjectMapper objectMapper;
+    private Buffer buffer;
+    private BufferCache cache;
+
+    // State of the buffer in neovim
+    private long changedTick = 1;
+    private long lineCount = 10;
+    private byte[] line = "line".getBytes();
+    private int batches = 0;
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        objectMapper.registerModule(new NeovimModule(messagePackRPC));
+        buffer = new Buffer(messagePackRPC, 1);
+        cache = new BufferCache(messagePackRPC, 1024);
+        when(messagePackRPC.sendRequest(
+                eq(Long.class), eq("nvim_buf_get_changedtick"), anyVararg()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(changedTick));
+        when(messagePackRPC.sendRequest(
+                any(IOBiFunction.class), eq("nvim_call_atomic"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    batches++;
+                    // [[nvim_buf_get_changedtick, args], [name, args]]
+                    List<?> calls = (List<?>) invocation.getArguments()[2];
+                    String method = (String) ((List<?>) calls.get(1)).get(0);
+                    Object value = method.equals("buffer_line_count") ? lineCount : line;
+                    byte[] bytes = objectMapper.writeValueAsBytes(Arrays.asList(
+                            Arrays.asList(changedTick, value), null));
+                    JsonParser parser = objectMapper.getFactory().createParser(bytes);
+                    parser.nextToken();
+                    return CompletableFuture.completedFuture(
+                            ((IOBiFunction<ObjectMapper, JsonParser, Object>)
+                                    invocation.getArguments()[0]).call(objectMapper, parser));
+                });
+    }
+
+    @Test
+    public void get_unchanged_hit() throws Exception {
+        assertThat(cache.getLineCount(buffer).get(), is(10L));
+        lineCount = 20;
+
+        assertThat(cache.getLineCount(buffer).get(), is(10L));
+        assertThat(batches, is(1));
+        assertThat(cache.stats().hitCount(), is(1L));
+        assertThat(cache.stats().missCount(), is(1L));
+    }
+
+    @Test
+    public void get_changedTick_fetchesAgain() throws Exception {
+        cache.getLineCount(buffer).get();
+        lineCount = 20;
+        changedTick = 2;
+
+        assertThat(cache.getLineCount(buffer).get(), is(20L));
+        assertThat(batches, is(2));
+        assertThat(cache.stats().missCount(), is(2L));
+    }
+
+    @Test
+    public void get_differentArguments_separateEntries() throws Exception {
+        cache.getLine(buffer, 0).get();
+        cache.getLine(buffer, 1).get();
+
+        assertThat(cache.size(), is(2L));
+        assertThat(batches, is(2));
+    }
+
+    @Test
+    public void maxBytes_evicts() throws Exception {
+        line = new byte[400];
+        for (int i = 0; i < 5; i++) {
+            cache.getLine(buffer, i).get();
+        }
+
+        assertThat(cache.size() < 5, is(true));
+        assertThat(cache.stats().evictionCount() > 0, is(true));
+    }
+
+    @Test
+    public void invalidate_dropsEntriesOfBuffer() throws Exception {
+        cache.getLineCount(buffer).get();
+        cache.getLine(buffer, 0).get();
+
+        cache.invalidate(buffer);
+
+        assertThat(cache.size(), is(0L));
+    }
+}
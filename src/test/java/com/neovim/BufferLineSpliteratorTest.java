@@ -0,0 +1,152 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.neovim.msgpack.MessagePackRPC;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BufferLineSpliteratorTest {
+    private Buffer buffer;
+    private int lineCount;
+    private int lineLength = 1;
+    // [start, end) of every page requested
+    private final List<List<Long>> requests = new ArrayList<>();
+    private final List<CompletableFuture<List<byte[]>>> pages = new ArrayList<>();
+    private int pagesToComplete = Integer.MAX_VALUE;
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        buffer = new Buffer(messagePackRPC, 1);
+        when(messagePackRPC.sendRequest(eq(Long.class), eq("buffer_line_count"), anyVararg()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture((long) lineCount));
+        when(messagePackRPC.sendRequest(
+                any(TypeReference.class), eq("buffer_get_line_slice"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    Object[] args = invocation.getArguments();
+                    long start = (Long) args[3];
+                    long end = (Long) args[4];
+                    requests.add(Arrays.asList(start, end));
+                    CompletableFuture<List<byte[]>> page = new CompletableFuture<>();
+                    pages.add(page);
+                    if (pages.size() <= pagesToComplete) {
+                        page.complete(lines(start, Math.min(end, lineCount)));
+                    }
+                    return page;
+                });
+    }
+
+    @Test
+    public void streamLines_returnsEveryLineInOrder() {
+        lineCount = 5000;
+
+        List<String> lines = buffer.streamLines()
+                .map(line -> new String(line, StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+
+        assertThat(lines.size(), is(lineCount));
+        assertThat(lines.get(0), is(line(0)));
+        assertThat(lines.get(4999), is(line(4999)));
+    }
+
+    @Test
+    public void streamLines_range() {
+        lineCount = 100;
+
+        List<String> lines = buffer.streamLines(10, 13)
+                .map(line -> new String(line, StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+
+        assertThat(lines, contains(line(10), line(11), line(12)));
+        assertThat(requests, contains(Arrays.asList(10L, 13L)));
+    }
+
+    @Test
+    public void tryAdvance_prefetchesNextPage() {
+        lineCount = 3 * BufferLineSpliterator.FIRST_PAGE_LINES;
+        BufferLineSpliterator lines = new BufferLineSpliterator(buffer, 0, -1);
+
+        assertThat(lines.tryAdvance(line -> {}), is(true));
+
+        // The page being consumed and the one after it
+        assertThat(requests.size(), is(2));
+        assertThat(requests.get(1).get(0), is((long) BufferLineSpliterator.FIRST_PAGE_LINES));
+    }
+
+    @Test
+    public void pageSize_adaptsToLineLength() {
+        lineCount = 10000;
+        lineLength = 10000;
+        BufferLineSpliterator lines = new BufferLineSpliterator(buffer, 0, -1);
+
+        lines.tryAdvance(line -> {});
+
+        assertThat(lines.getPageLines(), lessThan(BufferLineSpliterator.FIRST_PAGE_LINES));
+        List<Long> prefetch = requests.get(1);
+        assertThat(prefetch.get(1) - prefetch.get(0), is((long) lines.getPageLines()));
+    }
+
+    @Test
+    public void bufferShrinks_endsEarly() {
+        lineCount = 1500;
+        BufferLineSpliterator lines = new BufferLineSpliterator(buffer, 0, 3000);
+
+        Stream<byte[]> stream = StreamSupport.stream(lines, false);
+
+        assertThat(stream.count(), is(1500L));
+        assertThat(requests.size(), is(2));
+    }
+
+    @Test
+    public void close_cancelsPrefetch() {
+        lineCount = 3 * BufferLineSpliterator.FIRST_PAGE_LINES;
+        pagesToComplete = 1;
+        BufferLineSpliterator lines = new BufferLineSpliterator(buffer, 0, -1);
+        lines.tryAdvance(line -> {});
+
+        lines.close();
+
+        assertThat(pages.get(1).isCancelled(), is(true));
+        assertThat(lines.tryAdvance(line -> {}), is(false));
+    }
+
+    private List<byte[]> lines(long start, long end) {
+        List<byte[]> lines = new ArrayList<>();
+        for (long i = start; i < end; i++) {
+            lines.add(line(i).getBytes(StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private String line(long index) {
+        StringBuilder line = new StringBuilder(Long.toString(index));
+        while (line.length() < lineLength) {
+            line.append('.');
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,274 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.IOBiFunction;
+import com.neovim.msgpack.MessagePackRPC;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BufferMirrorTest {
+    private ObjectMapper objectMapper;
+    private Buffer buffer;
+    private Dispatcher dispatcher;
+    private BufferEvents events;
+    private BufferMirror mirror;
+
+    private final List<IOBiFunction<ObjectMapper, JsonParser, Object>> snapshotReaders =
+            new ArrayList<>();
+    private final List<CompletableFuture<Object>> snapshots = new ArrayList<>();
+    private int attachCount = 0;
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        objectMapper.registerModule(new NeovimModule(messagePackRPC));
+        dispatcher = new Dispatcher(objectMapper);
+        buffer = new Buffer(messagePackRPC, 1);
+        events = new BufferEvents(dispatcher::dispatchMethod);
+        when(messagePackRPC.sendRequest(eq(Boolean.class), eq("nvim_buf_attach"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    attachCount++;
+                    return CompletableFuture.completedFuture(true);
+                });
+        when(messagePackRPC.sendRequest(
+                any(IOBiFunction.class), eq("nvim_call_atomic"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    snapshotReaders.add((IOBiFunction<ObjectMapper, JsonParser, Object>)
+                            invocation.getArguments()[0]);
+                    CompletableFuture<Object> snapshot = new CompletableFuture<>();
+                    snapshots.add(snapshot);
+                    return snapshot;
+                });
+        mirror = new BufferMirror(messagePackRPC, events, buffer);
+    }
+
+    @Test
+    public void attach_snapshot_completesWithLines() throws Exception {
+        CompletableFuture<BufferMirror> ready = mirror.attach();
+        assertThat(ready.isDone(), is(false));
+
+        respondSnapshot(0, 3, "a", "b", "c");
+
+        assertThat(ready.get(), is(mirror));
+        assertThat(mirror.getLineCount(), is(3));
+        assertThat(mirror.getLines(0, 3), contains("a", "b", "c"));
+        assertThat(mirror.getChangedTick(), is(3L));
+        assertThat(mirror.isSynced(), is(true));
+    }
+
+    @Test
+    public void linesEvent_appliedLocally() {
+        attached("a", "b", "c");
+
+        // Replace b, insert x after c, then delete a
+        events.linesEvent(buffer, 4L, 1, 2, lines("B"), false);
+        events.linesEvent(buffer, 5L, 3, 3, lines("x"), false);
+        events.linesEvent(buffer, 6L, 0, 1, Collections.emptyList(), false);
+
+        assertThat(mirror.getLines(0, mirror.getLineCount()), contains("B", "c", "x"));
+        assertThat(mirror.getLine(2), is("x"));
+        assertThat(mirror.getChangedTick(), is(6L));
+        assertThat(snapshots.size(), is(1));
+    }
+
+    @Test
+    public void linesEvent_staleChangedTick_resyncs() {
+        attached("a");
+
+        events.linesEvent(buffer, 3L, 0, 1, lines("stale"), false);
+        assertThat(mirror.isSynced(), is(false));
+        // Already part of the new snapshot
+        events.linesEvent(buffer, 4L, 0, 1, lines("dropped"), false);
+
+        respondSnapshot(1, 4, "fresh");
+        assertThat(mirror.getLines(0, 1), contains("fresh"));
+        assertThat(mirror.isSynced(), is(true));
+    }
+
+    @Test
+    public void linesEvent_outsideBuffer_resyncs() {
+        attached("a");
+
+        events.linesEvent(buffer, 4L, 5, 6, lines("x"), false);
+
+        assertThat(mirror.isSynced(), is(false));
+        assertThat(snapshots.size(), is(2));
+    }
+
+    @Test
+    public void changedTickEvent_updatesTick() {
+        attached("a");
+
+        events.changedTickEvent(buffer, 7);
+
+        assertThat(mirror.getChangedTick(), is(7L));
+        assertThat(mirror.getLines(0, 1), contains("a"));
+    }
+
+    @Test
+    public void detachEvent_attachesAgain() {
+        attached("a");
+
+        events.detachEvent(buffer);
+        assertThat(attachCount, is(2));
+
+        respondSnapshot(1, 10, "after", "detach");
+        assertThat(mirror.getLineCount(), is(2));
+    }
+
+    @Test
+    public void close_detachesAndStopsUpdating() {
+        attached("a");
+
+        mirror.close();
+        events.linesEvent(buffer, 4L, 0, 1, lines("ignored"), false);
+
+        verify(messagePackRPC).sendNotification("nvim_buf_detach", buffer);
+        assertThat(mirror.getLines(0, 1), contains("a"));
+    }
+
+    @Test
+    public void attach_alreadyMirrored_fails() {
+        attached("a");
+
+        CompletableFuture<BufferMirror> second =
+                new BufferMirror(messagePackRPC, events, buffer).attach();
+
+        assertThat(second.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void readLinesEvent_notUtf8_linesKeptAsSent() throws Exception {
+        attached("a", "b");
+        byte[] latin1 = { 'c', (byte) 0xe9 };
+
+        JsonParser parser = linesEvent(1, 4, 1, 2, latin1);
+        events.readLinesEvent(objectMapper, parser);
+
+        assertThat(mirror.getLineSlice(1, 2).get(0), is(latin1));
+        assertThat(mirror.getChangedTick(), is(4L));
+        assertThat(parser.nextToken(), is(nullValue()));
+    }
+
+    @Test
+    public void readEvents_handlerForSameEvents_getsEventsOfOtherBuffers() throws Exception {
+        Handler handler = new Handler();
+        dispatcher.register(handler);
+        attached("a", "b");
+
+        events.readLinesEvent(objectMapper, linesEvent(1, 4, 0, 1, "A".getBytes(StandardCharsets.UTF_8)));
+        events.readLinesEvent(objectMapper, linesEvent(2, 9, 0, 1, "other".getBytes(StandardCharsets.UTF_8)));
+        events.readChangedTickEvent(objectMapper, changedTickEvent(2, 10));
+
+        assertThat(mirror.getLineSlice(0, 1).get(0), is("A".getBytes(StandardCharsets.UTF_8)));
+        assertThat(handler.events, contains(
+                "lines 2 9 [other]", "changedtick 2 10"));
+    }
+
+    public static class Handler {
+        private final List<String> events = new ArrayList<>();
+
+        @NeovimHandler(BufferEvents.LINES_EVENT)
+        public void lines(Buffer buffer, long changedTick, long first, long last,
+                List<String> lines, boolean more) {
+            events.add("lines " + buffer.getId() + " " + changedTick + " " + lines);
+        }
+
+        @NeovimHandler(BufferEvents.CHANGED_TICK_EVENT)
+        public void changedTick(Buffer buffer, long changedTick) {
+            events.add("changedtick " + buffer.getId() + " " + changedTick);
+        }
+    }
+
+    /**
+     * @return parser on the arguments of nvim_buf_lines_event
+     */
+    private JsonParser linesEvent(int buffer, long changedTick, long first, long last,
+            byte[]... lines) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessagePacker packer = MessagePack.newDefaultPacker(out);
+        packer.packArrayHeader(6);
+        packer.packExtensionTypeHeader(NeovimModule.BUFFER_TYPE, 1)
+                .writePayload(new byte[] { (byte) buffer });
+        packer.packLong(changedTick).packLong(first).packLong(last);
+        packer.packArrayHeader(lines.length);
+        for (byte[] line : lines) {
+            packer.packRawStringHeader(line.length).writePayload(line);
+        }
+        packer.packBoolean(false);
+        packer.close();
+        return parser(out.toByteArray());
+    }
+
+    private JsonParser changedTickEvent(int buffer, long changedTick) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessagePacker packer = MessagePack.newDefaultPacker(out);
+        packer.packArrayHeader(2);
+        packer.packExtensionTypeHeader(NeovimModule.BUFFER_TYPE, 1)
+                .writePayload(new byte[] { (byte) buffer });
+        packer.packLong(changedTick);
+        packer.close();
+        return parser(out.toByteArray());
+    }
+
+    private JsonParser parser(byte[] bytes) throws IOException {
+        JsonParser parser = objectMapper.getFactory().createParser(bytes);
+        parser.nextToken();
+        return parser;
+    }
+
+    private static List<byte[]> lines(String... lines) {
+        List<byte[]> bytes = new ArrayList<>();
+        for (String line : lines) {
+            bytes.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes;
+    }
+
+    private void attached(String... lines) {
+        mirror.attach();
+        respondSnapshot(0, 3, lines);
+    }
+
+    private void respondSnapshot(int index, long tick, String... lines) {
+        try {
+            byte[] bytes = objectMapper.writeValueAsBytes(
+                    Arrays.asList(Arrays.asList(tick, Arrays.asList(lines)), null));
+            JsonParser parser = objectMapper.getFactory().createParser(bytes);
+            parser.nextToken();
+            snapshots.get(index).complete(snapshotReaders.get(index).call(objectMapper, parser));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.neovim;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.IOBiFunction;
 import com.neovim.msgpack.MessagePackRPC;
 import org.junit.Before;
 import org.junit.Test;
@@ -13,9 +15,24 @@ import org.msgpack.core.MessageUnpacker;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 
 import java.io.ByteArrayOutputStream;
-
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
 public class BufferTest {
@@ -86,4 +103,37 @@ public class BufferTest {
 
         assertThat(deserializedValue, is(buffer));
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void replaceContents_changedBeforeApplied_fetchesAgain() throws Exception {
+        Queue<Object> responses = new ArrayDeque<>(Arrays.asList(
+                // lines fetched at changedtick 3, applying fails as the buffer changed
+                Arrays.asList(Arrays.asList(3, Collections.singletonList("a")), null),
+                Arrays.asList(Collections.emptyList(),
+                        Arrays.asList(0, 0, "Error executing lua: " + LineDiff.CHANGED_ERROR)),
+                Arrays.asList(Arrays.asList(4, Arrays.asList("a", "b")), null),
+                Arrays.asList(Arrays.asList(null, null), null)));
+        List<Object> batches = new ArrayList<>();
+        when(messagePackRPC.sendRequest(
+                any(IOBiFunction.class), eq("nvim_call_atomic"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    batches.add(invocation.getArguments()[2]);
+                    JsonParser parser = objectMapper.getFactory().createParser(
+                            objectMapper.writeValueAsBytes(responses.remove()));
+                    parser.nextToken();
+                    return CompletableFuture.completedFuture(
+                            ((IOBiFunction<ObjectMapper, JsonParser, Object>)
+                                    invocation.getArguments()[0]).call(objectMapper, parser));
+                });
+
+        buffer.replaceContents(Arrays.asList(
+                "a".getBytes(StandardCharsets.UTF_8), "c".getBytes(StandardCharsets.UTF_8)))
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(batches.size(), is(4));
+        List<List<Object>> applied = (List<List<Object>>) batches.get(3);
+        assertThat((List<Object>) applied.get(0).get(1), hasItem(Arrays.asList(buffer, 4L)));
+        assertThat(((List<Object>) applied.get(1).get(1)).subList(0, 3), contains(buffer, 1, 2));
+    }
 }
@@ -0,0 +1,188 @@
+package com.neovim;
+
+import com.neovim.msgpack.MessagePackRPC;
+import com.neovim.msgpack.NeovimException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BufferWriterTest {
+    private Buffer buffer;
+    // name followed by the arguments of every request
+    private final List<List<Object>> requests = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<Void>> responses = new CopyOnWriteArrayList<>();
+    private boolean respond = true;
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    public void setUp() {
+        buffer = new Buffer(messagePackRPC, 1);
+        when(messagePackRPC.sendRequest(eq(Void.class), eq("nvim_buf_set_lines"), anyVararg()))
+                .thenAnswer(invocation -> record(invocation.getArguments()));
+        when(messagePackRPC.sendRequest(eq(Void.class), eq("nvim_exec_lua"), anyVararg()))
+                .thenAnswer(invocation -> record(invocation.getArguments()));
+    }
+
+    private CompletableFuture<Void> record(Object[] arguments) {
+        requests.add(Arrays.asList(arguments).subList(1, arguments.length));
+        CompletableFuture<Void> response = new CompletableFuture<>();
+        responses.add(response);
+        if (respond) {
+            response.complete(null);
+        }
+        return response;
+    }
+
+    @Test
+    public void write_sendsChunksAtTheirPosition() {
+        BufferWriter writer = new BufferWriter(messagePackRPC, buffer, 2, 5, false, 1024, 2, 4);
+
+        for (String line : Arrays.asList("a", "b", "c", "d", "e")) {
+            writer.write(line);
+        }
+        writer.close();
+
+        assertThat(requests.size(), is(3));
+        assertThat(requests.get(0).subList(0, 5),
+                contains("nvim_buf_set_lines", buffer, 2L, 5L, false));
+        assertThat(requests.get(1).subList(0, 5),
+                contains("nvim_buf_set_lines", buffer, 4L, 4L, false));
+        assertThat(requests.get(2).subList(0, 5),
+                contains("nvim_buf_set_lines", buffer, 6L, 6L, false));
+        assertThat(writer.getLinesWritten(), is(5L));
+    }
+
+    @Test
+    public void write_chunkBytes_flushes() {
+        BufferWriter writer = new BufferWriter(messagePackRPC, buffer, 0, 0, false, 4, 100, 4);
+
+        writer.write("abc");
+        assertThat(requests.size(), is(0));
+        writer.write("de");
+
+        assertThat(requests.size(), is(1));
+    }
+
+    @Test
+    public void write_singleUndoBlock_joinsLaterChunks() {
+        BufferWriter writer = new BufferWriter(messagePackRPC, buffer, 0, -1, true, 1024, 1, 4);
+
+        writer.write("a");
+        writer.write("b");
+        writer.close();
+
+        assertThat(requests.get(0).get(0), is("nvim_buf_set_lines"));
+        assertThat(requests.get(1).get(0), is("nvim_exec_lua"));
+        List<?> luaArgs = (List<?>) requests.get(1).get(2);
+        assertThat(luaArgs.subList(0, 3), contains(buffer, 1L, 1L));
+    }
+
+    @Test
+    public void write_tooManyInFlight_waitsForOldest() throws Exception {
+        respond = false;
+        BufferWriter writer = new BufferWriter(messagePackRPC, buffer, 0, 0, false, 1024, 1, 2);
+        writer.write("a");
+        writer.write("b");
+
+        Thread responder = new Thread(() -> {
+            while (requests.size() < 3) {
+                Thread.yield();
+            }
+            responses.get(0).complete(null);
+        });
+        responder.start();
+        // Sends the third chunk, then waits for the first
+        writer.write("c");
+        responder.join();
+
+        assertThat(responses.get(0).isDone(), is(true));
+        assertThat(responses.get(1).isDone(), is(false));
+    }
+
+    @Test
+    public void close_nothingWritten_replacesRange() {
+        new BufferWriter(messagePackRPC, buffer, 1, 3, false).close();
+
+        assertThat(requests, contains(Arrays.<Object>asList(
+                "nvim_buf_set_lines", buffer, 1L, 3L, false, Collections.emptyList())));
+    }
+
+    @Test
+    public void close_failedChunk_throws() {
+        respond = false;
+        BufferWriter writer = new BufferWriter(messagePackRPC, buffer, 0, 0, false, 1024, 1, 4);
+        writer.write("a");
+        responses.get(0).completeExceptionally(new NeovimException(0, "Buffer is not modifiable"));
+
+        try {
+            writer.close();
+            fail("Expected the failure of the chunk");
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), is(instanceOf(NeovimException.class)));
+        }
+    }
+
+    @Test
+    public void close_severalChunksFail_waitsForAllAndSuppressesLaterFailures() {
+        respond = false;
+        BufferWriter writer = new BufferWriter(messagePackRPC, buffer, 0, 0, false, 1024, 1, 4);
+        writer.write("a");
+        writer.write("b");
+        writer.write("c");
+        responses.get(0).completeExceptionally(new NeovimException(0, "first"));
+        responses.get(1).completeExceptionally(new NeovimException(0, "second"));
+        responses.get(2).complete(null);
+
+        try {
+            writer.close();
+            fail("Expected the failure of the chunk");
+        } catch (CompletionException e) {
+            assertThat(e.getCause().getMessage(), is("first"));
+            assertThat(e.getSuppressed().length, is(1));
+            assertThat(e.getSuppressed()[0].getCause().getMessage(), is("second"));
+        }
+    }
+
+    @Test
+    public void close_afterWriteReportedFailure_chunkNotSentAgain() {
+        respond = false;
+        BufferWriter writer = new BufferWriter(messagePackRPC, buffer, 0, 0, false, 1024, 1, 4);
+        writer.write("a");
+        writer.write("b");
+        responses.get(0).completeExceptionally(new NeovimException(0, "failed"));
+
+        try {
+            writer.write("c");
+            fail("Expected the failure of the first chunk");
+        } catch (CompletionException e) {
+            assertThat(e.getCause().getMessage(), is("failed"));
+        }
+        responses.get(1).complete(null);
+        responses.get(2).complete(null);
+        writer.close();
+
+        assertThat(requests.size(), is(3));
+        assertThat(requests.get(2).subList(0, 4),
+                contains("nvim_buf_set_lines", buffer, 2L, 2L));
+    }
+}
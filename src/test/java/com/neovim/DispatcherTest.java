@@ -1,8 +1,13 @@
 package com.neovim;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.neovim.msgpack.NeovimException;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,11 +16,18 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -158,6 +170,62 @@ public class DispatcherTest {
         assertThat(result, is(9));
     }
 
+    @Test
+    public void varargs_objectArguments() throws JsonProcessingException {
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(NAME)
+                    public String join(String... strings) {
+                        return String.join(" ", strings);
+                    }
+                });
+
+        Object result = dispatcher.dispatchMethod(NAME, pack(HELLO, "1"));
+        assertThat(result, is(HELLO_1));
+    }
+
+    @Test
+    public void voidMethod_returnsNull() throws JsonProcessingException {
+        List<String> received = new ArrayList<>();
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(NAME)
+                    public void notify(String string) {
+                        received.add(string);
+                    }
+                });
+
+        Object result = dispatcher.dispatchMethod(NAME, pack(HELLO));
+        assertThat(result, is(nullValue()));
+        assertThat(received, contains(HELLO));
+    }
+
+    @Test
+    public void register_moduleRegisteredAfterHandler_moduleUsedForArguments()
+            throws JsonProcessingException {
+        ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
+        Dispatcher dispatcher = new Dispatcher(objectMapper);
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(NAME)
+                    public Position position(Position position) {
+                        return position;
+                    }
+                });
+        SimpleModule module = new SimpleModule();
+        module.addDeserializer(Position.class, new JsonDeserializer<Position>() {
+            @Override
+            public Position deserialize(JsonParser parser, DeserializationContext context)
+                    throws IOException {
+                return new Position(parser.getIntValue(), parser.getIntValue());
+            }
+        });
+        objectMapper.registerModule(module);
+
+        Object result = dispatcher.dispatchMethod(NAME, pack(ONE));
+        assertThat(result, is(new Position(ONE, ONE)));
+    }
+
     @Test
     public void register_registerTwoMethodsWithSameName_throwsIllegalStateException() {
         try {
@@ -210,7 +278,197 @@ public class DispatcherTest {
         assertThat(result, is(1));
     }
 
+    @Test
+    public void dispatchMethod_futureResult_completesWithValue() throws Exception {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(NAME)
+                    public CompletableFuture<String> async() {
+                        return future;
+                    }
+                });
+
+        CompletionStage<?> result = (CompletionStage<?>) dispatcher.dispatchMethod(NAME, pack());
+        future.complete(HELLO);
+        assertThat(result.toCompletableFuture().get(), is(HELLO));
+    }
+
+    @Test
+    public void dispatchMethod_failedFuture_completesWithNeovimException() throws Exception {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(NAME)
+                    public CompletionStage<String> async() {
+                        return future;
+                    }
+                });
+
+        CompletionStage<?> result = (CompletionStage<?>) dispatcher.dispatchMethod(NAME, pack());
+        future.completeExceptionally(new RuntimeException(ERROR_MESSAGE));
+        NeovimException exception = (NeovimException) result.toCompletableFuture().get();
+        assertThat(exception.getMessage(), is(ERROR_MESSAGE));
+    }
+
+    @Test
+    public void dispatchMethod_parallelHandler_runsOnExecutor() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        dispatcher.setExecutor(tasks::add);
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(value = NAME, execution = NeovimHandler.Execution.PARALLEL)
+                    public String echo(String string) {
+                        return string;
+                    }
+                });
+
+        CompletionStage<?> result = (CompletionStage<?>) dispatcher.dispatchMethod(NAME, pack(HELLO));
+        assertThat(result.toCompletableFuture().isDone(), is(false));
+
+        tasks.forEach(Runnable::run);
+        assertThat(result.toCompletableFuture().get(), is(HELLO));
+    }
+
+    @Test
+    public void dispatchMethod_orderedHandlerThrows_completesWithNeovimException()
+            throws Exception {
+        dispatcher.setExecutor(Runnable::run);
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(value = NAME, execution = NeovimHandler.Execution.ORDERED)
+                    public String fail(String string) {
+                        throw new RuntimeException(ERROR_MESSAGE);
+                    }
+                });
+
+        CompletionStage<?> result = (CompletionStage<?>) dispatcher.dispatchMethod(NAME, pack(HELLO));
+        NeovimException exception = (NeovimException) result.toCompletableFuture().get();
+        assertThat(exception.getMessage(), is(ERROR_MESSAGE));
+    }
+
+    @Test
+    public void dispatchMethod_parallelHandlerThrowsError_completesWithNeovimException()
+            throws Exception {
+        dispatcher.setExecutor(Runnable::run);
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(value = NAME, execution = NeovimHandler.Execution.PARALLEL)
+                    public String fail(String string) {
+                        throw new AssertionError(ERROR_MESSAGE);
+                    }
+                });
+
+        CompletionStage<?> result = (CompletionStage<?>) dispatcher.dispatchMethod(NAME, pack(HELLO));
+        NeovimException exception = (NeovimException) result.toCompletableFuture().get();
+        assertThat(exception.getMessage(), is(ERROR_MESSAGE));
+    }
+
+    @Test
+    public void dispatchMethod_orderedByFirstArgument_sameArgumentKeepsOrder() throws Exception {
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(
+                            value = NAME,
+                            execution = NeovimHandler.Execution.ORDERED_BY_FIRST_ARGUMENT)
+                    public void event(String buffer, int line) throws InterruptedException {
+                        Thread.sleep(line % 3);
+                        calls.add(buffer + line);
+                    }
+                });
+
+        List<CompletableFuture<?>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(((CompletionStage<?>) dispatcher.dispatchMethod(NAME, pack("a", i)))
+                    .toCompletableFuture());
+            results.add(((CompletionStage<?>) dispatcher.dispatchMethod(NAME, pack("b", i)))
+                    .toCompletableFuture());
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add("a" + i);
+        }
+        assertThat(calls.stream().filter(call -> call.startsWith("a")).collect(Collectors.toList()),
+                is(expected));
+    }
+
+    @Test
+    public void dispatchMethod_executorRejects_neovimException() throws Exception {
+        dispatcher.setExecutor(task -> {
+            throw new RejectedExecutionException(ERROR_MESSAGE);
+        });
+        dispatcher.register(
+                new Object() {
+                    @NeovimHandler(value = NAME, execution = NeovimHandler.Execution.PARALLEL)
+                    public void echo() {
+                    }
+                });
+
+        NeovimException exception = (NeovimException) dispatcher.dispatchMethod(NAME, pack());
+        assertThat(exception.getMessage(), is(ERROR_MESSAGE));
+    }
+
+    @Test
+    public void register_staticMethod_called() throws JsonProcessingException {
+        dispatcher.register(new StaticHandler());
+
+        Object result = dispatcher.dispatchMethod(NAME, pack(HELLO));
+        assertThat(result, is(HELLO));
+    }
+
+    @Test
+    public void register_generatedHandlerTable_usedInsteadOfReflection()
+            throws JsonProcessingException {
+        int registrations = TableHandler_NeovimHandlers.registrations;
+        dispatcher.register(new TableHandler());
+
+        assertThat(TableHandler_NeovimHandlers.registrations, is(registrations + 1));
+        Object result = dispatcher.dispatchMethod("table", pack(HELLO, ONE));
+        assertThat(result, is(HELLO_1));
+    }
+
     private JsonNode pack(Object... objects) throws JsonProcessingException {
         return MAPPER.convertValue(objects, JsonNode.class);
     }
 }
+
+class StaticHandler {
+    @NeovimHandler("echo")
+    public static String echo(String string) {
+        return string;
+    }
+}
+
+class TableHandler {
+    @NeovimHandler("table")
+    public String concat(String string, int... ints) {
+        return string + " " + Arrays.stream(ints).sum();
+    }
+}
+
+/**
+ * What the annotation processor generates for {@link TableHandler}.
+ */
+class TableHandler_NeovimHandlers implements NeovimHandlerTable<TableHandler> {
+    static int registrations = 0;
+
+    @Override
+    public Class<TableHandler> getHandlerType() {
+        return TableHandler.class;
+    }
+
+    @Override
+    public void register(TableHandler handler, Registry registry) {
+        registrations++;
+        registry.add(
+                "table",
+                true,
+                NeovimHandler.Execution.INLINE,
+                args -> handler.concat((String) args[0], (int[]) args[1]),
+                new TypeReference<String>() {},
+                new TypeReference<int[]>() {});
+    }
+}
@@ -0,0 +1,155 @@
+package com.neovim;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GridTest {
+    private Grid grid;
+
+    @Before
+    public void setUp() {
+        grid = new Grid(1);
+        grid.resize(10, 4);
+        grid.drainDamage((top, left, bottom, right) -> {});
+    }
+
+    @Test
+    public void resize_blankAndDirty() {
+        Grid grid = new Grid(2);
+        grid.resize(3, 2);
+
+        assertThat(grid.getText(1, 2), is(" "));
+        assertThat(grid.getHighlight(1, 2), is(0));
+        assertThat(damage(grid), is(Arrays.asList(Arrays.asList(0, 0, 2, 3))));
+    }
+
+    @Test
+    public void resize_keepsOverlap() {
+        put(1, 2, "abc", 5);
+        grid.put(2, 8, 'a', "a\u0301", 0, 1);
+
+        grid.resize(9, 2);
+
+        assertThat(row(1), is("  abc    "));
+        assertThat(grid.getHighlight(1, 3), is(5));
+
+        grid.resize(9, 3);
+        assertThat(row(2), is("         "));
+    }
+
+    @Test
+    public void put_repeat() {
+        grid.put(0, 2, 'x', null, 3, 4);
+
+        assertThat(row(0), is("  xxxx    "));
+        assertThat(grid.getHighlight(0, 5), is(3));
+        assertThat(grid.getHighlight(0, 6), is(0));
+        assertThat(damage(grid), is(Arrays.asList(Arrays.asList(0, 2, 1, 6))));
+    }
+
+    @Test
+    public void put_clipsAtRightEdge() {
+        grid.put(0, 8, 'x', null, 0, 5);
+
+        assertThat(row(0), is("        xx"));
+    }
+
+    @Test
+    public void put_clusterAndWideCharacter() {
+        grid.put(0, 0, 'e', "e\u0301", 0, 1);
+        grid.put(0, 1, 0x4e2d, null, 0, 1);
+        grid.put(0, 2, 0, null, 0, 1);
+
+        assertThat(grid.getText(0, 0), is("e\u0301"));
+        assertThat(grid.getCodePoint(0, 0), is((int) 'e'));
+        assertThat(grid.getText(0, 1), is("\u4e2d"));
+        assertThat(grid.getText(0, 2), is(""));
+
+        grid.put(0, 0, 'a', null, 0, 1);
+        assertThat(grid.getText(0, 0), is("a"));
+    }
+
+    @Test
+    public void scroll_up() {
+        for (int row = 0; row < 4; row++) {
+            put(row, 0, "row" + row, row);
+        }
+        grid.drainDamage((top, left, bottom, right) -> {});
+
+        grid.scroll(0, 4, 0, 10, 1);
+
+        assertThat(row(0), is("row1      "));
+        assertThat(row(2), is("row3      "));
+        assertThat(grid.getHighlight(2, 0), is(3));
+        assertThat(damage(grid), is(Arrays.asList(Arrays.asList(0, 0, 4, 10))));
+    }
+
+    @Test
+    public void scroll_downInsideRegion() {
+        for (int row = 0; row < 4; row++) {
+            put(row, 0, "row" + row + "rest", 0);
+        }
+        grid.put(1, 1, 'o', "o\u0308", 0, 1);
+
+        grid.scroll(1, 4, 0, 4, -2);
+
+        assertThat(row(0), is("row0rest  "));
+        assertThat(row(1), is("ro\u0308w1rest  "));
+        assertThat(row(2), is("row2rest  "));
+        assertThat(row(3), is("ro\u0308w1rest  "));
+    }
+
+    @Test
+    public void clear() {
+        put(0, 0, "abc", 1);
+        grid.put(1, 0, 'e', "e\u0301", 0, 1);
+
+        grid.clear();
+
+        assertThat(row(0), is("          "));
+        assertThat(grid.getText(1, 0), is(" "));
+        assertThat(grid.getHighlight(0, 0), is(0));
+    }
+
+    @Test
+    public void drainDamage_mergesRowsWithSameColumns() {
+        put(0, 1, "ab", 0);
+        put(1, 1, "ab", 0);
+        put(2, 1, "abc", 0);
+
+        assertThat(damage(grid), is(Arrays.asList(
+                Arrays.asList(0, 1, 2, 3),
+                Arrays.asList(2, 1, 3, 4))));
+        assertThat(grid.isDirty(), is(false));
+        assertThat(damage(grid), is(empty()));
+    }
+
+    private void put(int row, int col, String text, int highlight) {
+        for (int i = 0; i < text.length(); i++) {
+            grid.put(row, col + i, text.charAt(i), null, highlight, 1);
+        }
+    }
+
+    private String row(int row) {
+        StringBuilder builder = new StringBuilder();
+        for (int col = 0; col < grid.getWidth(); col++) {
+            builder.append(grid.getText(row, col));
+        }
+        return builder.toString();
+    }
+
+    private static List<List<Integer>> damage(Grid grid) {
+        List<List<Integer>> damage = new ArrayList<>();
+        grid.drainDamage((top, left, bottom, right) ->
+                damage.add(Arrays.asList(top, left, bottom, right)));
+        return damage;
+    }
+}
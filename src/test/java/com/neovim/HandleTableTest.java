@@ -0,0 +1,37 @@
+package com.neovim;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class HandleTableTest {
+    private final HandleTable<Long> table = new HandleTable<>(id -> new Long(id));
+
+    @Test
+    public void get_sameId_sameInstance() {
+        Long first = table.get(7);
+
+        assertThat(table.get(7), is(sameInstance(first)));
+        assertThat(table.size(), is(1));
+    }
+
+    @Test
+    public void get_manyIds_keptWhileGrowing() {
+        List<Long> handles = new ArrayList<>();
+        for (long id = -500; id < 500; id++) {
+            handles.add(table.get(id * 1000));
+        }
+
+        for (int i = 0; i < handles.size(); i++) {
+            Long handle = handles.get(i);
+            assertThat(handle, is((i - 500) * 1000L));
+            assertThat(table.get(handle), is(sameInstance(handle)));
+        }
+        assertThat(table.size(), is(handles.size()));
+    }
+}
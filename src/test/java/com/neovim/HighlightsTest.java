@@ -0,0 +1,97 @@
+package com.neovim;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.MessagePackRPC;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HighlightsTest {
+    private ObjectMapper objectMapper;
+    private Highlights highlights;
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    public void setUp() {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        objectMapper.registerModule(new NeovimModule(messagePackRPC));
+        highlights = new Highlights();
+        highlights.setDefaultColors(0xffffff, 0x000000, 0xff0000);
+    }
+
+    @Test
+    public void define_packsColorsAndStyle() throws Exception {
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("foreground", 0x123456);
+        attrs.put("background", 0xabcdef);
+        attrs.put("special", 0x00ff00);
+        attrs.put("bold", true);
+        attrs.put("undercurl", true);
+        attrs.put("italic", false);
+        attrs.put("blend", 30);
+        attrs.put("url", "https://neovim.io");
+
+        highlights.define(3, read(attrs));
+
+        long packed = highlights.get(3);
+        assertThat(highlights.foreground(packed), is(0x123456));
+        assertThat(highlights.background(packed), is(0xabcdef));
+        assertThat(Highlights.style(packed), is(Highlights.BOLD | Highlights.UNDERCURL));
+        assertThat(highlights.getSpecial(3), is(0x00ff00));
+        assertThat(highlights.getBlend(3), is(30));
+    }
+
+    @Test
+    public void define_withoutColors_usesDefaults() throws Exception {
+        highlights.define(1, read(Collections.singletonMap("reverse", true)));
+
+        long packed = highlights.get(1);
+        assertThat(highlights.foreground(packed), is(0xffffff));
+        assertThat(highlights.background(packed), is(0x000000));
+        assertThat(highlights.getSpecial(1), is(0xff0000));
+        assertThat(Highlights.hasStyle(packed, Highlights.REVERSE), is(true));
+        assertThat(Highlights.hasStyle(packed, Highlights.BOLD), is(false));
+
+        highlights.setDefaultColors(0x111111, 0x222222, -1);
+        assertThat(highlights.foreground(packed), is(0x111111));
+    }
+
+    @Test
+    public void get_undefinedId_defaultAttributes() throws Exception {
+        highlights.define(1000, read(Collections.singletonMap("foreground", 1)));
+
+        assertThat(highlights.get(999), is(Highlights.DEFAULT_ATTRIBUTES));
+        assertThat(highlights.get(5000), is(Highlights.DEFAULT_ATTRIBUTES));
+        assertThat(highlights.foreground(highlights.get(0)), is(0xffffff));
+        assertThat(highlights.foreground(highlights.get(1000)), is(1));
+    }
+
+    @Test
+    public void define_blackIsNotDefault() throws Exception {
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("foreground", 0);
+        attrs.put("background", 0);
+
+        highlights.define(2, read(attrs));
+
+        assertThat(highlights.foreground(highlights.get(2)), is(0));
+        assertThat(highlights.background(highlights.get(2)), is(0));
+    }
+
+    private Highlights.Attributes read(Map<String, ?> attrs) throws Exception {
+        return objectMapper.readValue(
+                objectMapper.writeValueAsBytes(attrs), Highlights.Attributes.class);
+    }
+}
@@ -0,0 +1,92 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.MessagePackRPC;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LayoutTest {
+    private ObjectMapper objectMapper;
+    private NeovimModule module;
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    public void setUp() {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        module = new NeovimModule(messagePackRPC);
+        objectMapper.registerModule(module);
+    }
+
+    @Test
+    public void read_tabPagesAndWindows() throws Exception {
+        Layout layout = read(Arrays.asList(
+                1,
+                1001,
+                Arrays.asList(
+                        Arrays.asList(1, Arrays.asList(
+                                Arrays.asList(1000, 1, 1, 0, 20, 80, 0, 0),
+                                Arrays.asList(1001, 2, 5, 3, 19, 80, 21, 0))),
+                        Arrays.asList(2, Arrays.asList(
+                                Arrays.asList(1002, 3, 1, 0, 40, 80, 1, 0))))));
+
+        assertThat(layout.getCurrentTabPage(), is(new TabPage(messagePackRPC, 1)));
+        assertThat(layout.getCurrentWindow(), is(new Window(messagePackRPC, 1001)));
+        assertThat(layout.getTabPages().size(), is(2));
+        assertThat(layout.getTabPages().get(0).getWindows().size(), is(2));
+        assertThat(layout.getTabPages().get(1).getTabPage(), is(new TabPage(messagePackRPC, 2)));
+
+        Layout.WindowLayout window = layout.getWindow(new Window(messagePackRPC, 1001));
+        assertThat(window.getBuffer(), is(new Buffer(messagePackRPC, 2)));
+        assertThat(window.getCursorPosition(), is(new Position(5, 3)));
+        assertThat(window.getHeight(), is(19));
+        assertThat(window.getWidth(), is(80));
+        assertThat(window.getPosition(), is(new Position(21, 0)));
+    }
+
+    @Test
+    public void read_handlesSameAsDecoded() throws Exception {
+        Window decoded = objectMapper.readValue(
+                objectMapper.writeValueAsBytes(new Window(messagePackRPC, 1000)), Window.class);
+
+        Layout layout = read(Arrays.asList(1, 1000, Collections.emptyList()));
+
+        assertThat(layout.getCurrentWindow(), is(sameInstance(decoded)));
+    }
+
+    @Test
+    public void getWindow_unknown_null() throws Exception {
+        Layout layout = read(Arrays.asList(1, 1000, Collections.emptyList()));
+
+        assertThat(layout.getWindow(new Window(messagePackRPC, 1000)), is(nullValue()));
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void read_malformed_throws() throws Exception {
+        read(Arrays.asList(1, 1000, Collections.singletonList(Arrays.asList(1, "windows"))));
+    }
+
+    private Layout read(Object result) throws Exception {
+        JsonParser parser = objectMapper.getFactory().createParser(
+                objectMapper.writeValueAsBytes(result));
+        parser.nextToken();
+        Layout layout = Layout.read(module, parser);
+        assertThat(parser.nextToken(), is(nullValue()));
+        return layout;
+    }
+}
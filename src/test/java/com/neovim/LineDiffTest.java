@@ -0,0 +1,207 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.IOBiFunction;
+import com.neovim.msgpack.MessagePackRPC;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LineDiffTest {
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Test
+    public void diff_equal_noHunks() {
+        assertThat(LineDiff.diff(lines("a", "b"), lines("a", "b")), is(empty()));
+    }
+
+    @Test
+    public void diff_changedLine_oneHunk() {
+        List<LineDiff.Hunk> hunks = LineDiff.diff(lines("a", "b", "c"), lines("a", "B", "c"));
+
+        assertThat(hunks.size(), is(1));
+        assertHunk(hunks.get(0), 1, 2, "B");
+    }
+
+    @Test
+    public void diff_separateChanges_separateHunks() {
+        List<LineDiff.Hunk> hunks = LineDiff.diff(
+                lines("a", "b", "c", "d", "e", "f"),
+                lines("x", "a", "b", "d", "e", "f", "y"));
+
+        assertThat(hunks.size(), is(3));
+        assertHunk(hunks.get(0), 0, 0, "x");
+        assertHunk(hunks.get(1), 2, 3);
+        assertHunk(hunks.get(2), 6, 6, "y");
+    }
+
+    @Test
+    public void diff_random_hunksTurnFromIntoTo() {
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            List<byte[]> from = randomLines(random, random.nextInt(40));
+            List<byte[]> to = mutate(random, from);
+
+            List<byte[]> result = new ArrayList<>(from);
+            List<LineDiff.Hunk> hunks = LineDiff.diff(from, to);
+            for (int h = hunks.size() - 1; h >= 0; h--) {
+                LineDiff.Hunk hunk = hunks.get(h);
+                result.subList(hunk.getStart(), hunk.getEnd()).clear();
+                result.addAll(hunk.getStart(), hunk.getLines());
+            }
+
+            assertThat(text(result), is(text(to)));
+        }
+    }
+
+    @Test
+    public void diff_tooManyEdits_oneHunk() {
+        List<byte[]> from = new ArrayList<>();
+        List<byte[]> to = new ArrayList<>();
+        for (int i = 0; i < LineDiff.MAX_EDITS; i++) {
+            from.add(("old " + i).getBytes(StandardCharsets.UTF_8));
+            to.add(("new " + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        List<LineDiff.Hunk> hunks = LineDiff.diff(from, to);
+
+        assertThat(hunks.size(), is(1));
+        assertThat(hunks.get(0).getEnd(), is(LineDiff.MAX_EDITS));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void apply_sendsHunksLastFirstInOneBatch() {
+        when(messagePackRPC.sendRequest(
+                any(IOBiFunction.class), eq("nvim_call_atomic"), anyVararg()))
+                .thenReturn(new CompletableFuture<>());
+        Buffer buffer = new Buffer(messagePackRPC, 1);
+
+        LineDiff.apply(messagePackRPC, buffer, 7, lines("a", "b", "c"), lines("A", "b", "C"));
+
+        ArgumentCaptor<Object> calls = ArgumentCaptor.forClass(Object.class);
+        verify(messagePackRPC).sendRequest(
+                any(IOBiFunction.class), eq("nvim_call_atomic"), calls.capture());
+        List<List<Object>> batch = (List<List<Object>>) calls.getValue();
+        assertThat(batch.size(), is(3));
+        assertThat(batch.get(0).get(0), is("nvim_exec_lua"));
+        assertThat((List<Object>) ((List<Object>) batch.get(0).get(1)).get(1),
+                contains(buffer, 7L));
+        assertThat(batch.get(1).get(0), is("nvim_buf_set_lines"));
+        assertThat(((List<Object>) batch.get(1).get(1)).subList(0, 3), contains(buffer, 2, 3));
+        assertThat(((List<Object>) batch.get(2).get(1)).subList(0, 3), contains(buffer, 0, 1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void apply_noChanges_sendsNothing() {
+        Buffer buffer = new Buffer(messagePackRPC, 1);
+
+        CompletableFuture<Void> done =
+                LineDiff.apply(messagePackRPC, buffer, 7, lines("a"), lines("a"));
+
+        assertThat(done.isDone(), is(true));
+        verify(messagePackRPC, never()).sendRequest(
+                any(IOBiFunction.class), eq("nvim_call_atomic"), anyVararg());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void apply_bufferChanged_failsWithConcurrentModification() throws Exception {
+        ArgumentCaptor<IOBiFunction> reader = ArgumentCaptor.forClass(IOBiFunction.class);
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        when(messagePackRPC.sendRequest(
+                reader.capture(), eq("nvim_call_atomic"), anyVararg()))
+                .thenReturn(response);
+        Buffer buffer = new Buffer(messagePackRPC, 1);
+
+        CompletableFuture<Void> done =
+                LineDiff.apply(messagePackRPC, buffer, 7, lines("a"), lines("b"));
+        ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
+        JsonParser parser = objectMapper.getFactory().createParser(objectMapper.writeValueAsBytes(
+                Arrays.asList(Collections.emptyList(),
+                        Arrays.asList(0, 0, "Error executing lua: " + LineDiff.CHANGED_ERROR))));
+        parser.nextToken();
+        response.complete(reader.getValue().call(objectMapper, parser));
+
+        try {
+            done.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(ConcurrentModificationException.class)));
+        }
+    }
+
+    private static void assertHunk(LineDiff.Hunk hunk, int start, int end, String... lines) {
+        assertThat(hunk.getStart(), is(start));
+        assertThat(hunk.getEnd(), is(end));
+        assertThat(text(hunk.getLines()), is(Arrays.asList(lines)));
+    }
+
+    private static List<byte[]> randomLines(Random random, int count) {
+        List<byte[]> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(Integer.toString(random.nextInt(8)).getBytes(StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private static List<byte[]> mutate(Random random, List<byte[]> from) {
+        List<byte[]> to = new ArrayList<>(from);
+        int edits = random.nextInt(6);
+        for (int i = 0; i < edits; i++) {
+            int index = random.nextInt(to.size() + 1);
+            if (random.nextBoolean() && index < to.size()) {
+                to.remove(index);
+            } else {
+                to.addAll(index, randomLines(random, 1 + random.nextInt(3)));
+            }
+        }
+        return to;
+    }
+
+    private static List<byte[]> lines(String... lines) {
+        List<byte[]> bytes = new ArrayList<>();
+        for (String line : lines) {
+            bytes.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes;
+    }
+
+    private static List<String> text(List<byte[]> lines) {
+        List<String> text = new ArrayList<>();
+        for (byte[] line : lines) {
+            text.add(new String(line, StandardCharsets.UTF_8));
+        }
+        return text;
+    }
+}
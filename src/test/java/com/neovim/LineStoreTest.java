@@ -0,0 +1,126 @@
+package com.neovim;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class LineStoreTest {
+
+    @Test
+    public void new_lines_inOrder() {
+        LineStore store = new LineStore(lines("a", "bc", "", "def"));
+
+        assertThat(store.size(), is(4));
+        assertThat(text(store.get(0, 4)), is(Arrays.asList("a", "bc", "", "def")));
+        assertThat(new String(store.get(3), StandardCharsets.UTF_8), is("def"));
+    }
+
+    @Test
+    public void replace_insertDeleteAndReplace() {
+        LineStore store = new LineStore(lines("a", "b", "c"));
+
+        store.replace(1, 2, lines("B1", "B2"));
+        store.replace(4, 4, lines("d"));
+        store.replace(0, 1, lines());
+
+        assertThat(text(store.get(0, store.size())), is(Arrays.asList("B1", "B2", "c", "d")));
+    }
+
+    @Test
+    public void replace_manyLines_spansLeaves() {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10 * LineStore.MAX_LEAF_LINES; i++) {
+            expected.add("line " + i);
+        }
+        LineStore store = new LineStore(lines(expected));
+
+        store.replace(100, 1000, lines("middle"));
+        expected.subList(100, 1000).clear();
+        expected.add(100, "middle");
+
+        assertThat(text(store.get(0, store.size())), is(expected));
+        assertThat(new String(store.get(100), StandardCharsets.UTF_8), is("middle"));
+    }
+
+    @Test
+    public void replace_lineLongerThanLeaf() {
+        char[] chars = new char[3 * LineStore.MAX_LEAF_BYTES];
+        Arrays.fill(chars, 'x');
+        String longLine = new String(chars);
+        LineStore store = new LineStore(lines("a", "b"));
+
+        store.replace(1, 1, lines(longLine, longLine));
+
+        assertThat(text(store.get(0, 4)), is(Arrays.asList("a", longLine, longLine, "b")));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfBounds_throws() {
+        new LineStore(lines("a")).get(1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void replace_outOfBounds_throws() {
+        new LineStore(lines("a")).replace(0, 2, lines());
+    }
+
+    @Test
+    public void replace_random_matchesList() {
+        Random random = new Random(42);
+        List<String> expected = new ArrayList<>();
+        LineStore store = new LineStore();
+        int next = 0;
+        for (int i = 0; i < 2000; i++) {
+            int start = random.nextInt(expected.size() + 1);
+            int end = start + random.nextInt(Math.min(expected.size() - start, 50) + 1);
+            List<String> replacement = new ArrayList<>();
+            int count = random.nextInt(random.nextInt(10) == 0 ? 300 : 5);
+            for (int j = 0; j < count; j++) {
+                replacement.add(next++ + ":" + random.nextInt(1000));
+            }
+
+            store.replace(start, end, lines(replacement));
+            expected.subList(start, end).clear();
+            expected.addAll(start, replacement);
+
+            assertThat(store.size(), is(expected.size()));
+            if (!expected.isEmpty()) {
+                int index = random.nextInt(expected.size());
+                assertThat(
+                        new String(store.get(index), StandardCharsets.UTF_8),
+                        is(expected.get(index)));
+            }
+        }
+        assertThat(text(store.get(0, store.size())), is(expected));
+    }
+
+    private static List<byte[]> lines(String... lines) {
+        return lines(Arrays.asList(lines));
+    }
+
+    private static List<byte[]> lines(List<String> lines) {
+        List<byte[]> bytes = new ArrayList<>();
+        for (String line : lines) {
+            bytes.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes;
+    }
+
+    private static List<String> text(List<byte[]> lines) {
+        List<String> text = new ArrayList<>();
+        for (byte[] line : lines) {
+            text.add(new String(line, StandardCharsets.UTF_8));
+        }
+        return text;
+    }
+}
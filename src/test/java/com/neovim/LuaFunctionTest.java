@@ -0,0 +1,101 @@
+package com.neovim;
+
+import com.google.common.hash.Hashing;
+import com.neovim.msgpack.MessagePackRPC;
+import com.neovim.msgpack.NeovimException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LuaFunctionTest {
+    private static final String SCRIPT = "local a, b = ...\nreturn a + b";
+
+    private final Set<String> registered = ConcurrentHashMap.newKeySet();
+    // "register" or "invoke" for every nvim_exec_lua request, in order
+    private final List<String> requests = new ArrayList<>();
+    private int unknownFailures = 0;
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    public void setUp() {
+        when(messagePackRPC.sendRequest(eq(Void.class), eq("nvim_exec_lua"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    assertThat(invocation.getArguments()[2], is(LuaFunction.REGISTER));
+                    requests.add("register");
+                    return CompletableFuture.completedFuture(null);
+                });
+        when(messagePackRPC.sendRequest(eq(Long.class), eq("nvim_exec_lua"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    assertThat(invocation.getArguments()[2], is(LuaFunction.INVOKE));
+                    requests.add("invoke");
+                    List<?> args = (List<?>) invocation.getArguments()[3];
+                    CompletableFuture<Long> result = new CompletableFuture<>();
+                    if (unknownFailures > 0) {
+                        unknownFailures--;
+                        result.completeExceptionally(new NeovimException(
+                                0, "Error: " + LuaFunction.UNKNOWN + args.get(0)));
+                    } else {
+                        result.complete(((Integer) args.get(1) + (Integer) args.get(2)) * 1L);
+                    }
+                    return result;
+                });
+    }
+
+    @Test
+    public void call_registersOnceThenInvokesById() throws Exception {
+        LuaFunction add = new LuaFunction(messagePackRPC, registered, SCRIPT);
+
+        assertThat(add.call(Long.class, 1, 2).get(), is(3L));
+        assertThat(add.call(Long.class, 3, 4).get(), is(7L));
+
+        assertThat(requests, contains("register", "invoke", "invoke"));
+    }
+
+    @Test
+    public void call_sameScript_sharesRegistration() throws Exception {
+        new LuaFunction(messagePackRPC, registered, SCRIPT).call(Long.class, 1, 2).get();
+        new LuaFunction(messagePackRPC, registered, SCRIPT).call(Long.class, 1, 2).get();
+
+        assertThat(requests, contains("register", "invoke", "invoke"));
+    }
+
+    @Test
+    public void call_unknownFunction_registersAgainAndRetries() throws Exception {
+        LuaFunction add = new LuaFunction(messagePackRPC, registered, SCRIPT);
+        add.call(Long.class, 1, 2).get();
+        unknownFailures = 1;
+
+        assertThat(add.call(Long.class, 1, 2).get(), is(3L));
+
+        assertThat(requests, contains("register", "invoke", "invoke", "register", "invoke"));
+    }
+
+    @Test
+    public void getId_sha1OfScript() {
+        LuaFunction add = new LuaFunction(messagePackRPC, registered, SCRIPT);
+
+        assertThat(add.getId(),
+                is(Hashing.sha1().hashString(SCRIPT, StandardCharsets.UTF_8).toString()));
+        assertThat(new LuaFunction(messagePackRPC, registered, SCRIPT + " ").getId(),
+                is(not(add.getId())));
+    }
+}
@@ -0,0 +1,108 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.MessagePackRPC;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.core.MessagePack;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NeovimModuleTest {
+    private static final long[] IDS = {
+            0, 1, 127, 128, 255, 256, 65535, 65536, 0xffffffffL, 0x100000000L, Long.MAX_VALUE,
+            -1, -32, -33, -128, -129, -32768, -32769, Integer.MIN_VALUE,
+            Integer.MIN_VALUE - 1L, Long.MIN_VALUE };
+
+    private ObjectMapper objectMapper;
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    public void setUp() {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        objectMapper.registerModule(new NeovimModule(messagePackRPC));
+    }
+
+    @Test
+    public void encodeId_sameBytesAsMessagePacker() throws Exception {
+        for (long id : IDS) {
+            assertThat(Long.toString(id), NeovimModule.encodeId(id), is(packLong(id)));
+        }
+    }
+
+    @Test
+    public void decodeId_inverseOfEncodeId() {
+        for (long id : IDS) {
+            assertThat(NeovimModule.decodeId(NeovimModule.encodeId(id)), is(id));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeId_notAnInteger_throws() {
+        NeovimModule.decodeId(new byte[] { (byte) 0xc0 });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeId_truncated_throws() {
+        NeovimModule.decodeId(new byte[] { (byte) 0xcd, 1 });
+    }
+
+    @Test
+    public void deserialize_sameId_sameInstance() throws Exception {
+        byte[] bytes = objectMapper.writeValueAsBytes(new Buffer(messagePackRPC, 300));
+
+        Buffer first = objectMapper.readValue(bytes, Buffer.class);
+        Buffer second = objectMapper.readValue(bytes, Buffer.class);
+
+        assertThat(first.getId(), is(300L));
+        assertThat(second, is(sameInstance(first)));
+    }
+
+    @Test
+    public void deserialize_differentConnections_differentInstances() throws Exception {
+        ObjectMapper other = new ObjectMapper(new MessagePackFactory());
+        other.registerModule(new NeovimModule(messagePackRPC));
+        byte[] bytes = objectMapper.writeValueAsBytes(new Window(messagePackRPC, 1));
+
+        assertThat(other.readValue(bytes, Window.class),
+                is(not(sameInstance(objectMapper.readValue(bytes, Window.class)))));
+    }
+
+    @Test
+    public void deserialize_wrongExtensionType_throws() throws Exception {
+        byte[] bytes = objectMapper.writeValueAsBytes(new TabPage(messagePackRPC, 1));
+        try {
+            objectMapper.readValue(bytes, Buffer.class);
+            fail();
+        } catch (JsonParseException expected) {
+        }
+    }
+
+    @Test
+    public void serialize_reusesExtensionType() throws Exception {
+        Buffer buffer = new Buffer(messagePackRPC, 5);
+        objectMapper.writeValueAsBytes(buffer);
+
+        assertThat(buffer.getExtensionType(), is(sameInstance(buffer.getExtensionType())));
+    }
+
+    private static byte[] packLong(long id) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessagePack.newDefaultPacker(out).packLong(id).close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,224 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.IOBiFunction;
+import com.neovim.msgpack.MessagePackRPC;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OptionCacheTest {
+    private static final TypeReference<Long> LONG = new TypeReference<Long>() {};
+
+    private ObjectMapper objectMapper;
+    private OptionEvents events;
+    private OptionCache cache;
+    private Buffer buffer;
+    private long shiftWidth = 4;
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        objectMapper.registerModule(new NeovimModule(messagePackRPC));
+        buffer = new Buffer(messagePackRPC, 1);
+        events = new OptionEvents();
+        when(messagePackRPC.sendRequest(any(TypeReference.class), eq("vim_get_api_info")))
+                .thenReturn(CompletableFuture.completedFuture(
+                        Arrays.asList(7, Collections.emptyMap())));
+        when(messagePackRPC.sendRequest(
+                any(IOBiFunction.class), eq("nvim_call_atomic"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    byte[] bytes = objectMapper.writeValueAsBytes(
+                            Arrays.asList(Arrays.asList(null, null, null), null));
+                    JsonParser parser = objectMapper.getFactory().createParser(bytes);
+                    parser.nextToken();
+                    return CompletableFuture.completedFuture(
+                            ((IOBiFunction<ObjectMapper, JsonParser, Object>)
+                                    invocation.getArguments()[0]).call(objectMapper, parser));
+                });
+        when(messagePackRPC.sendRequest(eq(Long.class), eq("vim_get_option"), anyVararg()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(shiftWidth));
+        when(messagePackRPC.sendRequest(
+                any(TypeReference.class), eq("buffer_get_option"), anyVararg()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(shiftWidth));
+        when(messagePackRPC.sendRequest(
+                any(TypeReference.class), eq("buffer_get_var"), anyVararg()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(shiftWidth));
+        cache = new OptionCache(messagePackRPC, events, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void attach_installsAutocommandForChannel() throws Exception {
+        cache.attach().get();
+
+        ArgumentCaptor<Object> calls = ArgumentCaptor.forClass(Object.class);
+        verify(messagePackRPC).sendRequest(
+                any(IOBiFunction.class), eq("nvim_call_atomic"), calls.capture());
+        List<List<Object>> commands = (List<List<Object>>) calls.getValue();
+        assertThat(commands.size(), is(3));
+        assertThat(((List<Object>) commands.get(2).get(1)).get(0).toString(),
+                containsString("OptionSet * call rpcnotify(7, 'neovim_java_option_set'"));
+    }
+
+    @Test
+    public void getOption_cachedUntilOptionSet() throws Exception {
+        cache.attach().get();
+
+        assertThat(cache.getOption(Long.class, "shiftwidth").get(), is(4L));
+        assertThat(cache.getOption(buffer, LONG, "shiftwidth").get(), is(4L));
+        shiftWidth = 8;
+        assertThat(cache.getOption(Long.class, "shiftwidth").get(), is(4L));
+
+        events.optionSet("shiftwidth");
+
+        assertThat(cache.getOption(Long.class, "shiftwidth").get(), is(8L));
+        assertThat(cache.getOption(buffer, LONG, "shiftwidth").get(), is(8L));
+        assertThat(cache.stats().hitCount(), is(1L));
+        assertThat(cache.stats().missCount(), is(4L));
+    }
+
+    @Test
+    public void getOption_otherOptionSet_staysCached() throws Exception {
+        cache.attach().get();
+        cache.getOption(Long.class, "shiftwidth").get();
+
+        events.optionSet("tabstop");
+        cache.getOption(Long.class, "shiftwidth").get();
+
+        verify(messagePackRPC, times(1))
+                .sendRequest(eq(Long.class), eq("vim_get_option"), anyVararg());
+    }
+
+    @Test
+    public void getOption_beforeAttach_notCached() throws Exception {
+        cache.getOption(Long.class, "shiftwidth").get();
+        cache.getOption(Long.class, "shiftwidth").get();
+
+        verify(messagePackRPC, times(2))
+                .sendRequest(eq(Long.class), eq("vim_get_option"), anyVararg());
+    }
+
+    @Test
+    public void getVar_expiresAfterTtl() throws Exception {
+        cache = new OptionCache(messagePackRPC, events, 0, TimeUnit.MILLISECONDS);
+        cache.attach().get();
+
+        cache.getVar(buffer, LONG, "indent").get();
+        cache.getVar(buffer, LONG, "indent").get();
+
+        assertThat(cache.stats().missCount(), is(2L));
+    }
+
+    @Test
+    public void getVar_withinTtl_cached() throws Exception {
+        cache.attach().get();
+
+        cache.getVar(buffer, LONG, "indent").get();
+        shiftWidth = 8;
+
+        assertThat(cache.getVar(buffer, LONG, "indent").get(), is(4L));
+    }
+
+    @Test
+    public void close_stopsCaching() throws Exception {
+        cache.attach().get();
+        cache.getOption(Long.class, "shiftwidth").get();
+
+        cache.close();
+        shiftWidth = 8;
+
+        assertThat(cache.getOption(Long.class, "shiftwidth").get(), is(8L));
+    }
+
+    @Test
+    public void getOption_concurrentMisses_oneRequest() throws Exception {
+        CompletableFuture<Long> response = new CompletableFuture<>();
+        when(messagePackRPC.sendRequest(eq(Long.class), eq("vim_get_option"), anyVararg()))
+                .thenReturn(response);
+        cache.attach().get();
+
+        CompletableFuture<Long> first = cache.getOption(Long.class, "shiftwidth");
+        CompletableFuture<Long> second = cache.getOption(Long.class, "shiftwidth");
+        response.complete(4L);
+
+        assertThat(first.get(), is(4L));
+        assertThat(second.get(), is(4L));
+        verify(messagePackRPC, times(1))
+                .sendRequest(eq(Long.class), eq("vim_get_option"), anyVararg());
+    }
+
+    @Test
+    public void getOption_optionSetWhileInFlight_notCached() throws Exception {
+        CompletableFuture<Long> response = new CompletableFuture<>();
+        when(messagePackRPC.sendRequest(eq(Long.class), eq("vim_get_option"), anyVararg()))
+                .thenReturn(response)
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(8L));
+        cache.attach().get();
+
+        CompletableFuture<Long> stale = cache.getOption(Long.class, "shiftwidth");
+        events.optionSet("shiftwidth");
+        response.complete(4L);
+
+        assertThat(stale.get(), is(4L));
+        assertThat(cache.getOption(Long.class, "shiftwidth").get(), is(8L));
+    }
+
+    @Test
+    public void close_lastCache_removesAutocommand() throws Exception {
+        OptionCache other = new OptionCache(messagePackRPC, events, 1, TimeUnit.HOURS);
+        cache.attach().get();
+        other.attach().get();
+
+        cache.close();
+        verify(messagePackRPC, never()).sendNotification(eq("vim_command"), anyVararg());
+
+        other.close();
+        other.close();
+        verify(messagePackRPC).sendNotification(
+                "vim_command", "silent! autocmd! neovim_java_option_cache");
+    }
+
+    @Test
+    public void dispatcher_routesOptionSet() throws Exception {
+        cache.attach().get();
+        cache.getOption(Long.class, "shiftwidth").get();
+        Dispatcher dispatcher = new Dispatcher(objectMapper);
+        dispatcher.register(events);
+        shiftWidth = 2;
+
+        JsonNode args = objectMapper.readTree(objectMapper.writeValueAsBytes(
+                Collections.singletonList("shiftwidth")));
+        dispatcher.dispatchMethod(OptionEvents.OPTION_SET, args);
+
+        assertThat(cache.getOption(Long.class, "shiftwidth").get(), is(2L));
+    }
+}
@@ -0,0 +1,121 @@
+package com.neovim;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class StripedExecutorTest {
+    private static final int TASKS = 1000;
+
+    @Rule public Timeout globalTimeout = new Timeout(10000);
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void execute_sameKey_runsInSubmissionOrder() throws Exception {
+        StripedExecutor striped = new StripedExecutor(executorService, 8);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(TASKS);
+
+        for (int i = 0; i < TASKS; i++) {
+            int task = i;
+            striped.execute(42, () -> {
+                order.add(task);
+                done.countDown();
+            });
+        }
+
+        done.await();
+        assertThat(order, is(IntStream.range(0, TASKS).boxed().collect(Collectors.toList())));
+    }
+
+    @Test
+    public void execute_differentKeys_runInParallel() throws Exception {
+        StripedExecutor striped = new StripedExecutor(executorService, 8);
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+
+        for (int key = 0; key < 2; key++) {
+            striped.execute(key, () -> {
+                bothRunning.countDown();
+                try {
+                    // Only completes if the other key's task runs at the same time
+                    bothRunning.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void execute_taskThrows_laterTasksStillRun() throws Exception {
+        StripedExecutor striped = new StripedExecutor(executorService, 1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        striped.execute(1, () -> {
+            throw new RuntimeException("expected");
+        });
+        striped.execute(1, done::countDown);
+
+        done.await();
+    }
+
+    @Test
+    public void execute_executorShutDown_rejected() throws Exception {
+        StripedExecutor striped = new StripedExecutor(executorService, 1);
+        executorService.shutdown();
+
+        try {
+            striped.execute(1, () -> {});
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void execute_rejectedWhileOtherTaskQueued_otherTaskStillRuns() throws Exception {
+        List<String> ran = new ArrayList<>();
+        StripedExecutor[] striped = new StripedExecutor[1];
+        striped[0] = new StripedExecutor(stripe -> {
+            // Another producer adds to the stripe before the executor rejects it
+            striped[0].execute(1, () -> ran.add("queued"));
+            throw new RejectedExecutionException();
+        }, 1);
+
+        try {
+            striped[0].execute(1, () -> ran.add("rejected"));
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        assertThat(ran, contains("queued"));
+    }
+}
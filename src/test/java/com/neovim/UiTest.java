@@ -0,0 +1,128 @@
+package com.neovim;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neovim.msgpack.MessagePackRPC;
+import com.neovim.msgpack.RedrawDecoder;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UiTest {
+    private ObjectMapper objectMapper;
+    private Ui ui;
+    private final List<String> flushed = new ArrayList<>();
+
+    @Mock MessagePackRPC messagePackRPC;
+
+    @Before
+    public void setUp() {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        objectMapper.registerModule(new NeovimModule(messagePackRPC));
+        ui = new Ui(messagePackRPC, ui -> {
+            Grid grid = ui.getGrid(1);
+            StringBuilder builder = new StringBuilder();
+            for (int col = 0; col < grid.getWidth(); col++) {
+                builder.append(grid.getText(0, col));
+            }
+            flushed.add(builder.toString());
+        });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void attach_enablesLineGrid() {
+        List<Object> args = new ArrayList<>();
+        when(messagePackRPC.sendRequest(eq(Void.class), eq("nvim_ui_attach"), anyVararg()))
+                .thenAnswer(invocation -> {
+                    args.addAll(Arrays.asList(invocation.getArguments()));
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        assertThat(ui.attach(80, 24, Collections.singletonMap("rgb", false)).join(), is(ui));
+
+        assertThat(args.subList(2, 4), is(Arrays.<Object>asList(80, 24)));
+        Map<String, Object> options = (Map<String, Object>) args.get(4);
+        assertThat(options.get("ext_linegrid"), is(true));
+        assertThat(options.get("rgb"), is(false));
+    }
+
+    @Test
+    public void redraw_appliesGridEvents() throws Exception {
+        redraw(
+                Arrays.asList("grid_resize", Arrays.asList(1, 6, 2)),
+                Arrays.asList("grid_clear", Arrays.asList(1)),
+                Arrays.asList("grid_line",
+                        Arrays.asList(1, 0, 0, Arrays.asList(
+                                Arrays.asList("a", 3),
+                                Arrays.asList("b"),
+                                Arrays.asList("-", 0, 2),
+                                Arrays.asList("e\u0301", 4)))),
+                Arrays.asList("grid_cursor_goto", Arrays.asList(1, 0, 4)),
+                Arrays.asList("flush", Collections.emptyList()));
+
+        Grid grid = ui.getGrid(1);
+        assertThat(flushed, is(Arrays.asList("ab--e\u0301 ")));
+        assertThat(grid.getHighlight(0, 1), is(3));
+        assertThat(grid.getHighlight(0, 2), is(0));
+        assertThat(grid.getHighlight(0, 4), is(4));
+        assertThat(ui.getCursorCol(), is(4));
+    }
+
+    @Test
+    public void redraw_scrollAndDestroy() throws Exception {
+        redraw(
+                Arrays.asList("grid_resize", Arrays.asList(1, 3, 2)),
+                Arrays.asList("grid_line",
+                        Arrays.asList(1, 1, 0, Arrays.asList(Arrays.asList("x", 0, 3)))),
+                Arrays.asList("grid_scroll", Arrays.asList(1, 0, 2, 0, 3, 1, 0)),
+                Arrays.asList("flush", Collections.emptyList()),
+                Arrays.asList("grid_resize", Arrays.asList(2, 1, 1)),
+                Arrays.asList("grid_destroy", Arrays.asList(2)));
+
+        assertThat(flushed, is(Arrays.asList("xxx")));
+        assertThat(ui.getGrids().size(), is(1));
+    }
+
+    @Test
+    public void redraw_highlights() throws Exception {
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("foreground", 0x00ff00);
+        attrs.put("bold", true);
+        redraw(
+                Arrays.asList("default_colors_set", Arrays.asList(0xffffff, 0x202020, -1, 7, 0)),
+                Arrays.asList("hl_attr_define",
+                        Arrays.asList(5, attrs, Collections.emptyMap(), Collections.emptyList())));
+
+        Highlights highlights = ui.getHighlights();
+        long packed = highlights.get(5);
+        assertThat(highlights.foreground(packed), is(0x00ff00));
+        assertThat(highlights.background(packed), is(0x202020));
+        assertThat(Highlights.hasStyle(packed, Highlights.BOLD), is(true));
+    }
+
+    private void redraw(Object... batches) throws Exception {
+        JsonParser parser = objectMapper.getFactory()
+                .createParser(objectMapper.writeValueAsBytes(Arrays.asList(batches)));
+        parser.nextToken();
+        new RedrawDecoder(objectMapper).decode(parser, ui.redrawHandler());
+    }
+}
@@ -0,0 +1,75 @@
+package com.neovim.msgpack;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class HashedWheelTimerTest {
+    private final HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 8);
+
+    @Rule public Timeout globalTimeout = new Timeout(10000);
+
+    @After
+    public void tearDown() {
+        timer.close();
+    }
+
+    @Test
+    public void newTimeout_runsTaskAfterDelay() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        HashedWheelTimer.Timeout timeout =
+                timer.newTimeout(latch::countDown, 20, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        assertThat(System.nanoTime() - start,
+                greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20)));
+        assertThat(timeout.isExpired(), is(true));
+    }
+
+    @Test
+    public void newTimeout_delayLongerThanWheel_runsAfterMultipleRounds() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.newTimeout(latch::countDown, 30, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        assertThat(System.nanoTime() - start,
+                greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(30)));
+    }
+
+    @Test
+    public void cancel_taskNeverRuns() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelTimer.Timeout timeout =
+                timer.newTimeout(runs::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+
+        assertThat(timeout.cancel(), is(true));
+        Thread.sleep(50);
+        assertThat(runs.get(), is(0));
+        assertThat(timeout.isCancelled(), is(true));
+        assertThat(timeout.cancel(), is(false));
+    }
+
+    @Test
+    public void cancel_afterExpired_returnsFalse() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        HashedWheelTimer.Timeout timeout =
+                timer.newTimeout(latch::countDown, 1, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        assertThat(timeout.cancel(), is(false));
+    }
+}
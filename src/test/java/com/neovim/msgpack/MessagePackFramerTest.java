@@ -0,0 +1,162 @@
+package com.neovim.msgpack;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MessagePackFramerTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final List<Integer> ends = new ArrayList<>();
+    private MessagePacker packer;
+
+    @Before
+    public void setUp() {
+        packer = MessagePack.newDefaultPacker(bytes);
+    }
+
+    @Test
+    public void feed_byteByByte_completesAtTheEndOfEveryValue() throws Exception {
+        packEveryFormat();
+        byte[] stream = bytes.toByteArray();
+
+        MessagePackFramer framer = new MessagePackFramer();
+        List<Integer> completed = new ArrayList<>();
+        for (int i = 0; i < stream.length; i++) {
+            ByteBuffer buffer = ByteBuffer.wrap(stream, i, 1);
+            if (framer.feed(buffer)) {
+                completed.add(i + 1);
+            }
+            assertThat(buffer.hasRemaining(), is(false));
+        }
+
+        assertThat(completed, is(ends));
+        assertThat(framer.inValue(), is(false));
+    }
+
+    @Test
+    public void feed_chunks_stopsAtTheEndOfEveryValue() throws Exception {
+        packEveryFormat();
+        byte[] stream = bytes.toByteArray();
+        Random random = new Random(7);
+
+        for (int round = 0; round < 20; round++) {
+            MessagePackFramer framer = new MessagePackFramer();
+            List<Integer> completed = new ArrayList<>();
+            int position = 0;
+            while (position < stream.length) {
+                int length = Math.min(stream.length - position, 1 + random.nextInt(100));
+                ByteBuffer chunk = ByteBuffer.wrap(stream, position, length);
+                while (chunk.hasRemaining()) {
+                    if (framer.feed(chunk)) {
+                        completed.add(chunk.position());
+                    }
+                }
+                position += length;
+            }
+            assertThat(completed, is(ends));
+        }
+    }
+
+    @Test
+    public void feed_incompleteValue_inValueUntilComplete() throws Exception {
+        packer.packArrayHeader(2).packInt(1).packString("abc");
+        packer.packArrayHeader(2).packInt(2).packString("defgh");
+        packer.flush();
+        byte[] stream = bytes.toByteArray();
+        // The first value is 6 bytes
+        ByteBuffer buffer = ByteBuffer.wrap(stream, 0, 9);
+        MessagePackFramer framer = new MessagePackFramer();
+
+        assertThat(framer.feed(buffer), is(true));
+        assertThat(buffer.position(), is(6));
+        assertThat(framer.feed(buffer), is(false));
+        assertThat(buffer.position(), is(9));
+        assertThat(framer.inValue(), is(true));
+        assertThat(framer.feed(ByteBuffer.wrap(stream, 9, stream.length - 9)), is(true));
+        assertThat(framer.inValue(), is(false));
+    }
+
+    @Test(expected = IOException.class)
+    public void feed_neverUsedPrefix_throws() throws Exception {
+        new MessagePackFramer().feed(ByteBuffer.wrap(new byte[] {(byte) 0xc1}));
+    }
+
+    private void packEveryFormat() throws IOException {
+        value().packNil();
+        value().packBoolean(true);
+        value().packInt(5);
+        value().packInt(-3);
+        value().packInt(200);
+        value().packInt(-100);
+        value().packInt(40000);
+        value().packInt(-30000);
+        value().packLong(3000000000L);
+        value().packInt(-2000000000);
+        value().packLong(Long.MAX_VALUE);
+        value().packLong(Long.MIN_VALUE);
+        value().packFloat(1.5f);
+        value().packDouble(2.5);
+        value().packString("fix");
+        value().packString(repeat('a', 100));
+        value().packString(repeat('b', 1000));
+        value().packString(repeat('c', 70000));
+        value().packBinaryHeader(3).writePayload(new byte[3]);
+        value().packBinaryHeader(300).writePayload(new byte[300]);
+        value().packBinaryHeader(70000).writePayload(new byte[70000]);
+        for (int length : Arrays.asList(1, 2, 4, 8, 16, 3, 300, 70000)) {
+            value().packExtensionTypeHeader((byte) 1, length).writePayload(new byte[length]);
+        }
+        value().packArrayHeader(0);
+        value().packArrayHeader(20);
+        for (int i = 0; i < 20; i++) {
+            packer.packArrayHeader(1).packMapHeader(1).packString("k").packInt(i);
+        }
+        value().packArrayHeader(70000);
+        for (int i = 0; i < 70000; i++) {
+            packer.packNil();
+        }
+        value().packMapHeader(0);
+        value().packMapHeader(20);
+        for (int i = 0; i < 20; i++) {
+            packer.packInt(i).packArrayHeader(2).packNil().packString("v");
+        }
+        value().packMapHeader(70000);
+        for (int i = 0; i < 70000; i++) {
+            packer.packInt(i).packBoolean(false);
+        }
+        // A redraw notification like neovim sends
+        value().packArrayHeader(3).packInt(Packet.NOTIFICATION_ID).packString("redraw")
+                .packArrayHeader(1).packArrayHeader(2).packString("flush").packArrayHeader(0);
+        packer.flush();
+        ends.add(bytes.size());
+    }
+
+    /**
+     * Ends the value before, the packer to write the next one with.
+     */
+    private MessagePacker value() throws IOException {
+        packer.flush();
+        if (bytes.size() > 0) {
+            ends.add(bytes.size());
+        }
+        return packer;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
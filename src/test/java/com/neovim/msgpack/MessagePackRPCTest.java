@@ -1,5 +1,7 @@
 package com.neovim.msgpack;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Before;
@@ -9,24 +11,40 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 
 import static com.google.common.primitives.Bytes.concat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
-import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -159,13 +177,390 @@ public class MessagePackRPCTest {
         assertThat(value.get(0).asInt(), is(ARG));
     }
 
+    @Test
+    public void receiverThread_response_completesRequestWithBoundResult() throws Exception {
+        MessagePackRPC messagePackRPC = withInput(
+                pack(Packet.RESPONSE_ID, 0, null, Arrays.asList("a".getBytes(), "b".getBytes())));
+        CompletableFuture<List<byte[]>> future =
+                messagePackRPC.sendRequest(new TypeReference<List<byte[]>>() {}, METHOD);
+        messagePackRPC.start();
+        messagePackRPC.close();
+
+        List<byte[]> result = future.get();
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0), is("a".getBytes()));
+        assertThat(result.get(1), is("b".getBytes()));
+    }
+
+    @Test
+    public void receiverThread_errorResponse_completesRequestExceptionally() throws Exception {
+        MessagePackRPC messagePackRPC
+                = withInput(pack(Packet.RESPONSE_ID, 0, Arrays.asList(1, "error"), null));
+        CompletableFuture<Object> future = messagePackRPC.sendRequest(Object.class, METHOD);
+        messagePackRPC.start();
+        messagePackRPC.close();
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException expected) {
+            NeovimException exception = (NeovimException) expected.getCause();
+            assertThat(exception.getErrorCode(), is(1L));
+            assertThat(exception.getMessage(), is("error"));
+        }
+    }
+
+    @Test
+    public void receiverThread_resultFailsToBind_nextPacketStillRead() throws Exception {
+        byte[] badResponse = pack(Packet.RESPONSE_ID, 0, null, Arrays.asList("a", ARGS));
+        byte[] notification = pack(Packet.NOTIFICATION_ID, METHOD, ARGS);
+        MessagePackRPC messagePackRPC = withInput(concat(badResponse, notification));
+        messagePackRPC.setNotificationHandler(notificationHandler);
+        CompletableFuture<List<Integer>> future =
+                messagePackRPC.sendRequest(new TypeReference<List<Integer>>() {}, METHOD);
+        messagePackRPC.start();
+        messagePackRPC.close();
+
+        assertThat(future.isCompletedExceptionally(), is(true));
+        verify(notificationHandler).accept(stringCaptor.capture(), valueCaptor.capture());
+        assertThat(stringCaptor.getValue(), is(METHOD));
+    }
+
+    @Test
+    public void receiverThread_redrawHandler_decodesRedrawAndSkipsFailedOnes() throws Exception {
+        byte[] redraw = pack(Packet.NOTIFICATION_ID, "redraw", Arrays.asList(
+                Arrays.asList("grid_clear", Arrays.asList(1)),
+                Arrays.asList("flush", Collections.emptyList())));
+        byte[] notification = pack(Packet.NOTIFICATION_ID, METHOD, ARGS);
+        MessagePackRPC messagePackRPC = withInput(concat(redraw, redraw, notification));
+        RedrawHandler redrawHandler = mock(RedrawHandler.class);
+        doThrow(new IllegalStateException("failed")).doNothing().when(redrawHandler).onGridClear(1);
+        messagePackRPC.setNotificationHandler(notificationHandler);
+        messagePackRPC.setRedrawHandler(redrawHandler);
+        messagePackRPC.start();
+        messagePackRPC.close();
+
+        verify(redrawHandler, times(2)).onGridClear(1);
+        verify(redrawHandler).onFlush();
+        verify(notificationHandler).accept(stringCaptor.capture(), valueCaptor.capture());
+        assertThat(stringCaptor.getValue(), is(METHOD));
+    }
+
+    @Test
+    public void receiverThread_notificationReader_readsArgumentsFromParser() throws Exception {
+        byte[] read = pack(Packet.NOTIFICATION_ID, "read", Arrays.asList(ARG, "text"));
+        byte[] notification = pack(Packet.NOTIFICATION_ID, METHOD, ARGS);
+        MessagePackRPC messagePackRPC = withInput(concat(read, notification));
+        List<Object> values = new ArrayList<>();
+        messagePackRPC.setNotificationHandler(notificationHandler);
+        messagePackRPC.setNotificationReader("read", (objectMapper, parser) -> {
+            parser.nextToken();
+            values.add(parser.getIntValue());
+            parser.nextToken();
+            values.add(parser.getBinaryValue());
+            parser.nextToken();
+        });
+        messagePackRPC.start();
+        messagePackRPC.close();
+
+        assertThat(values.get(0), is((Object) ARG));
+        assertThat(values.get(1), is((Object) "text".getBytes(StandardCharsets.UTF_8)));
+        verify(notificationHandler).accept(stringCaptor.capture(), valueCaptor.capture());
+        assertThat(stringCaptor.getValue(), is(METHOD));
+    }
+
+    @Test
+    public void receiverThread_redrawMappingFails_keepsReading() throws Exception {
+        byte[] malformed = pack(Packet.NOTIFICATION_ID, "redraw", Collections.singletonList(
+                Arrays.asList("grid_clear", Collections.singletonList("grid"))));
+        byte[] redraw = pack(Packet.NOTIFICATION_ID, "redraw", Collections.singletonList(
+                Arrays.asList("grid_clear", Collections.singletonList(1))));
+        MessagePackRPC messagePackRPC = withInput(concat(malformed, redraw));
+        RedrawHandler redrawHandler = mock(RedrawHandler.class);
+        messagePackRPC.setRedrawHandler(redrawHandler);
+        messagePackRPC.start();
+        messagePackRPC.close();
+
+        verify(redrawHandler).onGridClear(1);
+    }
+
+    @Test
+    public void receiverThread_notificationReaderThrowsIOException_keepsReading()
+            throws Exception {
+        byte[] read = pack(Packet.NOTIFICATION_ID, "read", Arrays.asList(ARG, "text"));
+        byte[] notification = pack(Packet.NOTIFICATION_ID, METHOD, ARGS);
+        MessagePackRPC messagePackRPC = withInput(concat(read, notification));
+        messagePackRPC.setNotificationHandler(notificationHandler);
+        messagePackRPC.setNotificationReader("read", (objectMapper, parser) -> {
+            throw new JsonMappingException("expected");
+        });
+        messagePackRPC.start();
+        messagePackRPC.close();
+
+        verify(notificationHandler).accept(stringCaptor.capture(), valueCaptor.capture());
+        assertThat(stringCaptor.getValue(), is(METHOD));
+    }
+
+    @Test
+    public void receiverThread_response_releasesCallback() throws Exception {
+        MessagePackRPC messagePackRPC = withInput(pack(Packet.RESPONSE_ID, 0, null, ARG));
+        CompletableFuture<Integer> future = messagePackRPC.sendRequest(Integer.class, METHOD);
+        assertThat(messagePackRPC.getPendingRequestCount(), is(1));
+        messagePackRPC.start();
+        messagePackRPC.close();
+
+        assertThat(future.get(), is(ARG));
+        assertThat(messagePackRPC.getPendingRequestCount(), is(0));
+    }
+
+    @Test
+    public void sendRequest_cancel_releasesCallback() throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID);
+        CompletableFuture<Object> future = messagePackRPC.sendRequest(Object.class, METHOD, ARG);
+
+        future.cancel(false);
+
+        assertThat(messagePackRPC.getPendingRequestCount(), is(0));
+    }
+
+    @Test
+    public void sendRequest_noResponseWithinTimeout_timeoutExceptionAndReleased()
+            throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID);
+        CompletableFuture<Object> future = messagePackRPC.sendRequest(
+                10, TimeUnit.MILLISECONDS, Object.class, METHOD, ARG);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertThat(expected.getCause(), instanceOf(TimeoutException.class));
+        }
+        assertThat(messagePackRPC.getPendingRequestCount(), is(0));
+    }
+
+    @Test
+    public void sendRequest_methodTimeout_appliesToMethod() throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID, REQUEST_ID + 1);
+        messagePackRPC.setTimeout(METHOD, 10, TimeUnit.MILLISECONDS);
+        CompletableFuture<Object> timed = messagePackRPC.sendRequest(Object.class, METHOD, ARG);
+        CompletableFuture<Object> untimed = messagePackRPC.sendRequest(Object.class, "other");
+
+        try {
+            timed.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertThat(expected.getCause(), instanceOf(TimeoutException.class));
+        }
+        assertThat(untimed.isDone(), is(false));
+    }
+
+    @Test
+    public void sendRequest_queuedPastTimeout_timesOutWhileQueued() throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID);
+        messagePackRPC.setMaxInFlight(1, OverflowPolicy.QUEUE);
+        messagePackRPC.sendRequest(Object.class, METHOD, ARG);
+        CompletableFuture<Object> queued = messagePackRPC.sendRequest(
+                10, TimeUnit.MILLISECONDS, Object.class, METHOD, ARG);
+
+        try {
+            queued.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertThat(expected.getCause(), instanceOf(TimeoutException.class));
+        }
+        assertThat(messagePackRPC.getRequestQueueStats().getQueued(), is(0));
+    }
+
+    @Test
+    public void close_queuedRequest_completedExceptionally() throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID);
+        messagePackRPC.setMaxInFlight(1, OverflowPolicy.QUEUE);
+        messagePackRPC.sendRequest(Object.class, METHOD, ARG);
+        CompletableFuture<Object> queued = messagePackRPC.sendRequest(Object.class, METHOD, ARG);
+        assertThat(messagePackRPC.getRequestQueueStats().getQueued(), is(1));
+
+        messagePackRPC.close();
+
+        assertThat(queued.isCompletedExceptionally(), is(true));
+        assertThat(messagePackRPC.getRequestQueueStats().getQueued(), is(0));
+    }
+
+    @Test
+    public void close_pendingRequest_completedExceptionally() throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID);
+        CompletableFuture<Object> future = messagePackRPC.sendRequest(Object.class, METHOD, ARG);
+
+        messagePackRPC.close();
+
+        assertThat(future.isCompletedExceptionally(), is(true));
+        assertThat(messagePackRPC.getPendingRequestCount(), is(0));
+    }
+
+    @Test
+    public void receiverThread_asyncRequestHandler_respondsWhenFutureCompletes()
+            throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] first = pack(Packet.REQUEST_ID, REQUEST_ID, METHOD, ARGS);
+        byte[] second = pack(Packet.REQUEST_ID, REQUEST_ID + 1, METHOD, ARGS);
+        MessagePackRPC messagePackRPC = new MessagePackRPC(
+                new TestConnection(new ByteArrayInputStream(concat(first, second)), output));
+        CompletableFuture<Object> slow = new CompletableFuture<>();
+        CompletableFuture<Object> fast = new CompletableFuture<>();
+        List<CompletableFuture<Object>> results = new ArrayList<>(Arrays.asList(slow, fast));
+        messagePackRPC.setRequestHandler((method, arg) -> results.remove(0));
+        messagePackRPC.start();
+
+        // Both requests are read and waiting for their result before either one is answered
+        while (slow.getNumberOfDependents() == 0 || fast.getNumberOfDependents() == 0) {
+            Thread.sleep(1);
+        }
+        fast.complete("fast");
+        slow.complete("slow");
+        messagePackRPC.close();
+
+        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(output.toByteArray());
+        assertThat(unpacker.unpackArrayHeader(), is(4));
+        assertThat(unpacker.unpackInt(), is(Packet.RESPONSE_ID));
+        assertThat(unpacker.unpackLong(), is(REQUEST_ID + 1));
+        unpacker.unpackNil();
+        assertThat(unpacker.unpackString(), is("fast"));
+        assertThat(unpacker.unpackArrayHeader(), is(4));
+        assertThat(unpacker.unpackInt(), is(Packet.RESPONSE_ID));
+        assertThat(unpacker.unpackLong(), is(REQUEST_ID));
+        unpacker.unpackNil();
+        assertThat(unpacker.unpackString(), is("slow"));
+    }
+
+    @Test
+    public void receiverThread_handlerWaitsOnRequest_readsNestedPacketsUntilResponse()
+            throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID);
+        byte[] input = concat(
+                pack(Packet.NOTIFICATION_ID, "outer", ARGS),
+                pack(Packet.NOTIFICATION_ID, "nested", ARGS),
+                pack(Packet.RESPONSE_ID, REQUEST_ID, null, "result"),
+                pack(Packet.NOTIFICATION_ID, "after", ARGS));
+        MessagePackRPC messagePackRPC = new MessagePackRPC(
+                new TestConnection(new ByteArrayInputStream(input), new ByteArrayOutputStream()),
+                MessagePackRPC.defaultObjectMapper(),
+                idGenerator);
+        List<String> events = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        messagePackRPC.setNotificationHandler((method, arg) -> {
+            if (method.equals("outer")) {
+                try {
+                    // Would deadlock if the receiver thread only blocked here
+                    events.add(messagePackRPC.sendRequest(String.class, METHOD).get());
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new AssertionError(e);
+                }
+            } else {
+                events.add(method);
+            }
+            if (method.equals("after")) {
+                done.countDown();
+            }
+        });
+        messagePackRPC.start();
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        messagePackRPC.close();
+
+        assertThat(events, contains("nested", "result", "after"));
+    }
+
+    @Test
+    public void receiverThread_handlerJoinsDerivedFuture_readsNestedPackets() throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID);
+        byte[] input = concat(
+                pack(Packet.NOTIFICATION_ID, "outer", ARGS),
+                pack(Packet.RESPONSE_ID, REQUEST_ID, null, "result"));
+        MessagePackRPC messagePackRPC = new MessagePackRPC(
+                new TestConnection(new ByteArrayInputStream(input), new ByteArrayOutputStream()),
+                MessagePackRPC.defaultObjectMapper(),
+                idGenerator);
+        List<String> events = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        messagePackRPC.setNotificationHandler((method, arg) -> {
+            events.add(messagePackRPC.sendRequest(String.class, METHOD)
+                    .thenApply(String::toUpperCase)
+                    .join());
+            done.countDown();
+        });
+        messagePackRPC.start();
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        messagePackRPC.close();
+
+        assertThat(events, contains("RESULT"));
+    }
+
+    @Test
+    public void receiverThread_handlerJoinsComposedFuture_readsNestedPackets() throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID, REQUEST_ID + 1);
+        byte[] input = concat(
+                pack(Packet.NOTIFICATION_ID, "outer", ARGS),
+                pack(Packet.RESPONSE_ID, REQUEST_ID, null, "first"),
+                pack(Packet.RESPONSE_ID, REQUEST_ID + 1, null, "second"));
+        MessagePackRPC messagePackRPC = new MessagePackRPC(
+                new TestConnection(new ByteArrayInputStream(input), new ByteArrayOutputStream()),
+                MessagePackRPC.defaultObjectMapper(),
+                idGenerator);
+        List<String> events = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        messagePackRPC.setNotificationHandler((method, arg) -> {
+            events.add(messagePackRPC.sendRequest(String.class, METHOD)
+                    .thenCompose(first -> messagePackRPC.sendRequest(String.class, METHOD)
+                            .thenApply(second -> first + " " + second))
+                    .handle((value, error) -> error == null ? value : error.toString())
+                    .join());
+            done.countDown();
+        });
+        messagePackRPC.start();
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        messagePackRPC.close();
+
+        assertThat(events, contains("first second"));
+    }
+
+    @Test
+    public void receiverThread_handlerWaitsOnRequest_inputEnds_failsRequest() throws Exception {
+        when(idGenerator.nextId()).thenReturn(REQUEST_ID);
+        MessagePackRPC messagePackRPC = new MessagePackRPC(
+                new TestConnection(
+                        new ByteArrayInputStream(pack(Packet.NOTIFICATION_ID, "outer", ARGS)),
+                        new ByteArrayOutputStream()),
+                MessagePackRPC.defaultObjectMapper(),
+                idGenerator);
+        List<Throwable> errors = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        messagePackRPC.setNotificationHandler((method, arg) -> {
+            try {
+                messagePackRPC.sendRequest(String.class, METHOD).get();
+            } catch (InterruptedException | ExecutionException e) {
+                errors.add(e.getCause());
+            }
+            done.countDown();
+        });
+        messagePackRPC.start();
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        messagePackRPC.close();
+
+        assertThat(errors.size(), is(1));
+        assertThat(errors.get(0), instanceOf(IOException.class));
+    }
+
     @Test
     public void sendRequest_callsObjectMapperWithRequest() throws Exception {
         when(idGenerator.nextId()).thenReturn(REQUEST_ID);
         messagePackRPC.sendRequest(Object.class, METHOD, ARG);
 
-        verify(objectMapper).writeValue(eq(outputStream), packetCaptor.capture());
-        verify(outputStream).flush();
+        verify(objectMapper, timeout(1000))
+                .writeValue(any(OutputStream.class), packetCaptor.capture());
+        verify(outputStream, timeout(1000)).flush();
 
         Request request = (Request) packetCaptor.getValue();
         assertThat(request.getRequestId(), is(REQUEST_ID));
@@ -177,8 +572,9 @@ public class MessagePackRPCTest {
     public void sendNotification_callsObjectMapperWithNotification() throws Exception {
         messagePackRPC.sendNotification(METHOD, ARG);
 
-        verify(objectMapper).writeValue(eq(outputStream), packetCaptor.capture());
-        verify(outputStream).flush();
+        verify(objectMapper, timeout(1000))
+                .writeValue(any(OutputStream.class), packetCaptor.capture());
+        verify(outputStream, timeout(1000)).flush();
 
         Notification request = (Notification) packetCaptor.getValue();
         assertThat(request.getMethod(), is(METHOD));
@@ -189,7 +585,7 @@ public class MessagePackRPCTest {
     public void close_receiverThreadException_wrappedInCompletionException()
             throws IOException, InterruptedException {
         RuntimeException exception = new RuntimeException();
-        when(objectMapper.readTree(inputStream)).thenThrow(exception);
+        when(objectMapper.getFactory()).thenThrow(exception);
         messagePackRPC.start();
 
         try {
@@ -209,6 +605,16 @@ public class MessagePackRPCTest {
         verify(connection).close();
     }
 
+    @Test
+    public void sendNotification_afterClose_throwsUncheckedIOException() throws Exception {
+        messagePackRPC.close();
+
+        try {
+            messagePackRPC.sendNotification(METHOD, ARG);
+            fail();
+        } catch (UncheckedIOException expected) {}
+    }
+
     private class TestConnection implements MessagePackRPC.Connection {
 
         private final InputStream inputStream;
@@ -9,6 +9,7 @@ import org.msgpack.jackson.dataformat.MessagePackFactory;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
 
 import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.core.Is.is;
@@ -51,6 +52,22 @@ public class NeovimExceptionTest {
         assertThat(neovimException.get().getMessage(), startsWith(FAILED_ERROR_MESSAGE_START));
     }
 
+    @Test
+    public void fromThrowable_wrappedException_rootCauseMessageAndHandlerCode() {
+        NeovimException exception = NeovimException.fromThrowable(
+                new CompletionException(new IllegalStateException(ERROR_MESSAGE)));
+
+        assertThat(exception.getErrorCode(), is(NeovimException.HANDLER_FAILED));
+        assertThat(exception.getMessage(), is(ERROR_MESSAGE));
+    }
+
+    @Test
+    public void fromThrowable_neovimException_keptAsItIs() {
+        NeovimException cause = new NeovimException(ERROR_CODE, ERROR_MESSAGE);
+
+        assertThat(NeovimException.fromThrowable(new CompletionException(cause)), is(cause));
+    }
+
     private JsonNode pack(Object... objects) throws JsonProcessingException {
         return MAPPER.convertValue(objects, JsonNode.class);
     }
@@ -0,0 +1,226 @@
+package com.neovim.msgpack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class NioTransportTest {
+    private static final int CONNECTIONS = 200;
+
+    @Rule public Timeout globalTimeout = new Timeout(30000);
+
+    private NioTransport transport;
+    private final List<MessagePackRPC> rpcs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new NioTransport(2, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (MessagePackRPC rpc : rpcs) {
+            rpc.close();
+        }
+        transport.close();
+    }
+
+    @Test
+    public void sendRequest_overPipes_responseArrives() throws Exception {
+        MessagePackRPC client = echoPair();
+
+        assertThat(client.sendRequest(Integer.class, "echo", 42).get(5, TimeUnit.SECONDS), is(42));
+    }
+
+    @Test
+    public void sendRequest_largerThanReadBuffer_framedAcrossReads() throws Exception {
+        MessagePackRPC client = echoPair();
+        char[] chars = new char[1024 * 1024];
+        Arrays.fill(chars, 'x');
+        String text = new String(chars);
+
+        assertThat(client.sendRequest(String.class, "echo", text).get(5, TimeUnit.SECONDS),
+                is(text));
+    }
+
+    @Test
+    public void sendRequest_manyConnections_threadCountStaysFixed() throws Exception {
+        int threadsBefore = Thread.activeCount();
+        List<MessagePackRPC> clients = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            clients.add(echoPair());
+        }
+
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < clients.size(); i++) {
+                results.add(clients.get(i).sendRequest(Integer.class, "echo", i));
+            }
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i).get(10, TimeUnit.SECONDS), is(i % CONNECTIONS));
+        }
+        // The fixed workers are started as they are first used
+        assertThat(Thread.activeCount() - threadsBefore, lessThan(10));
+        assertThat(transport.getConnectionCount(), is(2 * CONNECTIONS));
+    }
+
+    @Test
+    public void notificationHandler_waitsOnRequest_readsResponseOnItsWorker() throws Exception {
+        Pipe toClient = Pipe.open();
+        Pipe toServer = Pipe.open();
+        MessagePackRPC server = echo(toServer.source(), toClient.sink());
+        MessagePackRPC client =
+                rpc(new MessagePackRPC(transport.connect(toClient.source(), toServer.sink())));
+        CompletableFuture<Integer> answer = new CompletableFuture<>();
+        client.setNotificationHandler((method, arg) ->
+                answer.complete(client.sendRequest(Integer.class, "echo", arg.get(0)).join()));
+        client.start();
+
+        server.sendNotification("ask", 7);
+
+        assertThat(answer.get(5, TimeUnit.SECONDS), is(7));
+    }
+
+    @Test
+    public void notificationHandler_waitsOnRequestWithOneWorker_requestIsSent() throws Exception {
+        try (NioTransport single = new NioTransport(1, 1)) {
+            Pipe toClient = Pipe.open();
+            Pipe toServer = Pipe.open();
+            MessagePackRPC server = echo(toServer.source(), toClient.sink());
+            MessagePackRPC client =
+                    new MessagePackRPC(single.connect(toClient.source(), toServer.sink()));
+            CompletableFuture<Integer> answer = new CompletableFuture<>();
+            // Holds the only worker until the response is read
+            client.setNotificationHandler((method, arg) ->
+                    answer.complete(client.sendRequest(Integer.class, "echo", arg.get(0)).join()));
+            client.start();
+
+            server.sendNotification("ask", 7);
+
+            assertThat(answer.get(5, TimeUnit.SECONDS), is(7));
+            client.close();
+        }
+    }
+
+    @Test
+    public void sendRequest_otherSideNotReading_failsOnceOutputLimitReached() throws Exception {
+        Pipe toClient = Pipe.open();
+        Pipe toServer = Pipe.open();
+        MessagePackRPC client =
+                rpc(new MessagePackRPC(transport.connect(toClient.source(), toServer.sink())));
+        client.start();
+        char[] chars = new char[1024 * 1024];
+        Arrays.fill(chars, 'x');
+        String text = new String(chars);
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (long sent = 0; sent <= 2 * NioConnection.MAX_BUFFERED_BYTES; sent += chars.length) {
+            results.add(client.sendRequest(String.class, "unread", text));
+        }
+
+        CompletableFuture<String> last = results.get(results.size() - 1);
+        try {
+            last.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        }
+    }
+
+    @Test
+    public void connect_socketChannel() throws Exception {
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            MessagePackRPC client = rpc(new MessagePackRPC(
+                    transport.connect(serverSocket.getLocalAddress())));
+            SocketChannel accepted = serverSocket.accept();
+            MessagePackRPC server = rpc(new MessagePackRPC(transport.connect(accepted)));
+            server.setRequestHandler((method, arg) -> arg.get(0));
+            server.start();
+            client.start();
+
+            assertThat(client.sendRequest(String.class, "echo", "hi").get(5, TimeUnit.SECONDS),
+                    is("hi"));
+        }
+    }
+
+    @Test
+    public void close_connectionRemovedAndChannelsClosed() throws Exception {
+        Pipe toClient = Pipe.open();
+        Pipe toServer = Pipe.open();
+        MessagePackRPC client =
+                new MessagePackRPC(transport.connect(toClient.source(), toServer.sink()));
+        client.start();
+
+        client.close();
+
+        assertThat(transport.getConnectionCount(), is(0));
+        assertThat(toClient.source().isOpen(), is(false));
+        assertThat(toServer.sink().isOpen(), is(false));
+    }
+
+    @Test
+    public void close_pendingRequestsFail() throws Exception {
+        Pipe toClient = Pipe.open();
+        Pipe toServer = Pipe.open();
+        MessagePackRPC client =
+                new MessagePackRPC(transport.connect(toClient.source(), toServer.sink()));
+        client.start();
+        CompletableFuture<Integer> result = client.sendRequest(Integer.class, "unanswered");
+
+        client.close();
+
+        assertThat(result.isCompletedExceptionally(), is(true));
+    }
+
+    /**
+     * @return client connected over pipes to a server answering every request with its first
+     *     argument
+     */
+    private MessagePackRPC echoPair() throws IOException {
+        Pipe toClient = Pipe.open();
+        Pipe toServer = Pipe.open();
+        echo(toServer.source(), toClient.sink());
+        MessagePackRPC client =
+                rpc(new MessagePackRPC(transport.connect(toClient.source(), toServer.sink())));
+        client.start();
+        return client;
+    }
+
+    private MessagePackRPC echo(Pipe.SourceChannel input, Pipe.SinkChannel output)
+            throws IOException {
+        MessagePackRPC server = rpc(new MessagePackRPC(transport.connect(input, output)));
+        server.setRequestHandler((method, arg) -> arg.get(0));
+        server.setNotificationHandler((String method, JsonNode arg) -> { });
+        server.start();
+        return server;
+    }
+
+    private MessagePackRPC rpc(MessagePackRPC rpc) {
+        rpcs.add(rpc);
+        return rpc;
+    }
+}
@@ -0,0 +1,188 @@
+package com.neovim.msgpack;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PacketWriterTest {
+    private static final String METHOD = "method";
+    private static final int THREADS = 8;
+    private static final int PACKETS_PER_THREAD = 500;
+
+    private final ObjectMapper objectMapper = MessagePackRPC.defaultObjectMapper();
+    private final ExecutorService writerService = Executors.newSingleThreadExecutor();
+
+    @Mock BiConsumer<Packet, IOException> failureHandler;
+
+    @Rule public Timeout globalTimeout = new Timeout(10000);
+
+    private CountingOutputStream output;
+    private PacketWriter packetWriter;
+
+    @Before
+    public void setUp() {
+        output = new CountingOutputStream();
+        packetWriter = new PacketWriter(objectMapper, () -> output, writerService, failureHandler);
+    }
+
+    @Test
+    public void write_singlePacket_writtenAndFlushed() throws Exception {
+        packetWriter.write(new Notification(METHOD, 1));
+        awaitWriter();
+
+        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(output.toByteArray());
+        assertThat(unpacker.unpackArrayHeader(), is(3));
+        assertThat(unpacker.unpackInt(), is(Packet.NOTIFICATION_ID));
+        assertThat(unpacker.unpackString(), is(METHOD));
+        assertThat(unpacker.unpackArrayHeader(), is(1));
+        assertThat(unpacker.unpackInt(), is(1));
+        assertThat(unpacker.hasNext(), is(false));
+        assertThat(output.flushes.get(), is(1));
+    }
+
+    @Test
+    public void write_manyProducers_everyPacketWrittenOnceInProducerOrder() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < PACKETS_PER_THREAD; i++) {
+                    packetWriter.write(new Notification(METHOD, thread, i));
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        awaitWriter();
+
+        int[] next = new int[THREADS];
+        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(output.toByteArray());
+        int count = 0;
+        while (unpacker.hasNext()) {
+            unpacker.unpackArrayHeader();
+            unpacker.unpackInt();
+            unpacker.unpackString();
+            unpacker.unpackArrayHeader();
+            int thread = unpacker.unpackInt();
+            assertThat(unpacker.unpackInt(), is(next[thread]++));
+            count++;
+        }
+        assertThat(count, is(THREADS * PACKETS_PER_THREAD));
+    }
+
+    @Test
+    public void write_whileWriterBusy_coalescedIntoOneFlush() throws Exception {
+        CountDownLatch busy = new CountDownLatch(1);
+        writerService.execute(() -> {
+            try {
+                busy.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        for (int i = 0; i < PACKETS_PER_THREAD; i++) {
+            packetWriter.write(new Notification(METHOD, i));
+        }
+        busy.countDown();
+        awaitWriter();
+
+        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(output.toByteArray());
+        int count = 0;
+        while (unpacker.hasNext()) {
+            unpacker.skipValue();
+            count++;
+        }
+        assertThat(count, is(PACKETS_PER_THREAD));
+        assertThat(output.flushes.get(), is(1));
+    }
+
+    @Test
+    public void write_serializationFails_streamHasNoPartialPacket() throws Exception {
+        Notification broken = new Notification(METHOD, 1, new Unserializable());
+        packetWriter.write(broken);
+        packetWriter.write(new Notification(METHOD, 2));
+        awaitWriter();
+
+        verify(failureHandler).accept(eq(broken), any(IOException.class));
+        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(output.toByteArray());
+        assertThat(unpacker.unpackArrayHeader(), is(3));
+        assertThat(unpacker.unpackInt(), is(Packet.NOTIFICATION_ID));
+        assertThat(unpacker.unpackString(), is(METHOD));
+        assertThat(unpacker.unpackArrayHeader(), is(1));
+        assertThat(unpacker.unpackInt(), is(2));
+        assertThat(unpacker.hasNext(), is(false));
+    }
+
+    @Test
+    public void write_flushFails_failureHandlerCalled() throws Exception {
+        OutputStream failing = mock(OutputStream.class);
+        IOException exception = new IOException();
+        doThrow(exception).when(failing).write(any(byte[].class), anyInt(), anyInt());
+        PacketWriter packetWriter =
+                new PacketWriter(objectMapper, () -> failing, writerService, failureHandler);
+
+        Notification notification = new Notification(METHOD);
+        packetWriter.write(notification);
+
+        verify(failureHandler, timeout(1000)).accept(notification, exception);
+    }
+
+    private void awaitWriter() throws InterruptedException {
+        writerService.shutdown();
+        writerService.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    public static class Unserializable {
+        public int getValue() {
+            throw new IllegalStateException("not serializable");
+        }
+    }
+
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        final AtomicInteger flushes = new AtomicInteger();
+
+        @Override
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+    }
+}
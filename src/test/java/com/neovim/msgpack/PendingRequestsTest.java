@@ -0,0 +1,90 @@
+package com.neovim.msgpack;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+@RunWith(JUnit4.class)
+public class PendingRequestsTest {
+    private static final int CAPACITY = 4;
+
+    private PendingRequests pendingRequests;
+
+    @Before
+    public void setUp() {
+        pendingRequests = new PendingRequests(CAPACITY);
+    }
+
+    @Test
+    public void remove_registeredId_returnsCallbackOnce() {
+        RequestCallback<Object> callback = new RequestCallback<>(null);
+        assertThat(pendingRequests.register(1, callback), is(true));
+
+        assertThat(pendingRequests.remove(1), is(sameInstance(callback)));
+        assertThat(pendingRequests.remove(1), is(nullValue()));
+        assertThat(pendingRequests.size(), is(0));
+    }
+
+    @Test
+    public void register_sameIdTwice_rejectsSecond() {
+        assertThat(pendingRequests.register(1, new RequestCallback<>(null)), is(true));
+        assertThat(pendingRequests.register(1, new RequestCallback<>(null)), is(false));
+        assertThat(pendingRequests.size(), is(1));
+    }
+
+    @Test
+    public void register_slotHeldByOlderRequest_usesOverflow() {
+        RequestCallback<Object> older = new RequestCallback<>(null);
+        RequestCallback<Object> newer = new RequestCallback<>(null);
+        assertThat(pendingRequests.register(1, older), is(true));
+        assertThat(pendingRequests.register(1 + CAPACITY, newer), is(true));
+        assertThat(pendingRequests.register(1 + CAPACITY, new RequestCallback<>(null)), is(false));
+
+        assertThat(pendingRequests.remove(1 + CAPACITY), is(sameInstance(newer)));
+        assertThat(pendingRequests.remove(1), is(sameInstance(older)));
+        assertThat(pendingRequests.size(), is(0));
+    }
+
+    @Test
+    public void remove_wrongId_leavesSlot() {
+        RequestCallback<Object> callback = new RequestCallback<>(null);
+        pendingRequests.register(1, callback);
+
+        assertThat(pendingRequests.remove(1 + CAPACITY), is(nullValue()));
+        assertThat(pendingRequests.remove(1), is(sameInstance(callback)));
+    }
+
+    @Test
+    public void removeCallback_onlyRemovesMatchingCallback() {
+        RequestCallback<Object> callback = new RequestCallback<>(null);
+        pendingRequests.register(2, callback);
+
+        assertThat(pendingRequests.remove(2, new RequestCallback<>(null)), is(false));
+        assertThat(pendingRequests.remove(2, callback), is(true));
+        assertThat(pendingRequests.remove(2, callback), is(false));
+    }
+
+    @Test
+    public void forEach_visitsSlotsAndOverflow() {
+        RequestCallback<Object> first = new RequestCallback<>(null);
+        RequestCallback<Object> second = new RequestCallback<>(null);
+        RequestCallback<Object> overflow = new RequestCallback<>(null);
+        pendingRequests.register(0, first);
+        pendingRequests.register(1, second);
+        pendingRequests.register(CAPACITY, overflow);
+
+        Set<RequestCallback<?>> visited = new HashSet<>();
+        pendingRequests.forEach(visited::add);
+        assertThat(visited, containsInAnyOrder(first, second, overflow));
+    }
+}
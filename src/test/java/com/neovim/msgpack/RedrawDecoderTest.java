@@ -0,0 +1,347 @@
+package com.neovim.msgpack;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RedrawDecoderTest {
+    private ObjectMapper objectMapper;
+    private RedrawDecoder decoder;
+    private Recorder recorder;
+
+    @Before
+    public void setUp() {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        decoder = new RedrawDecoder(objectMapper);
+        recorder = new Recorder();
+    }
+
+    @Test
+    public void decode_gridEvents() throws Exception {
+        stream(redraw(
+                Arrays.asList("grid_resize", Arrays.asList(1, 80, 24)),
+                Arrays.asList("grid_clear", Arrays.asList(1)),
+                Arrays.asList("grid_cursor_goto", Arrays.asList(1, 2, 3)),
+                Arrays.asList("grid_scroll", Arrays.asList(1, 0, 24, 0, 80, -1, 0)),
+                Arrays.asList("grid_destroy", Arrays.asList(2)),
+                Arrays.asList("flush", Collections.emptyList())));
+
+        assertThat(recorder.calls, contains(
+                "resize 1 80 24",
+                "clear 1",
+                "cursor 1 2 3",
+                "scroll 1 0 24 0 80 -1 0",
+                "destroy 2",
+                "flush"));
+    }
+
+    @Test
+    public void decode_gridLine_highlightCarriesOverAndRepeat() throws Exception {
+        stream(redraw(Arrays.asList("grid_line",
+                Arrays.asList(1, 4, 2, Arrays.asList(
+                        Arrays.asList("a", 7),
+                        Arrays.asList("b"),
+                        Arrays.asList(" ", 0, 10),
+                        Arrays.asList("\u4e2d", 3),
+                        Arrays.asList(""),
+                        Arrays.asList("e\u0301"))),
+                Arrays.asList(1, 5, 0, Arrays.asList(Arrays.asList("x", 1)), false))));
+
+        assertThat(recorder.calls, contains(
+                "line 1 4 2 [97 7 1][98 7 1][32 0 10][20013 3 1][0 3 1][101/e\u0301 3 1]",
+                "line 1 5 0 [120 1 1]"));
+    }
+
+    @Test
+    public void decode_hlAttrDefine_handlerReadsAttributes() throws Exception {
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("bold", true);
+        stream(redraw(
+                Arrays.asList("hl_attr_define",
+                        Arrays.asList(1, attrs, attrs, Collections.emptyList()),
+                        Arrays.asList(2, Collections.emptyMap(), attrs, Collections.emptyList())),
+                Arrays.asList("flush", Collections.emptyList())));
+
+        assertThat(recorder.calls, contains(
+                "hl 1 " + objectMapper.valueToTree(attrs),
+                "hl 2 {}",
+                "flush"));
+    }
+
+    @Test
+    public void decode_hlAttrDefine_attributesNotRead_skipped() throws Exception {
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("foreground", 0xff);
+        decodeStream(redraw(
+                Arrays.asList("hl_attr_define",
+                        Arrays.asList(1, attrs, attrs, Collections.emptyList())),
+                Arrays.asList("flush", Collections.emptyList())),
+                new Sink() {
+                    @Override
+                    public void onFlush() {
+                        recorder.onFlush();
+                    }
+                });
+
+        assertThat(recorder.calls, contains("flush"));
+    }
+
+    @Test
+    public void decode_otherEventsAsTree() throws Exception {
+        stream(redraw(
+                Arrays.asList("default_colors_set", Arrays.asList(0xffffff, 0, 0xff0000, 15, 0)),
+                Arrays.asList("flush", Collections.emptyList())));
+
+        assertThat(recorder.calls, contains(
+                "event default_colors_set "
+                        + objectMapper.valueToTree(Arrays.asList(0xffffff, 0, 0xff0000, 15, 0)),
+                "flush"));
+    }
+
+    @Test
+    public void decode_sameCallsAsTree() throws Exception {
+        byte[] traffic = traffic(new Random(42), 20, 120, 40);
+
+        decodeStream(traffic, recorder);
+        Recorder fromTree = new Recorder();
+        decodeTree(traffic, fromTree);
+
+        assertThat(recorder.calls.size(), is(fromTree.calls.size()));
+        assertThat(recorder.calls, is(fromTree.calls));
+    }
+
+    /**
+     * Compares the streaming decoder with reading each notification into a tree first, the way
+     * the notification handler gets it. Run with -Dredraw.benchmark=true.
+     */
+    @Test
+    public void benchmark_streamAgainstTree() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("redraw.benchmark"));
+        byte[] traffic = traffic(new Random(1), 200, 200, 60);
+        RedrawHandler sink = new Sink();
+        for (int i = 0; i < 20; i++) {
+            decodeStream(traffic, sink);
+            decodeTree(traffic, sink);
+        }
+        int rounds = 50;
+        long stream = 0;
+        long tree = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            decodeStream(traffic, sink);
+            stream += System.nanoTime() - start;
+            start = System.nanoTime();
+            decodeTree(traffic, sink);
+            tree += System.nanoTime() - start;
+        }
+        System.out.printf("redraw %d KiB: stream %.2f ms, tree %.2f ms%n",
+                traffic.length / 1024, stream / 1e6 / rounds, tree / 1e6 / rounds);
+    }
+
+    private void stream(byte[] packet) throws IOException {
+        decodeStream(packet, recorder);
+    }
+
+    private void decodeStream(byte[] traffic, RedrawHandler handler) throws IOException {
+        JsonParser parser = objectMapper.getFactory().createParser(traffic);
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            parser.nextToken();
+            parser.nextToken();
+            parser.nextToken();
+            decoder.decode(parser, handler);
+            parser.nextToken();
+        }
+    }
+
+    private void decodeTree(byte[] traffic, RedrawHandler handler) throws IOException {
+        JsonParser parser = objectMapper.getFactory().createParser(traffic);
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            JsonNode packet = objectMapper.readTree(parser);
+            decoder.decode(packet.get(2), handler);
+        }
+    }
+
+    private byte[] redraw(Object... batches) throws IOException {
+        return objectMapper.writeValueAsBytes(
+                Arrays.asList(Packet.NOTIFICATION_ID, "redraw", Arrays.asList(batches)));
+    }
+
+    /**
+     * Redraw notifications like those of editing and scrolling a file: every screen scrolls,
+     * redraws a few lines with runs of highlights and spaces and moves the cursor.
+     */
+    private byte[] traffic(Random random, int screens, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("foreground", 0xff0000);
+        out.write(redraw(
+                Arrays.asList("grid_resize", Arrays.asList(1, width, height)),
+                Arrays.asList("hl_attr_define",
+                        Arrays.asList(1, attrs, attrs, Collections.emptyList())),
+                Arrays.asList("grid_clear", Arrays.asList(1))));
+        String[] texts = {"a", "b", "(", ")", "=", "\u4e2d", "", "\u00e9", "e\u0301"};
+        for (int screen = 0; screen < screens; screen++) {
+            List<Object> lines = new ArrayList<>();
+            lines.add("grid_line");
+            int rows = screen % 5 == 0 ? height : 1 + random.nextInt(4);
+            for (int row = 0; row < rows; row++) {
+                List<Object> cells = new ArrayList<>();
+                int col = 0;
+                while (col < width) {
+                    int left = width - col;
+                    if (random.nextInt(8) == 0) {
+                        int repeat = 1 + random.nextInt(left);
+                        cells.add(Arrays.asList(" ", 0, repeat));
+                        col += repeat;
+                    } else if (random.nextBoolean()) {
+                        cells.add(Arrays.asList(texts[random.nextInt(texts.length)]));
+                        col++;
+                    } else {
+                        cells.add(Arrays.asList(
+                                texts[random.nextInt(texts.length)], random.nextInt(40)));
+                        col++;
+                    }
+                }
+                if (!cells.isEmpty()) {
+                    // The first cell always has a highlight id
+                    List<?> first = (List<?>) cells.get(0);
+                    cells.set(0, Arrays.asList(
+                            first.get(0), 2, first.size() > 2 ? first.get(2) : 1));
+                }
+                lines.add(Arrays.asList(1, row, 0, cells, random.nextBoolean()));
+            }
+            out.write(redraw(
+                    Arrays.asList("grid_scroll", Arrays.asList(1, 0, height, 0, width, 1, 0)),
+                    lines,
+                    Arrays.asList("grid_cursor_goto",
+                            Arrays.asList(1, random.nextInt(height), random.nextInt(width))),
+                    Arrays.asList("flush", Collections.emptyList())));
+        }
+        return out.toByteArray();
+    }
+
+    private static class Recorder implements RedrawHandler {
+        private final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void onGridResize(int grid, int width, int height) {
+            calls.add("resize " + grid + " " + width + " " + height);
+        }
+
+        @Override
+        public void onGridClear(int grid) {
+            calls.add("clear " + grid);
+        }
+
+        @Override
+        public void onGridDestroy(int grid) {
+            calls.add("destroy " + grid);
+        }
+
+        @Override
+        public void onGridCursorGoto(int grid, int row, int col) {
+            calls.add("cursor " + grid + " " + row + " " + col);
+        }
+
+        @Override
+        public void onGridScroll(int grid, int top, int bot, int left, int right, int rows,
+                int cols) {
+            calls.add("scroll " + grid + " " + top + " " + bot + " " + left + " " + right + " "
+                    + rows + " " + cols);
+        }
+
+        @Override
+        public void onGridLine(int grid, int row, int colStart, GridCells cells) {
+            StringBuilder builder =
+                    new StringBuilder("line " + grid + " " + row + " " + colStart + " ");
+            for (int i = 0; i < cells.size(); i++) {
+                builder.append('[').append(cells.getCodePoint(i));
+                if (cells.getCluster(i) != null) {
+                    builder.append('/').append(cells.getCluster(i));
+                }
+                builder.append(' ').append(cells.getHighlight(i))
+                        .append(' ').append(cells.getRepeat(i)).append(']');
+            }
+            calls.add(builder.toString());
+        }
+
+        @Override
+        public void onFlush() {
+            calls.add("flush");
+        }
+
+        @Override
+        public void onHlAttrDefine(int id, ObjectMapper objectMapper, JsonParser rgbAttrs)
+                throws IOException {
+            calls.add("hl " + id + " " + objectMapper.readTree(rgbAttrs));
+        }
+
+        @Override
+        public void onEvent(String name, JsonNode args) {
+            calls.add("event " + name + " " + args);
+        }
+    }
+
+    private static class Sink implements RedrawHandler {
+        private long sum;
+
+        @Override
+        public void onGridResize(int grid, int width, int height) {
+        }
+
+        @Override
+        public void onGridClear(int grid) {
+        }
+
+        @Override
+        public void onGridDestroy(int grid) {
+        }
+
+        @Override
+        public void onGridCursorGoto(int grid, int row, int col) {
+        }
+
+        @Override
+        public void onGridScroll(int grid, int top, int bot, int left, int right, int rows,
+                int cols) {
+        }
+
+        @Override
+        public void onGridLine(int grid, int row, int colStart, GridCells cells) {
+            for (int i = 0; i < cells.size(); i++) {
+                sum += cells.getCodePoint(i) + cells.getHighlight(i);
+            }
+        }
+
+        @Override
+        public void onFlush() {
+        }
+
+        @Override
+        public void onHlAttrDefine(int id, ObjectMapper objectMapper, JsonParser rgbAttrs) {
+        }
+
+        @Override
+        public void onEvent(String name, JsonNode args) {
+        }
+    }
+}
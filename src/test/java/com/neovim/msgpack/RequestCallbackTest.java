@@ -53,6 +53,14 @@ public class RequestCallbackTest {
         verify(objectMapper).readValue(jsonParser, type);
     }
 
+    @Test
+    public void setResult_parser_readsValueFromParser() throws IOException {
+        requestCallback.setResult(objectMapper, jsonParser);
+
+        verify(objectMapper).readValue(jsonParser, type);
+        assertThat(requestCallback.getCompletableFuture().getNow(null), is(result));
+    }
+
     @Test
     public void testSetError() throws Exception {
         requestCallback.setError(neovimException);
@@ -0,0 +1,207 @@
+package com.neovim.msgpack;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class RequestLimiterTest {
+    private RequestLimiter limiter;
+    private List<String> sent;
+
+    @Before
+    public void setUp() {
+        limiter = new RequestLimiter();
+        sent = new ArrayList<>();
+    }
+
+    @Test
+    public void submit_noLimit_sentImmediately() {
+        for (int i = 0; i < 100; i++) {
+            submit("method");
+        }
+        assertThat(sent.size(), is(100));
+        assertThat(limiter.getStats().getTotalQueued(), is(0L));
+    }
+
+    @Test
+    public void submit_overGlobalLimit_queuedUntilResponse() {
+        limiter.setLimit("", 1, OverflowPolicy.QUEUE);
+
+        CompletableFuture<Object> first = submit("first");
+        submit("second");
+        assertThat(sent, contains("first"));
+        assertThat(limiter.getStats().getQueued(), is(1));
+
+        first.complete(null);
+        assertThat(sent, contains("first", "second"));
+        assertThat(limiter.getStats().getQueued(), is(0));
+        assertThat(limiter.getStats().getTotalQueued(), is(1L));
+    }
+
+    @Test
+    public void submit_queued_sentInOrder() {
+        limiter.setLimit("", 2, OverflowPolicy.QUEUE);
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(submit(Integer.toString(i)));
+        }
+
+        futures.forEach(future -> future.complete(null));
+
+        assertThat(sent, contains("0", "1", "2", "3", "4", "5"));
+    }
+
+    @Test
+    public void submit_failFast_rejected() throws Exception {
+        limiter.setLimit("", 1, OverflowPolicy.FAIL_FAST);
+
+        submit("first");
+        CompletableFuture<Object> second = submit("second");
+
+        assertThat(sent, contains("first"));
+        assertThat(causeOf(second), instanceOf(RejectedExecutionException.class));
+    }
+
+    @Test
+    public void submit_prefixLimit_onlyMatchingMethodsLimited() throws Exception {
+        limiter.setLimit("buffer_", 1, OverflowPolicy.QUEUE);
+        limiter.setLimit("buffer_get_", 1, OverflowPolicy.FAIL_FAST);
+
+        submit("buffer_set_line");
+        submit("buffer_set_line");
+        submit("vim_command");
+        submit("buffer_get_line");
+        CompletableFuture<Object> rejected = submit("buffer_get_line");
+
+        assertThat(sent, contains("buffer_set_line", "vim_command", "buffer_get_line"));
+        assertThat(causeOf(rejected), instanceOf(RejectedExecutionException.class));
+    }
+
+    @Test
+    public void submit_queuedCancelled_neverSent() {
+        limiter.setLimit("", 1, OverflowPolicy.QUEUE);
+        CompletableFuture<Object> first = submit("first");
+        CompletableFuture<Object> second = submit("second");
+
+        second.cancel(false);
+        assertThat(limiter.getStats().getQueued(), is(0));
+        first.complete(null);
+
+        assertThat(sent, contains("first"));
+    }
+
+    @Test
+    public void setLimit_raised_queuedSent() {
+        limiter.setLimit("", 1, OverflowPolicy.QUEUE);
+        submit("first");
+        submit("second");
+
+        limiter.setLimit("", 2, OverflowPolicy.QUEUE);
+
+        assertThat(sent, contains("first", "second"));
+    }
+
+    @Test
+    public void failQueued_queuedCompletedExceptionally() throws Exception {
+        limiter.setLimit("", 1, OverflowPolicy.QUEUE);
+        submit("first");
+        CompletableFuture<Object> second = submit("second");
+        IOException closed = new IOException("closed");
+
+        limiter.failQueued(closed);
+
+        assertThat(causeOf(second), is((Throwable) closed));
+        assertThat(limiter.getStats().getQueued(), is(0));
+    }
+
+    @Test
+    public void drain_sendsFailImmediately_noRecursion() {
+        limiter.setLimit("", 1, OverflowPolicy.QUEUE);
+        CompletableFuture<Object> first = submit("first");
+        int failing = 100000;
+        for (int i = 0; i < failing; i++) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            limiter.submit("failing", future, () -> {
+                IOException e = new IOException("closed");
+                future.completeExceptionally(e);
+                throw new UncheckedIOException(e);
+            });
+        }
+
+        first.complete(null);
+
+        assertThat(limiter.getStats().getQueued(), is(0));
+        assertThat(limiter.getStats().getTotalQueued(), is((long) failing));
+    }
+
+    @Test
+    public void submit_failFast_completedWithoutLock() throws Exception {
+        limiter.setLimit("", 1, OverflowPolicy.FAIL_FAST);
+        submit("first");
+        CompletableFuture<Object> rejected = new CompletableFuture<>();
+        CompletableFuture<RequestQueueStats> stats = new CompletableFuture<>();
+        rejected.whenComplete((result, error) -> statsFromOtherThread(stats));
+
+        limiter.submit("second", rejected, () -> sent.add("second"));
+
+        assertThat(stats.get(1, TimeUnit.SECONDS).getQueued(), is(0));
+    }
+
+    @Test
+    public void failQueued_completedWithoutLock() throws Exception {
+        limiter.setLimit("", 1, OverflowPolicy.QUEUE);
+        submit("first");
+        CompletableFuture<Object> second = submit("second");
+        CompletableFuture<RequestQueueStats> stats = new CompletableFuture<>();
+        second.whenComplete((result, error) -> statsFromOtherThread(stats));
+
+        limiter.failQueued(new IOException("closed"));
+
+        assertThat(stats.get(1, TimeUnit.SECONDS).getQueued(), is(0));
+    }
+
+    /**
+     * Blocks until another thread got the stats, which it can't while the caller holds the lock.
+     */
+    private void statsFromOtherThread(CompletableFuture<RequestQueueStats> stats) {
+        try {
+            stats.complete(CompletableFuture.supplyAsync(limiter::getStats)
+                    .get(1, TimeUnit.SECONDS));
+        } catch (Exception e) {
+            stats.completeExceptionally(e);
+        }
+    }
+
+    private CompletableFuture<Object> submit(String method) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        limiter.submit(method, future, () -> sent.add(method));
+        return future;
+    }
+
+    private static Throwable causeOf(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}